@@ -0,0 +1,43 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates a decorator confining the decorated instance to a single consumer is to be provided. Each call is queued
+ * as a command, and the commands are passed to the decorated instance one at a time, in the order they were queued, on
+ * an executor. The decorated instance therefore needs not be thread-safe, and the callers never wait on a lock.
+ * <pre><code>
+ * {@literal @}Actor
+ * interface Ledger {
+ *     void record(String account, long amount);
+ *     long balance(String account);
+ * }
+ * </code></pre>
+ * Later the generated class can wrap any <code>Ledger</code>:
+ * <pre><code>
+ * ActorLedger ledger = new ActorLedger(new InMemoryLedger(), executor);
+ * ledger.record("savings", 100); // queued, returns at once
+ * ledger.balance("savings"); // queued after the record, waits for its result
+ * </code></pre>
+ * A void method returns once its command is queued, and an exception it throws is passed to the uncaught exception
+ * handler of the consumer thread. The other methods wait for their command to be run, and return its result or throw
+ * its exception. A call made by the decorated instance to the decorator, from the consumer, is run at once if it
+ * returns a value, rather than waiting for itself. Commands are run by a single task at a time, even on an executor
+ * with several threads.
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface Actor {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"Actor"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+}
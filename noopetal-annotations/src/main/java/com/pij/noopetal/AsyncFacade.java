@@ -0,0 +1,42 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates an asynchronous twin of the interface is to be provided, with an adapter running the calls of the
+ * interface on an executor. Each method of the twin returns a <code>CompletableFuture</code> of the original result,
+ * <code>Void</code> for void methods.
+ * <pre><code>
+ * {@literal @}AsyncFacade
+ * interface Repository {
+ *     User load(long id) throws IOException;
+ * }
+ * </code></pre>
+ * generates <code>RepositoryAsync</code>, declaring <code>CompletableFuture&lt;User&gt; load(long id)</code>, and
+ * <code>RepositoryAsyncAdapter</code>, which implements it:
+ * <pre><code>
+ * RepositoryAsync repository = new RepositoryAsyncAdapter(blockingRepository, executor);
+ * repository.load(42L).thenAccept(user -&gt; ...);
+ * </code></pre>
+ * An exception thrown by the call, checked or not, completes the future exceptionally.
+ * <p><code>CompletableFuture</code> is only available from Java 8 and Android API level 24, unlike the code generated
+ * for the other annotations.</p>
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface AsyncFacade {
+
+    /**
+     * Name of the interface to generate. If it does not include a package, the package of the annotated interface is
+     * used. If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is
+     * used, suffixed with <code>"Async"</code>.</p> Valid values:<ul> <li><code>com.me.TheInterface</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheInterface</code></li> <li><code>TheInterface</code></li> </ul>
+     * The adapter is generated in the same package, named after the interface, suffixed with
+     * <code>"Adapter"</code>.
+     */
+    String value() default "";
+}
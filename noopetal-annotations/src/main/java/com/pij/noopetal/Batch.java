@@ -0,0 +1,53 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates a decorator buffering the calls to the interface is to be provided. The calls are stored in a buffer and
+ * passed to the decorated instance in batches, in the order they were made, on an executor. All the methods of the
+ * interface must return <code>void</code>.
+ * <pre><code>
+ * {@literal @}Batch(maxBatchSize = 512, maxDelayMillis = 50)
+ * interface EventSink {
+ *     void onEvent(String name, long timestamp);
+ * }
+ * </code></pre>
+ * Later the generated class can wrap any <code>EventSink</code>:
+ * <pre><code>
+ * BatchingEventSink sink = new BatchingEventSink(remoteSink, scheduledExecutor);
+ * sink.onEvent("click", now); // buffered
+ * sink.flush(); // the buffered calls are passed to remoteSink on the executor
+ * </code></pre>
+ * A batch is passed on when it is full, when the oldest call in it is <code>maxDelayMillis</code> old, and when
+ * <code>flush()</code> is called. If the interface has its own <code>void flush()</code>, that method is buffered like
+ * the others and then passes the batch on. Batches are delivered one at a time, even on an executor with several
+ * threads. If the decorated instance throws, the rest of its batch is dropped, and the following batches are passed on
+ * with the next one.
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface Batch {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"Batching"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+
+    /**
+     * Number of calls in a full batch. Must be positive.
+     */
+    int maxBatchSize() default 256;
+
+    /**
+     * If positive, the longest a call waits in the buffer, in milliseconds. The generated class then takes a
+     * <code>ScheduledExecutorService</code> instead of an <code>Executor</code>.
+     */
+    long maxDelayMillis() default 0;
+}
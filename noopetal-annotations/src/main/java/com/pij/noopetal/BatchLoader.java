@@ -0,0 +1,60 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates a decorator grouping single-key lookups into bulk ones is to be provided. A method taking a single key and
+ * returning a value is paired with its bulk counterpart, named after it with the {@link #bulkSuffix() bulk suffix},
+ * taking a collection of keys and returning a map of values:
+ * <pre><code>
+ * {@literal @}BatchLoader
+ * interface UserRepository {
+ *     User get(Long id);
+ *     Map&lt;Long, User&gt; getAll(Collection&lt;Long&gt; ids);
+ * }
+ * </code></pre>
+ * Later the generated class can wrap any <code>UserRepository</code>:
+ * <pre><code>
+ * UserRepository users = new BatchLoadingUserRepository(remoteRepository);
+ * users.get(42L); // called from many threads at once, calls remoteRepository.getAll() once
+ * </code></pre>
+ * The first call of a batch waits up to {@link #maxDelayMillis()} for other calls to join it, and as long as a previous
+ * bulk call of the same method is in progress, unless the batch is full. It then makes the bulk call with the distinct
+ * keys of the batch, and each call of the batch returns the value mapped to its key, <code>null</code> if there is
+ * none. If the bulk call throws, all the calls of the batch throw the same exception.
+ * <p>The bulk parameter can be a <code>Collection</code>, <code>Set</code>, <code>List</code> or
+ * <code>Iterable</code> of the key type, which must not be primitive. Methods that are not paired are passed
+ * through.</p>
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface BatchLoader {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"BatchLoading"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+
+    /**
+     * Suffix of the name of the bulk methods: by default, <code>find()</code> is paired with <code>findAll()</code>.
+     */
+    String bulkSuffix() default "All";
+
+    /**
+     * Maximum number of distinct keys of a bulk call.
+     */
+    int maxBatchSize() default 100;
+
+    /**
+     * How long the first call of a batch waits for others, in milliseconds. By default, it does not wait, and only the
+     * calls made while a bulk call is in progress are batched.
+     */
+    long maxDelayMillis() default 0;
+}
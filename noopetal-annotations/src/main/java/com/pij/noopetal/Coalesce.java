@@ -0,0 +1,40 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates a decorator coalescing concurrent identical calls is to be provided. While a call of a non-void method is
+ * in progress, the calls of the same method with equal arguments do not reach the decorated instance: they wait for the
+ * call in progress and share its result or exception. Void methods are passed through.
+ * <pre><code>
+ * {@literal @}Coalesce
+ * interface Lookup {
+ *     String findName(long id);
+ * }
+ * </code></pre>
+ * Later the generated class can wrap any <code>Lookup</code>:
+ * <pre><code>
+ * CoalescingLookup lookup = new CoalescingLookup(remoteLookup);
+ * lookup.findName(42L); // called from many threads at once, calls remoteLookup once
+ * </code></pre>
+ * Nothing is kept once the call completes: unlike {@link Memoize}, a later call reaches the decorated instance again.
+ * The arguments must implement <code>equals()</code> and <code>hashCode()</code>. An exception is rethrown as is to
+ * all the waiting callers, with the stack trace of the call that reached the decorated instance. A call made by the
+ * decorated instance to the decorator, with the same arguments, would wait for itself.
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface Coalesce {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"Coalescing"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+}
@@ -0,0 +1,68 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates an implementation forwarding each call to several instances of the interface, its components, is to be
+ * provided. Typically used for a list of listeners.
+ * <pre><code>
+ * {@literal @}Composite
+ * interface OnChangeListener {
+ *     void onChange(int value);
+ * }
+ * </code></pre>
+ * Later the generated class can be used as any <code>OnChangeListener</code>:
+ * <pre><code>
+ * CompositeOnChangeListener listeners = new CompositeOnChangeListener();
+ * listeners.addComponent(logger);
+ * listeners.addComponent(view);
+ * listeners.onChange(42); // calls logger, then view
+ * </code></pre>
+ * Components are held in an array, replaced on each change. Adding and removing components does not lock, and a call
+ * iterates over the array without allocating. A call made while components change is forwarded to the components
+ * before or after the change. If a component throws, the following ones are not called.
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface Composite {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"Composite"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+
+    /**
+     * Which result the non-void methods return. Without components, they return 0, <code>false</code> or
+     * <code>null</code>.
+     */
+    Policy policy() default Policy.LAST;
+
+    /**
+     * Policies selecting the result of a non-void method among those of the components. Whatever the policy, all the
+     * components are called, in the order they were added.
+     */
+    enum Policy {
+
+        /**
+         * Returns the result of the first component.
+         */
+        FIRST,
+
+        /**
+         * Returns the result of the last component.
+         */
+        LAST,
+
+        /**
+         * Returns the first result that is not <code>null</code>. For primitive results, same as {@link #FIRST}.
+         */
+        FIRST_NON_NULL
+    }
+}
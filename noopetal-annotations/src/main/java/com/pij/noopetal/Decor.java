@@ -58,4 +58,39 @@ public @interface Decor {
      * </pre>
      */
     boolean mutable() default false;
+
+    /**
+     * How a mutable decorator publishes the decorated object to the threads calling it. Only valid if {@link #mutable()}
+     * is set.
+     */
+    Publication publication() default Publication.PLAIN;
+
+    /**
+     * If set, an additional <code>compareAndSetDecorated(expected, newValue)</code> method is added. Only valid with the
+     * {@link Publication#ATOMIC ATOMIC} publication.
+     */
+    boolean compareAndSet() default false;
+
+    /**
+     * Strategies to publish the decorated object of a {@link #mutable()} decorator.
+     */
+    enum Publication {
+
+        /**
+         * A plain field: the cheapest, only for decorators used by a single thread.
+         */
+        PLAIN,
+
+        /**
+         * A <code>volatile</code> field: calls see the decorated object set last, at the cost of a volatile read.
+         */
+        VOLATILE,
+
+        /**
+         * An <code>AtomicReference</code>: the setter publishes with release semantics (<code>lazySet</code>), which is
+         * cheaper than a volatile write, calls read with acquire semantics. Allows
+         * {@link Decor#compareAndSet() compare-and-set}.
+         */
+        ATOMIC
+    }
 }
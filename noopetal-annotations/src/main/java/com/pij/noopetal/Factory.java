@@ -21,6 +21,21 @@ import static java.lang.annotation.RetentionPolicy.SOURCE;
  * // ..
  * MyExample defaultExample = factory.createMyExample();
  * </code></pre>
+ * If a {@link #pool() pool} is specified, the class <code>PoolingMyExampleFactory</code> is generated as well. It
+ * implements the factory interface, reusing the instances released to it and creating the others with another
+ * factory:
+ * <pre><code>
+ * PoolingMyExampleFactory pool = new PoolingMyExampleFactory(factory);
+ * MyExample example = pool.createMyExample();
+ * // ..
+ * pool.release(example);
+ * </code></pre>
+ * If {@link #lazy()} is set, the class <code>LazyMyExampleFactory</code> is generated as well. It implements the
+ * factory interface, creating a single instance with another factory on first use:
+ * <pre><code>
+ * MyExampleFactory lazy = new LazyMyExampleFactory(factory); // nothing created yet
+ * MyExample example = lazy.createMyExample(); // always the same instance
+ * </code></pre>
  */
 @Retention(SOURCE)
 @Target(TYPE)
@@ -33,4 +48,48 @@ public @interface Factory {
      * <li><code>com.me.</code></li> <li><code>.TheFactory</code></li> <li><code>TheFactory</code></li> </ul>
      */
     String value() default "";
+
+    /**
+     * Pool of the generated pooling factory. No pooling factory is generated by default.
+     */
+    Pool pool() default Pool.NONE;
+
+    /**
+     * Maximum number of instances held by the pool. Instances released to a full pool are dropped.
+     */
+    int poolSize() default 16;
+
+    /**
+     * If set, a lazy factory is generated as well. It is not by default.
+     */
+    boolean lazy() default false;
+
+    /**
+     * Pools the generated pooling factory can use. Whatever the pool, the factory counts the instances taken from the
+     * pool, its hits, and those created, its misses, in counters striped by thread.
+     */
+    enum Pool {
+
+        /**
+         * No pooling factory.
+         */
+        NONE,
+
+        /**
+         * A single bounded queue, shared by all threads. It suits pools used by a few threads.
+         */
+        BOUNDED,
+
+        /**
+         * A bounded queue per stripe of threads, sharing the {@link #poolSize() pool size}. A thread only takes
+         * instances from, and releases them to, its own stripe.
+         */
+        STRIPED,
+
+        /**
+         * A queue per thread, each holding up to {@link #poolSize() pool size} instances, used without locking. An
+         * instance is pooled by the thread releasing it.
+         */
+        THREAD_LOCAL
+    }
 }
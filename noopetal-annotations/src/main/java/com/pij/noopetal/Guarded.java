@@ -0,0 +1,79 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates a decorator guarding the decorated instance with a read/write lock is to be provided. The methods named as
+ * reads, after {@link #readPrefixes()}, share the read lock, so they run in parallel. The others take the write lock,
+ * which excludes all the other calls.
+ * <pre><code>
+ * {@literal @}Guarded
+ * interface Registry {
+ *     Service find(String name);
+ *     boolean contains(String name);
+ *     void register(String name, Service service);
+ * }
+ * </code></pre>
+ * Later the generated class can wrap any <code>Registry</code>:
+ * <pre><code>
+ * GuardedRegistry registry = new GuardedRegistry(new HashMapRegistry());
+ * registry.find("mail"); // under the read lock, in parallel with other reads
+ * registry.register("mail", mailService); // under the write lock
+ * </code></pre>
+ * A method is a read if its name is one of the prefixes, or starts with one followed by a character that is not a
+ * lower case letter: <code>getName</code> and <code>size</code> are reads, <code>hasten</code> and
+ * <code>issue</code> are not. The decorated instance must not call the decorator back: a read cannot take the write
+ * lock, and a {@link Lock#STAMPED STAMPED} lock is not reentrant at all.
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface Guarded {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"Guarded"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+
+    /**
+     * Prefixes of the names of the methods taking the read lock. Must not be empty strings.
+     */
+    String[] readPrefixes() default { "get", "is", "has", "contains", "find", "size" };
+
+    /**
+     * The lock guarding the decorated instance.
+     */
+    Lock lock() default Lock.READ_WRITE;
+
+    /**
+     * Locks guarding the decorated instance.
+     */
+    enum Lock {
+
+        /**
+         * A <code>ReentrantReadWriteLock</code>, available on all Java and Android versions.
+         */
+        READ_WRITE,
+
+        /**
+         * A <code>StampedLock</code>, whose read lock is cheaper to take. Only available from Java 8 and Android API
+         * level 24.
+         */
+        STAMPED,
+
+        /**
+         * A <code>StampedLock</code>, a read returning a value first running without any lock, then validating that no
+         * write happened meanwhile. If one did, the read runs again under the read lock. Only for decorated instances
+         * whose reads have no side effects and tolerate concurrent writes, e.g. reading immutable snapshots from
+         * <code>volatile</code> fields, as they may see a state being written. Only available from Java 8 and Android
+         * API level 24.
+         */
+        OPTIMISTIC
+    }
+}
@@ -0,0 +1,41 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates a decorator measuring the calls to the interface is to be provided. For each method, it counts the calls
+ * and the calls that threw, and records a histogram of their latency.
+ * <pre><code>
+ * {@literal @}Instrumented
+ * interface MyService {
+ *     Result process(Request request);
+ * }
+ * </code></pre>
+ * Later the generated class can wrap any <code>MyService</code>, and its measures read at any time:
+ * <pre><code>
+ * InstrumentedMyService service = new InstrumentedMyService(realService);
+ * // ...
+ * for (InstrumentedMyService.MethodSnapshot method : service.snapshot()) {
+ *     log(method.getName(), method.getCallCount(), method.getPercentileNanos(0.99));
+ * }
+ * </code></pre>
+ * The counters are spread over several stripes, selected by the calling thread, so concurrent calls do not contend on
+ * the same counter. Recording a call neither locks nor allocates. A snapshot adds the stripes up without stopping the
+ * calls, so it may miss the calls in progress.
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface Instrumented {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"Instrumented"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+}
@@ -0,0 +1,43 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates a decorator creating the decorated instance on first use is to be provided. Typically used for services
+ * wired at startup but rarely used.
+ * <pre><code>
+ * {@literal @}Lazy
+ * interface Service {
+ *     String find(long id);
+ * }
+ * </code></pre>
+ * Later the generated class can be used as any <code>Service</code>, the real one only being created by the first
+ * call:
+ * <pre><code>
+ * Service service = new LazyService(new LazyService.Supplier() {
+ *     {@literal @}Override
+ *     public Service get() {
+ *         return new RemoteService(configuration);
+ *     }
+ * });
+ * </code></pre>
+ * The decorated instance is created once, even if the first calls are concurrent, and is safely published to all the
+ * threads. Once created, it is read from a volatile field without locking. The supplier is then released. If the
+ * supplier throws, the call fails and the next one calls the supplier again.
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface Lazy {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"Lazy"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+}
@@ -0,0 +1,71 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates a caching decorator of the interface is to be provided. The results of the non-void methods of the
+ * decorated instance are kept in a bounded cache, keyed by method and arguments. Void methods are passed through.
+ * <pre><code>
+ * {@literal @}Memoize(maximumSize = 500, expireAfterWriteMillis = 60000)
+ * interface Lookup {
+ *     String findName(long id);
+ * }
+ * </code></pre>
+ * Later the generated class can wrap any <code>Lookup</code>:
+ * <pre><code>
+ * MemoizingLookup cached = new MemoizingLookup(remoteLookup);
+ * cached.findName(42L); // calls remoteLookup
+ * cached.findName(42L); // cached
+ * cached.getHitCount(); // 1
+ * </code></pre>
+ * The arguments must be effectively immutable, and implement <code>equals()</code> and <code>hashCode()</code>.
+ * Primitive arguments are not boxed. The cache is guarded by a lock, which is not held while the decorated instance is
+ * called: concurrent misses on the same key may call it more than once.
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface Memoize {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"Memoizing"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+
+    /**
+     * Maximum number of results kept, all methods included. Must be positive.
+     */
+    int maximumSize() default 1000;
+
+    /**
+     * Which result is evicted when the cache is full.
+     */
+    Eviction eviction() default Eviction.LRU;
+
+    /**
+     * If positive, results are only returned for that duration after the decorated instance returned them.
+     */
+    long expireAfterWriteMillis() default 0;
+
+    /**
+     * Eviction policies of the cache.
+     */
+    enum Eviction {
+
+        /**
+         * Evicts the least recently used result.
+         */
+        LRU,
+
+        /**
+         * Evicts the oldest result, whether it was used or not.
+         */
+        FIFO
+    }
+}
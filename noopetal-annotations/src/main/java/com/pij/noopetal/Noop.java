@@ -17,8 +17,11 @@ import static java.lang.annotation.RetentionPolicy.SOURCE;
  * Later the class can be used:
  * <pre><code>
  * //..
- * private MyExample defaultExample = new MyExampleNoop();
+ * private MyExample defaultExample = NoopMyExample.INSTANCE;
  * </code></pre>
+ * The generated class has no state, so it provides a shared instance, <code>INSTANCE</code>. For a generic interface,
+ * the shared instance is obtained from the static <code>instance()</code> method, with the type arguments of the
+ * caller.
  */
 @Retention(SOURCE)
 @Target(TYPE)
@@ -31,4 +34,40 @@ public @interface Noop {
      * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
      */
     String value() default "";
+
+    /**
+     * If set (the default), the generated class can be instantiated and extended, e.g. to handle only some of the
+     * methods. Otherwise, it is final and can only be used through its shared instance.
+     */
+    boolean extensible() default true;
+
+    /**
+     * What the generated methods return, for the return types that are not primitive.
+     */
+    Defaults defaults() default Defaults.NULL;
+
+    /**
+     * Strategies for the values returned by the generated methods. Primitive types always return 0 or
+     * <code>false</code>.
+     */
+    enum Defaults {
+
+        /**
+         * Returns <code>null</code>.
+         */
+        NULL,
+
+        /**
+         * Returns an empty value, shared by all the calls, where the type has one:<ul>
+         * <li><code>""</code> for <code>String</code> and <code>CharSequence</code>,</li>
+         * <li>the immutable empty collections of <code>java.util.Collections</code> for <code>Iterable</code>,
+         * <code>Collection</code>, <code>List</code>, <code>Set</code>, <code>Map</code>, <code>Iterator</code>,
+         * <code>ListIterator</code> and <code>Enumeration</code>,</li>
+         * <li><code>Optional.empty()</code> for <code>java.util.Optional</code>,</li>
+         * <li>an empty array held in a constant of the generated class, for arrays of non-generic types,</li>
+         * <li>the shared instance of the Noop class of an interface annotated with {@link Noop}.</li></ul>
+         * Other types return <code>null</code>.
+         */
+        EMPTY
+    }
 }
@@ -0,0 +1,47 @@
+package com.pij.noopetal;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Indicates a decorator serialising the calls per key is to be provided. The first parameter of each method is its
+ * key: the calls with equal keys run one at a time, those with different keys mostly in parallel. The keys are spread
+ * over a fixed number of locks, the stripes, after their <code>hashCode()</code>.
+ * <pre><code>
+ * {@literal @}Striped(stripes = 256)
+ * interface Accounts {
+ *     void deposit(String account, long amount);
+ *     long balance(String account);
+ *     void audit();
+ * }
+ * </code></pre>
+ * Later the generated class can wrap any <code>Accounts</code>:
+ * <pre><code>
+ * StripedAccounts accounts = new StripedAccounts(new InMemoryAccounts());
+ * accounts.deposit("savings", 100); // excludes the other calls for "savings" only
+ * accounts.audit(); // excludes all the other calls
+ * </code></pre>
+ * A method without parameters takes all the locks, in order. Keys on the same stripe also exclude each other, so more
+ * stripes mean less contention. The locks are reentrant, but the decorated instance must not call the decorator with
+ * another key, as two such calls could wait for each other.
+ */
+@Retention(SOURCE)
+@Target(TYPE)
+public @interface Striped {
+
+    /**
+     * Name of the class to generate. If it does not include a package, the package of the annotated interface is used.
+     * If it only includes a package (i.e. the last character is a '.', the name of the annotated interface is used,
+     * prefixed with <code>"Striped"</code>.</p> Valid values:<ul> <li><code>com.me.TheClass</code></li>
+     * <li><code>com.me.</code></li> <li><code>.TheClass</code></li> <li><code>TheClass</code></li> </ul>
+     */
+    String value() default "";
+
+    /**
+     * Number of locks the keys are spread over. Must be a positive power of two.
+     */
+    int stripes() default 64;
+}
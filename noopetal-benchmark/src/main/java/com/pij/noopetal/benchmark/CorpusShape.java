@@ -0,0 +1,126 @@
+package com.pij.noopetal.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * The shapes of synthetic source corpora used to measure the processor. Each shape stresses a different part of it.
+ */
+enum CorpusShape {
+
+    /**
+     * Many small interfaces, with all the annotations: the per-interface overhead.
+     */
+    MANY_SMALL {
+        @Override
+        List<JavaFileObject> generate() {
+            List<JavaFileObject> result = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                SourceBuilder source = new SourceBuilder("Small" + i).annotate("Noop", "Decor", "Factory");
+                for (int m = 0; m < 5; m++) {
+                    source.method("int method" + m + "(String value, long count)");
+                }
+                result.add(source.build());
+            }
+            return result;
+        }
+    },
+
+    /**
+     * A few huge interfaces: the cost per method.
+     */
+    FEW_HUGE {
+        @Override
+        List<JavaFileObject> generate() {
+            List<JavaFileObject> result = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                SourceBuilder source = new SourceBuilder("Huge" + i).annotate("Noop", "Decor");
+                for (int m = 0; m < 1200; m++) {
+                    source.method("java.util.List<String> method" + m + "(int index, Object value)");
+                }
+                result.add(source.build());
+            }
+            return result;
+        }
+    },
+
+    /**
+     * A long chain of interfaces extending each other, all annotated: the hierarchy walk.
+     */
+    DEEP_HIERARCHY {
+        @Override
+        List<JavaFileObject> generate() {
+            List<JavaFileObject> result = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                SourceBuilder source = new SourceBuilder("Deep" + i).annotate("Noop", "Decor");
+                if (i > 0) source.extend("Deep" + (i - 1));
+                for (int m = 0; m < 3; m++) {
+                    source.method("void deep" + i + "Method" + m + "(String value)");
+                }
+                result.add(source.build());
+            }
+            return result;
+        }
+    },
+
+    /**
+     * Many diamonds sharing a common base: each annotated interface inherits the base methods through two paths. It
+     * stresses the de-duplication of inherited methods and the reuse of the shared base. The diamonds are not stacked
+     * on top of each other, as javac itself is exponential on that shape.
+     */
+    DIAMOND_HIERARCHY {
+        @Override
+        List<JavaFileObject> generate() {
+            List<JavaFileObject> result = new ArrayList<>();
+            SourceBuilder base = new SourceBuilder("DiamondBase");
+            for (int m = 0; m < 10; m++) {
+                base.method("void base" + m + "(int value)");
+            }
+            result.add(base.build());
+            for (int i = 0; i < 300; i++) {
+                SourceBuilder left = new SourceBuilder("Left" + i).extend("DiamondBase").method("void left(int value)");
+                SourceBuilder right = new SourceBuilder("Right" + i).extend("DiamondBase")
+                                                                    .method("void right(int value)");
+                SourceBuilder join = new SourceBuilder("Join" + i).annotate("Noop", "Decor")
+                                                                  .extend("Left" + i)
+                                                                  .extend("Right" + i)
+                                                                  .method("String join()");
+                result.add(left.build());
+                result.add(right.build());
+                result.add(join.build());
+            }
+            return result;
+        }
+    },
+
+    /**
+     * Interfaces with several type variables, generic methods and generic parents: the resolution of signatures.
+     */
+    GENERIC {
+        @Override
+        List<JavaFileObject> generate() {
+            List<JavaFileObject> result = new ArrayList<>();
+            result.add(new SourceBuilder("GenericParent<K, V>").method("V get(K key)")
+                                                                .method("java.util.Map<K, V> getAll(java.util.Collection<? extends K> keys)")
+                                                                .build());
+            for (int i = 0; i < 500; i++) {
+                SourceBuilder source = new SourceBuilder("Generic" + i + "<K extends Comparable<K>, V, E extends Exception>")
+                        .annotate("Noop", "Decor", "Factory")
+                        .extend("GenericParent<K, java.util.List<V>>");
+                for (int m = 0; m < 4; m++) {
+                    source.method("<X extends V> java.util.Map<K, java.util.List<X>> method" + m
+                                  + "(X value, java.util.Set<? super V> values) throws E");
+                }
+                result.add(source.build());
+            }
+            return result;
+        }
+    };
+
+    /**
+     * @return the sources of the corpus, in package {@link SourceBuilder#PACKAGE}.
+     */
+    abstract List<JavaFileObject> generate();
+}
@@ -0,0 +1,84 @@
+package com.pij.noopetal.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Wraps a processor to measure the time it spends processing and the memory it allocates on the compiler thread,
+ * excluding the work done by the compiler itself.
+ */
+final class MeasuringProcessor implements Processor {
+
+    private static final com.sun.management.ThreadMXBean THREADS
+            = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    private final Processor delegate;
+    private long processingNanos;
+    private long allocatedBytes;
+
+    MeasuringProcessor(Processor delegate) {
+        this.delegate = delegate;
+    }
+
+    long getProcessingNanos() {
+        return processingNanos;
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return delegate.getSupportedOptions();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return delegate.getSupportedAnnotationTypes();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return delegate.getSupportedSourceVersion();
+    }
+
+    @Override
+    public void init(ProcessingEnvironment processingEnv) {
+        final long threadId = Thread.currentThread().getId();
+        final long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        delegate.init(processingEnv);
+        processingNanos += System.nanoTime() - start;
+        allocatedBytes += THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final long threadId = Thread.currentThread().getId();
+        final long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        try {
+            return delegate.process(annotations, roundEnv);
+        } finally {
+            processingNanos += System.nanoTime() - start;
+            allocatedBytes += THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+    }
+
+    @Override
+    public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation,
+                                                         ExecutableElement member, String userText) {
+        return delegate.getCompletions(element, annotation, member, userText);
+    }
+}
@@ -0,0 +1,276 @@
+package com.pij.noopetal.benchmark;
+
+import com.pij.noopetal.NoopetalProcessor;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Measures how {@link NoopetalProcessor} scales, by running javac in-process on each {@link CorpusShape}. For each
+ * shape, it reports the median of the time spent in the processor, the memory it allocates on the compiler thread and
+ * the peak live heap of the whole compilation (the largest heap occupancy seen after a garbage collection).
+ * <p>Arguments, all optional:<ul>
+ * <li><code>--shapes=MANY_SMALL,GENERIC</code>: the shapes to run, all by default.</li>
+ * <li><code>--warmup=1</code> and <code>--iterations=3</code>: number of compilations per shape.</li>
+ * <li><code>--parallelism=N</code>: passed to the processor as <code>noopetal.parallelism</code>.</li>
+ * <li><code>--baseline=file</code>: compares the results with the baseline file, flagging values worse than the
+ * tolerance.</li>
+ * <li><code>--tolerance=0.25</code>: relative degradation accepted before flagging a regression.</li>
+ * <li><code>--fail-on-regression</code>: exits with status 1 if a regression is flagged.</li>
+ * <li><code>--record=file</code>: writes the results as the new baseline file.</li>
+ * </ul></p>
+ */
+public final class ProcessorBenchmark {
+
+    private static final String PROCESSING_MILLIS = "processingMillis";
+    private static final String ALLOCATED_BYTES = "allocatedBytes";
+    private static final String PEAK_HEAP_BYTES = "peakHeapBytes";
+    private static final List<String> METRICS = Arrays.asList(PROCESSING_MILLIS, ALLOCATED_BYTES, PEAK_HEAP_BYTES);
+    private static final String JAVA_VERSION = "jvm.javaVersion";
+    private static final String JVM_ARGUMENTS = "jvm.arguments";
+
+    private static volatile long peakHeapBytes;
+
+    private ProcessorBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<CorpusShape> shapes = Arrays.asList(CorpusShape.values());
+        int warmup = 1;
+        int iterations = 3;
+        int parallelism = 1;
+        File baseline = null;
+        File record = null;
+        double tolerance = 0.25;
+        boolean failOnRegression = false;
+        for (String arg : args) {
+            final String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--shapes=")) {
+                shapes = new ArrayList<>();
+                for (String name : value.split(",")) {
+                    shapes.add(CorpusShape.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                }
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(value);
+            } else if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(value);
+            } else if (arg.startsWith("--parallelism=")) {
+                parallelism = Integer.parseInt(value);
+            } else if (arg.startsWith("--baseline=")) {
+                baseline = new File(value);
+            } else if (arg.startsWith("--record=")) {
+                record = new File(value);
+            } else if (arg.startsWith("--tolerance=")) {
+                tolerance = Double.parseDouble(value);
+            } else if (arg.equals("--fail-on-regression")) {
+                failOnRegression = true;
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        listenToGarbageCollections();
+        Properties results = new Properties();
+        results.setProperty(JAVA_VERSION, System.getProperty("java.version"));
+        results.setProperty(JVM_ARGUMENTS, getJvmArguments());
+        for (CorpusShape shape : shapes) {
+            measure(shape, warmup, iterations, parallelism, results);
+        }
+
+        boolean regressed = false;
+        if (baseline != null) {
+            regressed = compare(shapes, results, load(baseline), tolerance);
+        }
+        if (record != null) {
+            try (OutputStream output = new FileOutputStream(record)) {
+                results.store(output,
+                              String.format(Locale.ROOT,
+                                            "Baseline of %s\nRecorded on Java %s (%s), JVM arguments: %s",
+                                            ProcessorBenchmark.class.getSimpleName(),
+                                            results.getProperty(JAVA_VERSION),
+                                            System.getProperty("java.vm.name"),
+                                            results.getProperty(JVM_ARGUMENTS)));
+            }
+            System.out.println("Recorded baseline in " + record);
+        }
+        if (regressed && failOnRegression) System.exit(1);
+    }
+
+    private static void measure(CorpusShape shape, int warmup, int iterations, int parallelism, Properties results)
+            throws IOException {
+        final List<JavaFileObject> sources = shape.generate();
+        for (int i = 0; i < warmup; i++) {
+            compile(sources, parallelism);
+        }
+        long[] nanos = new long[iterations];
+        long[] allocated = new long[iterations];
+        long[] peaks = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            System.gc();
+            peakHeapBytes = 0;
+            MeasuringProcessor processor = compile(sources, parallelism);
+            nanos[i] = processor.getProcessingNanos();
+            allocated[i] = processor.getAllocatedBytes();
+            peaks[i] = peakHeapBytes;
+        }
+        final long millis = median(nanos) / 1000000;
+        results.setProperty(key(shape, PROCESSING_MILLIS), Long.toString(millis));
+        results.setProperty(key(shape, ALLOCATED_BYTES), Long.toString(median(allocated)));
+        results.setProperty(key(shape, PEAK_HEAP_BYTES), Long.toString(median(peaks)));
+        System.out.printf(Locale.ROOT,
+                          "%-18s %5d sources  processing %6d ms  allocated %8.1f MB  peak heap %8.1f MB%n",
+                          shape,
+                          sources.size(),
+                          millis,
+                          median(allocated) / 1048576d,
+                          median(peaks) / 1048576d);
+    }
+
+    private static MeasuringProcessor compile(List<JavaFileObject> sources, int parallelism) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final File output = Files.createTempDirectory("noopetal-benchmark").toFile();
+        try {
+            List<String> options = Arrays.asList("-proc:only",
+                                                 "-nowarn",
+                                                 "-classpath",
+                                                 System.getProperty("java.class.path"),
+                                                 "-s",
+                                                 output.getPath(),
+                                                 "-d",
+                                                 output.getPath(),
+                                                 "-Anoopetal.parallelism=" + parallelism);
+            MeasuringProcessor processor = new MeasuringProcessor(new NoopetalProcessor());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, null, null, options, null, sources);
+            task.setProcessors(Collections.singleton(processor));
+            if (!task.call()) throw new IllegalStateException("Compilation of the corpus failed");
+            return processor;
+        } finally {
+            delete(output);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if at least one metric is worse than the baseline by more than the tolerance.
+     */
+    private static boolean compare(List<CorpusShape> shapes, Properties results, Properties baseline,
+                                   double tolerance) {
+        boolean regressed = false;
+        System.out.println();
+        for (String property : Arrays.asList(JAVA_VERSION, JVM_ARGUMENTS)) {
+            if (!results.getProperty(property).equals(baseline.getProperty(property))) {
+                System.out.printf(Locale.ROOT,
+                                  "Not like-for-like: %s is %s, the baseline's %s%n",
+                                  property,
+                                  results.getProperty(property),
+                                  baseline.getProperty(property));
+            }
+        }
+        for (CorpusShape shape : shapes) {
+            for (String metric : METRICS) {
+                final String key = key(shape, metric);
+                final String expected = baseline.getProperty(key);
+                if (expected == null) {
+                    System.out.printf(Locale.ROOT, "%-38s no baseline%n", key);
+                    continue;
+                }
+                final long reference = Long.parseLong(expected);
+                final long actual = Long.parseLong(results.getProperty(key));
+                final double change = reference == 0 ? 0 : (actual - reference) / (double)reference;
+                final boolean regression = change > tolerance;
+                regressed |= regression;
+                System.out.printf(Locale.ROOT,
+                                  "%-38s baseline %12d  actual %12d  %+7.1f%%%s%n",
+                                  key,
+                                  reference,
+                                  actual,
+                                  change * 100,
+                                  regression ? "  REGRESSION" : "");
+            }
+        }
+        return regressed;
+    }
+
+    /**
+     * The heap and garbage collector flags change the allocations and the peak heap measured.
+     */
+    private static String getJvmArguments() {
+        final List<String> result = new ArrayList<>();
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-X")) result.add(argument);
+        }
+        return result.toString();
+    }
+
+    private static String key(CorpusShape shape, String metric) {
+        return shape.name() + "." + metric;
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties result = new Properties();
+        try (InputStream input = new FileInputStream(file)) {
+            result.load(input);
+        }
+        return result;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void listenToGarbageCollections() {
+        NotificationListener listener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info
+                        = GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+                long used = 0;
+                for (MemoryUsage usage : info.getGcInfo().getMemoryUsageAfterGc().values()) {
+                    used += usage.getUsed();
+                }
+                if (used > peakHeapBytes) peakHeapBytes = used;
+            }
+        };
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter)collector).addNotificationListener(listener, null, null);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,88 @@
+package com.pij.noopetal.benchmark;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Builds the in-memory source of a synthetic interface.
+ */
+final class SourceBuilder {
+
+    static final String PACKAGE = "bench";
+
+    private final String declaration;
+    private final List<String> annotations = new ArrayList<>();
+    private final List<String> parents = new ArrayList<>();
+    private final List<String> methods = new ArrayList<>();
+
+    /**
+     * @param declaration simple name of the interface, including its type variables if any.
+     */
+    SourceBuilder(String declaration) {
+        this.declaration = declaration;
+    }
+
+    /**
+     * @param simpleNames simple names of Noopetal annotations.
+     */
+    SourceBuilder annotate(String... simpleNames) {
+        for (String simpleName : simpleNames) {
+            annotations.add("@com.pij.noopetal." + simpleName);
+        }
+        return this;
+    }
+
+    SourceBuilder extend(String parent) {
+        parents.add(parent);
+        return this;
+    }
+
+    /**
+     * @param signature method declaration, without the final semicolon.
+     */
+    SourceBuilder method(String signature) {
+        methods.add(signature);
+        return this;
+    }
+
+    JavaFileObject build() {
+        StringBuilder code = new StringBuilder("package ").append(PACKAGE).append(";\n");
+        for (String annotation : annotations) {
+            code.append(annotation).append('\n');
+        }
+        code.append("public interface ").append(declaration);
+        for (int i = 0; i < parents.size(); i++) {
+            code.append(i == 0 ? " extends " : ", ").append(parents.get(i));
+        }
+        code.append(" {\n");
+        for (String method : methods) {
+            code.append("    ").append(method).append(";\n");
+        }
+        code.append("}\n");
+        return new Source(getSimpleName(), code.toString());
+    }
+
+    private String getSimpleName() {
+        final int typeVariables = declaration.indexOf('<');
+        return typeVariables < 0 ? declaration : declaration.substring(0, typeVariables);
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+
+        private final String code;
+
+        Source(String simpleName, String code) {
+            super(URI.create("string:///" + PACKAGE + "/" + simpleName + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+}
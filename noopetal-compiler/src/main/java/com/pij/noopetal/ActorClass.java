@@ -0,0 +1,333 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.google.common.base.CaseFormat;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+import static com.pij.noopetal.ClassGenerationUtil.addRethrow;
+import static com.pij.noopetal.ClassGenerationUtil.createSuppressUncheckedAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.createUninterruptibleAwait;
+import static com.pij.noopetal.ClassGenerationUtil.isCheckedCast;
+
+/**
+ * Generates a decorator queuing each call as a command, run by a single consumer on an executor. A command holds the
+ * index of the method and its arguments, as with {@link BatchingClass}, and a latch if the caller waits for it.
+ * <p>The commands are queued in a <code>ConcurrentLinkedQueue</code>, which is lock-free. The producer that finds the
+ * consumer idle, with a compare-and-set, submits the task draining the queue. Once the queue is empty, the task marks
+ * the consumer idle, then checks the queue again, so a command queued in between is not left behind. The flag also
+ * orders the successive tasks, so the decorated instance needs no other synchronisation.</p>
+ * <p>The result and exception of a command are written before its latch is released and read after, so they need no
+ * other synchronisation either.</p>
+ * <p>If the executor rejects the task, the queued commands are completed with its exception, so no caller waits for a
+ * command that will not run, and the exception is thrown.</p>
+ */
+final class ActorClass extends DecorClass {
+
+    private static final String EXECUTOR_PARAMETER_NAME = "executor";
+
+    private final NameAllocator names = new NameAllocator();
+    private final Map<InterfaceMethod, Integer> indexes = new IdentityHashMap<>();
+    private final Map<InterfaceMethod, String> deliveries = new IdentityHashMap<>();
+    private final String executorName;
+    private final String commandsName;
+    private final String scheduledName;
+    private final String consumerName;
+    private final String drainTaskName;
+    private final String submitName;
+    private final String scheduleName;
+    private final String rejectName;
+    private final String drainName;
+    private final String deliverName;
+    private final String commandName;
+
+    public ActorClass(@NonNull String classPackage, @NonNull String className, @NonNull EnrichedTypeElement sourceType,
+                      @NonNull Class<? extends Processor> processorClass) {
+        super(classPackage, className, sourceType, processorClass);
+        // Members must neither hide the methods of the interface nor be hidden by their parameters.
+        final List<InterfaceMethod> methods = sourceType.getMethods();
+        for (InterfaceMethod method : methods) {
+            names.newName(method.getName(), method);
+            for (ParameterSpec parameter : method.getParameters()) {
+                names.newName(parameter.name);
+            }
+            indexes.put(method, indexes.size());
+        }
+        executorName = names.newName("executor");
+        commandsName = names.newName("commands");
+        scheduledName = names.newName("scheduled");
+        consumerName = names.newName("consumer");
+        drainTaskName = names.newName("drainTask");
+        submitName = names.newName("submit");
+        scheduleName = names.newName("schedule");
+        rejectName = names.newName("reject");
+        drainName = names.newName("drain");
+        deliverName = names.newName("deliver");
+        commandName = names.newName("Command");
+        for (InterfaceMethod method : methods) {
+            final String name = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, method.getName());
+            deliveries.put(method, names.newName("deliver" + name));
+        }
+    }
+
+    @NonNull
+    private ClassName getCommandType() {
+        return ClassName.get("", commandName);
+    }
+
+    @Override
+    protected void completeConstructor(@NonNull MethodSpec.Builder constructor) {
+        constructor.addParameter(ParameterSpec.builder(Executor.class, EXECUTOR_PARAMETER_NAME, Modifier.FINAL)
+                                              .addAnnotation(NonNull.class)
+                                              .build());
+        constructor.addStatement("this.$N = $N", executorName, EXECUTOR_PARAMETER_NAME);
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        result.addField(Executor.class, executorName, Modifier.PRIVATE, Modifier.FINAL);
+        result.addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(Queue.class), getCommandType()),
+                                          commandsName,
+                                          Modifier.PRIVATE,
+                                          Modifier.FINAL)
+                                 .initializer("new $T<>()", ConcurrentLinkedQueue.class)
+                                 .build());
+        result.addField(FieldSpec.builder(AtomicBoolean.class, scheduledName, Modifier.PRIVATE, Modifier.FINAL)
+                                 .initializer("new $T()", AtomicBoolean.class)
+                                 .build());
+        result.addField(Thread.class, consumerName, Modifier.PRIVATE, Modifier.VOLATILE);
+        final TypeSpec task = TypeSpec.anonymousClassBuilder("")
+                                      .addSuperinterface(Runnable.class)
+                                      .addMethod(MethodSpec.methodBuilder("run")
+                                                           .addAnnotation(Override.class)
+                                                           .addModifiers(Modifier.PUBLIC)
+                                                           .addStatement("$N()", drainName)
+                                                           .build())
+                                      .build();
+        result.addField(FieldSpec.builder(Runnable.class, drainTaskName, Modifier.PRIVATE, Modifier.FINAL)
+                                 .initializer("$L", task)
+                                 .build());
+
+        result.addMethod(createSubmit());
+        result.addMethod(createSchedule());
+        result.addMethod(createReject());
+        result.addMethod(createDrain());
+        result.addMethod(createDeliver());
+        final CodeBlock delegate = CodeBlock.builder().add("this.$N", decorated).build();
+        for (InterfaceMethod method : getSourceModel().getMethods()) {
+            result.addMethod(createDelivery(method, delegate));
+        }
+        result.addType(createCommand());
+    }
+
+    @NonNull
+    private MethodSpec createSubmit() {
+        return MethodSpec.methodBuilder(submitName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .addParameter(getCommandType(), "command")
+                         .addStatement("$N.offer(command)", commandsName)
+                         .addStatement("$N()", scheduleName)
+                         .build();
+    }
+
+    @NonNull
+    private MethodSpec createSchedule() {
+        return MethodSpec.methodBuilder(scheduleName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .addStatement("if (!$N.compareAndSet(false, true)) return", scheduledName)
+                         .beginControlFlow("try")
+                         .addStatement("$N.execute($N)", executorName, drainTaskName)
+                         .nextControlFlow("catch ($T e)", RuntimeException.class)
+                         .addStatement("$N(e)", rejectName)
+                         .addStatement("throw e")
+                         .endControlFlow()
+                         .build();
+    }
+
+    /**
+     * Completes the queued commands with the exception of the executor, as no task runs them. The commands nobody
+     * waits for are dropped. The consumer is marked idle only once the queue is empty, otherwise a command queued in
+     * between would wait for a task nobody submits.
+     */
+    @NonNull
+    private MethodSpec createReject() {
+        return MethodSpec.methodBuilder(rejectName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .addParameter(RuntimeException.class, "e")
+                         .beginControlFlow("do")
+                         .addStatement("$N command", commandName)
+                         .beginControlFlow("while ((command = $N.poll()) != null)", commandsName)
+                         .beginControlFlow("if (command.done != null)")
+                         .addStatement("command.error = e")
+                         .addStatement("command.done.countDown()")
+                         .endControlFlow()
+                         .endControlFlow()
+                         .addStatement("$N.set(false)", scheduledName)
+                         .endControlFlow("while (!$N.isEmpty() && $N.compareAndSet(false, true))",
+                                         commandsName,
+                                         scheduledName)
+                         .build();
+    }
+
+    @NonNull
+    private MethodSpec createDrain() {
+        return MethodSpec.methodBuilder(drainName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .addStatement("$N = $T.currentThread()", consumerName, Thread.class)
+                         .beginControlFlow("try")
+                         .addStatement("$N command", commandName)
+                         .addStatement("while ((command = $N.poll()) != null) $N(command)", commandsName, deliverName)
+                         .nextControlFlow("finally")
+                         .addStatement("$N = null", consumerName)
+                         .addStatement("$N.set(false)", scheduledName)
+                         .endControlFlow()
+                         .addStatement("if (!$N.isEmpty()) $N()", commandsName, scheduleName)
+                         .build();
+    }
+
+    /**
+     * The exception of a command nobody waits for goes to the uncaught exception handler, and the consumer carries on.
+     */
+    @NonNull
+    private MethodSpec createDeliver() {
+        final MethodSpec.Builder result = MethodSpec.methodBuilder(deliverName)
+                                                    .addModifiers(Modifier.PRIVATE)
+                                                    .addParameter(getCommandType(), "command")
+                                                    .beginControlFlow("try")
+                                                    .beginControlFlow("switch (command.method)");
+        for (InterfaceMethod method : getSourceModel().getMethods()) {
+            result.addCode("case $L:\n", indexes.get(method)).addCode("$>");
+            if (method.isVoid()) {
+                result.addStatement("$N(command.arguments)", deliveries.get(method));
+            } else {
+                result.addStatement("command.result = $N(command.arguments)", deliveries.get(method));
+            }
+            result.addStatement("break").addCode("$<");
+        }
+        return result.endControlFlow()
+                     .nextControlFlow("catch ($T e)", Throwable.class)
+                     .beginControlFlow("if (command.done == null)")
+                     .addStatement("final $T thread = $T.currentThread()", Thread.class, Thread.class)
+                     .addStatement("thread.getUncaughtExceptionHandler().uncaughtException(thread, e)")
+                     .nextControlFlow("else")
+                     .addStatement("command.error = e")
+                     .endControlFlow()
+                     .nextControlFlow("finally")
+                     .addStatement("if (command.done != null) command.done.countDown()")
+                     .endControlFlow()
+                     .build();
+    }
+
+    /**
+     * The delivery of a command restores the arguments into variables named as the parameters of the method, from which
+     * the call is forwarded. Generic methods keep their type variables.
+     */
+    @NonNull
+    private MethodSpec createDelivery(InterfaceMethod method, CodeBlock delegate) {
+        final NameAllocator locals = method.newNameAllocator();
+        final String arguments = locals.newName("arguments");
+        final MethodSpec.Builder result = MethodSpec.methodBuilder(deliveries.get(method))
+                                                    .addModifiers(Modifier.PRIVATE)
+                                                    .addTypeVariables(method.getSignature().typeVariables)
+                                                    .addExceptions(method.getSignature().exceptions)
+                                                    .addParameter(Object[].class, arguments);
+        boolean checked = true;
+        int slot = 0;
+        for (ParameterSpec parameter : method.getParameters()) {
+            result.addStatement("final $T $N = ($T)$N[$L]",
+                                parameter.type,
+                                parameter.name,
+                                parameter.type.box(),
+                                arguments,
+                                slot);
+            checked &= isCheckedCast(parameter.type);
+            slot++;
+        }
+        if (!checked) result.addAnnotation(createSuppressUncheckedAnnotation());
+        if (method.isVoid()) return result.addStatement("$L", createForwardingCall(method, delegate)).build();
+        return result.returns(TypeName.OBJECT)
+                     .addStatement("return $L", createForwardingCall(method, delegate))
+                     .build();
+    }
+
+    @NonNull
+    private TypeSpec createCommand() {
+        return TypeSpec.classBuilder(commandName)
+                       .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                       .addField(TypeName.INT, "method", Modifier.PRIVATE, Modifier.FINAL)
+                       .addField(Object[].class, "arguments", Modifier.PRIVATE, Modifier.FINAL)
+                       .addField(CountDownLatch.class, "done", Modifier.PRIVATE, Modifier.FINAL)
+                       .addField(TypeName.OBJECT, "result", Modifier.PRIVATE)
+                       .addField(Throwable.class, "error", Modifier.PRIVATE)
+                       .addMethod(MethodSpec.constructorBuilder()
+                                            .addParameter(TypeName.INT, "method")
+                                            .addParameter(Object[].class, "arguments")
+                                            .addParameter(TypeName.BOOLEAN, "awaited")
+                                            .addStatement("this.method = method")
+                                            .addStatement("this.arguments = arguments")
+                                            .addStatement("this.done = awaited ? new $T(1) : null",
+                                                          CountDownLatch.class)
+                                            .build())
+                       .addMethod(createUninterruptibleAwait("done"))
+                       .build();
+    }
+
+    /**
+     * Void methods queue their command and return. The others wait for it, unless called by the consumer, which runs
+     * them at once.
+     */
+    @NonNull
+    @Override
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        final MethodSpec.Builder result = method.toBuilder();
+        final NameAllocator locals = method.newNameAllocator();
+        final String command = locals.newName("command");
+        final CodeBlock arguments;
+        if (method.getParameters().isEmpty()) {
+            arguments = CodeBlock.builder().add("null").build();
+        } else {
+            arguments = CodeBlock.builder().add("new $T{ $L }", Object[].class, method.getArgumentList()).build();
+        }
+        final int index = indexes.get(method);
+        if (method.isVoid()) {
+            result.addStatement("this.$N(new $N($L, $L, false))", submitName, commandName, index, arguments);
+            return result;
+        }
+
+        final TypeName returnType = method.getReturnType();
+        result.addStatement("if ($T.currentThread() == this.$N) return $L",
+                            Thread.class,
+                            consumerName,
+                            createForwardingCall(method, CodeBlock.builder().add("this.$L", delegate).build()));
+        result.addStatement("final $N $N = new $N($L, $L, true)", commandName, command, commandName, index, arguments);
+        result.addStatement("this.$N($N)", submitName, command);
+        result.addStatement("$N.await()", command);
+        final CodeBlock error = CodeBlock.builder().add("$N.error", command).build();
+        result.beginControlFlow("if ($L != null)", error);
+        final boolean uncheckedRethrow = addRethrow(result, method, error);
+        result.endControlFlow();
+        if (uncheckedRethrow || !isCheckedCast(returnType)) result.addAnnotation(createSuppressUncheckedAnnotation());
+        result.addStatement("return ($T)$N.result", returnType.box(), command);
+        return result;
+    }
+}
@@ -0,0 +1,50 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+final class ActorProcessingStep extends GenerationStep {
+
+    private static final String ACTOR_CLASS_PREFIX = "Actor";
+
+    public ActorProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+    }
+
+    @NonNull
+    protected Class<Actor> getSupportedAnnotation() {
+        return Actor.class;
+    }
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link Actor} annotation.
+     */
+    protected boolean validate(Element element) {
+        return validateAnnotatedIsInterface(element);
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated class.
+     */
+    @Override
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
+        final Actor annotation = element.getAnnotation(getSupportedAnnotation());
+        final Pair<String, String> packageAndClassName = calculatePackageAndClassName(element,
+                                                                                      annotation.value(),
+                                                                                      ACTOR_CLASS_PREFIX);
+        return new ActorClass(packageAndClassName.getLeft(),
+                              packageAndClassName.getRight(),
+                              element,
+                              processorClass);
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.concurrent.Executor;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Generates the adapter of an interface to its {@link AsyncInterface asynchronous twin}. Each call is forwarded to the
+ * decorated instance in a task run by an executor, and returns a future completed by that task, normally or
+ * exceptionally. The generated code targets Java 8, as <code>CompletableFuture</code> does, and uses lambdas.
+ */
+final class AsyncAdapterClass extends DecorClass {
+
+    private static final String EXECUTOR_NAME = "executor";
+
+    private final TypeName asyncTypeName;
+
+    public AsyncAdapterClass(@NonNull String classPackage, @NonNull String className,
+                             @NonNull EnrichedTypeElement sourceType,
+                             @NonNull Class<? extends Processor> processorClass, @NonNull TypeName asyncTypeName) {
+        super(classPackage, className, sourceType, processorClass);
+        this.asyncTypeName = notNull(asyncTypeName);
+    }
+
+    @NonNull
+    @Override
+    protected TypeName getImplementedTypeName() {
+        return asyncTypeName;
+    }
+
+    @Override
+    protected void completeConstructor(@NonNull MethodSpec.Builder constructor) {
+        constructor.addParameter(ParameterSpec.builder(Executor.class, EXECUTOR_NAME, Modifier.FINAL)
+                                              .addAnnotation(NonNull.class)
+                                              .build());
+        constructor.addStatement("this.$N = $N", EXECUTOR_NAME, EXECUTOR_NAME);
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        result.addField(Executor.class, EXECUTOR_NAME, Modifier.PRIVATE, Modifier.FINAL);
+    }
+
+    /**
+     * The method has the signature of the asynchronous twin. The fields are qualified, as the parameters may hide them.
+     */
+    @NonNull
+    @Override
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        final MethodSpec signature = method.getSignature();
+        final TypeName futureType = AsyncInterface.getFutureTypeName(method);
+        final MethodSpec.Builder result = MethodSpec.methodBuilder(signature.name)
+                                                    .addAnnotation(Override.class)
+                                                    .addModifiers(Modifier.PUBLIC)
+                                                    .addTypeVariables(signature.typeVariables)
+                                                    .addParameters(signature.parameters)
+                                                    .varargs(signature.varargs)
+                                                    .returns(futureType);
+        final NameAllocator locals = method.newNameAllocator();
+        final String future = locals.newName("result");
+        final String error = locals.newName("e");
+        final CodeBlock call = createForwardingCall(method, CodeBlock.builder().add("this.$L", delegate).build());
+
+        result.addStatement("final $T $N = new $T<>()", futureType, future, AsyncInterface.COMPLETABLE_FUTURE);
+        result.addCode("this.$N.execute(() -> {\n$>", EXECUTOR_NAME);
+        result.beginControlFlow("try");
+        if (method.isVoid()) {
+            result.addStatement("$L", call);
+            result.addStatement("$N.complete(null)", future);
+        } else {
+            result.addStatement("$N.complete($L)", future, call);
+        }
+        result.nextControlFlow("catch ($T $N)", Throwable.class, error);
+        result.addStatement("$N.completeExceptionally($N)", future, error);
+        result.endControlFlow();
+        result.addCode("$<});\n");
+        result.addStatement("return $N", future);
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+import static com.pij.noopetal.ClassGenerationUtil.extractPackageAndClassName;
+import static org.apache.commons.lang3.Validate.notNull;
+
+final class AsyncFacadeProcessingStep extends GenerationStep {
+
+    private static final String ASYNC_INTERFACE_SUFFIX = "Async";
+    private static final String ADAPTER_CLASS_SUFFIX = "Adapter";
+
+    private final ProcessingEnvironment processingEnv;
+
+    public AsyncFacadeProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+        this.processingEnv = notNull(processingEnv);
+    }
+
+    @NonNull
+    protected Class<AsyncFacade> getSupportedAnnotation() {
+        return AsyncFacade.class;
+    }
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link AsyncFacade} annotation, and
+     * <code>CompletableFuture</code> is available.
+     */
+    protected boolean validate(Element element) {
+        return validateAnnotatedIsInterface(element) && validateCompletableFutureAvailable(element);
+    }
+
+    private boolean validateCompletableFutureAvailable(Element element) {
+        final String futureClass = AsyncInterface.COMPLETABLE_FUTURE.toString();
+        if (processingEnv.getElementUtils().getTypeElement(futureClass) == null) {
+            error(element, "@AsyncFacade requires %s, available from Java 8 and Android API level 24", futureClass);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated interface.
+     */
+    @Override
+    protected AsyncInterface createGeneratedClass(EnrichedTypeElement element,
+                                                  Class<? extends Processor> processorClass) {
+        final String specifiedClass = element.getAnnotation(getSupportedAnnotation()).value();
+        final Pair<String, String> packageAndClassName = extractPackageAndClassName(specifiedClass);
+        String packageName = packageAndClassName.getLeft();
+        if (packageName == null) {
+            packageName = element.getPackage().getQualifiedName().toString();
+        }
+        String className = packageAndClassName.getRight();
+        if (className == null) {
+            className = element.calculateClassNameWithSuffix(ASYNC_INTERFACE_SUFFIX);
+        }
+        return new AsyncInterface(packageName, className, element, processorClass);
+    }
+
+    /**
+     * @return the asynchronous interface and its adapter, in the same package.
+     */
+    @NonNull
+    @Override
+    protected List<GeneratedType> createGeneratedClasses(EnrichedTypeElement element,
+                                                         Class<? extends Processor> processorClass) {
+        final AsyncInterface asyncInterface = createGeneratedClass(element, processorClass);
+        final AsyncAdapterClass adapter = new AsyncAdapterClass(asyncInterface.getTypePackage(),
+                                                                asyncInterface.getTypeName() + ADAPTER_CLASS_SUFFIX,
+                                                                element,
+                                                                processorClass,
+                                                                asyncInterface.getInterfaceTypeName());
+        return Arrays.<GeneratedType>asList(asyncInterface, adapter);
+    }
+
+}
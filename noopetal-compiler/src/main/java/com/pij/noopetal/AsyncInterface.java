@@ -0,0 +1,116 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+
+import java.util.Collection;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+import static com.pij.noopetal.ClassGenerationUtil.createGeneratedAnnotation;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Generates the asynchronous twin of an interface: each method has the same name, type variables and parameters as the
+ * original one, and returns a <code>CompletableFuture</code> of its result. Exceptions are not declared, they complete
+ * the future.
+ * <p><code>CompletableFuture</code> is referred to by name, so that the processor itself runs on Java 7.</p>
+ */
+final class AsyncInterface implements GeneratedType {
+
+    static final ClassName COMPLETABLE_FUTURE = ClassName.get("java.util.concurrent", "CompletableFuture");
+
+    private final String classPackage;
+    private final String className;
+    private final Class<? extends Processor> processorClass;
+    private final EnrichedTypeElement sourceType;
+
+    public AsyncInterface(@NonNull String classPackage, @NonNull String className,
+                          @NonNull EnrichedTypeElement sourceType,
+                          @NonNull Class<? extends Processor> processorClass) {
+        this.classPackage = notNull(classPackage);
+        this.className = notNull(className);
+        this.processorClass = notNull(processorClass);
+        this.sourceType = notNull(sourceType);
+    }
+
+    /**
+     * @return the future of the result of the method, <code>CompletableFuture&lt;Void&gt;</code> for a void method.
+     */
+    @NonNull
+    static TypeName getFutureTypeName(@NonNull InterfaceMethod method) {
+        final TypeName resultType = method.isVoid() ? ClassName.get(Void.class) : method.getReturnType().box();
+        return ParameterizedTypeName.get(COMPLETABLE_FUTURE, resultType);
+    }
+
+    @Override
+    public TypeElement getSourceType() {
+        return sourceType.getTypeElement();
+    }
+
+    @Override
+    public String getTypeName() {
+        return className;
+    }
+
+    @Override
+    public String getTypePackage() {
+        return classPackage;
+    }
+
+    /**
+     * @return the name of the generated interface, with the type variables of the source type as arguments.
+     */
+    @NonNull
+    public TypeName getInterfaceTypeName() {
+        final ClassName rawType = ClassName.get(classPackage, className);
+        if (sourceType.getTypeVariables().isEmpty()) return rawType;
+        return ParameterizedTypeName.get(rawType,
+                                         sourceType.getTypeVariables().toArray(new TypeVariableName[0]));
+    }
+
+    /**
+     * The methods are taken from the whole interface hierarchy.
+     */
+    @NonNull
+    @Override
+    public Collection<? extends Element> getOriginatingElements() {
+        return sourceType.getTypeHierarchy();
+    }
+
+    /**
+     * The access modifier is that of the sourceType.
+     */
+    @NonNull
+    @Override
+    public TypeSpec getTypeSpec() {
+        TypeSpec.Builder result = TypeSpec.interfaceBuilder(getTypeName());
+        sourceType.applyAccessModifier(result);
+        sourceType.applyTypeVariables(result);
+        result.addJavadoc(createGeneratedAnnotation(processorClass).toString());
+        result.addJavadoc("\n");
+
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            final MethodSpec signature = method.getSignature();
+            result.addMethod(MethodSpec.methodBuilder(signature.name)
+                                       .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                                       .addTypeVariables(signature.typeVariables)
+                                       .addParameters(signature.parameters)
+                                       .varargs(signature.varargs)
+                                       .returns(getFutureTypeName(method))
+                                       .build());
+        }
+
+        return result.build();
+    }
+
+}
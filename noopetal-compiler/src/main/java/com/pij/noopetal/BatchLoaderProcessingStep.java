@@ -0,0 +1,71 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+final class BatchLoaderProcessingStep extends GenerationStep {
+
+    private static final String BATCH_LOADER_CLASS_PREFIX = "BatchLoading";
+
+    public BatchLoaderProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+    }
+
+    @NonNull
+    protected Class<BatchLoader> getSupportedAnnotation() {
+        return BatchLoader.class;
+    }
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link BatchLoader} annotation.
+     */
+    protected boolean validate(Element element) {
+        if (!validateAnnotatedIsInterface(element)) return false;
+        final BatchLoader annotation = element.getAnnotation(getSupportedAnnotation());
+        return validatePositive(element, "maxBatchSize", annotation.maxBatchSize())
+               && validateNotNegative(element, "maxDelayMillis", annotation.maxDelayMillis());
+    }
+
+    /**
+     * There is nothing to batch without a single-key method paired with a bulk method.
+     */
+    @Override
+    protected boolean validateModel(EnrichedTypeElement element) {
+        final BatchLoader annotation = element.getAnnotation(getSupportedAnnotation());
+        if (BatchLoadingClass.findBulkMethods(element.getMethods(), annotation.bulkSuffix()).isEmpty()) {
+            error(element.getTypeElement(),
+                  "@BatchLoader found no method paired with a bulk method, "
+                  + "such as V get(K) and Map<K, V> getAll(Collection<K>)");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated class.
+     */
+    @Override
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
+        final BatchLoader annotation = element.getAnnotation(getSupportedAnnotation());
+        final Pair<String, String> packageAndClassName = calculatePackageAndClassName(element,
+                                                                                      annotation.value(),
+                                                                                      BATCH_LOADER_CLASS_PREFIX);
+        return new BatchLoadingClass(packageAndClassName.getLeft(),
+                                     packageAndClassName.getRight(),
+                                     element,
+                                     processorClass,
+                                     annotation.bulkSuffix(),
+                                     annotation.maxBatchSize(),
+                                     annotation.maxDelayMillis());
+    }
+
+}
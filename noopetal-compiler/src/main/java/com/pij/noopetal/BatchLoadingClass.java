@@ -0,0 +1,316 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+import static com.pij.noopetal.ClassGenerationUtil.addRethrow;
+import static com.pij.noopetal.ClassGenerationUtil.createSuppressUncheckedAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.createUninterruptibleAwait;
+import static com.pij.noopetal.ClassGenerationUtil.isCheckedCast;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Generates a decorator grouping the calls of single-key methods into calls of their bulk counterparts. Each pair of
+ * methods has a loader, an instance of a nested class, holding the batch being filled.
+ * <p>The first call of a batch leads it: it waits, on the loader's monitor, for the delay to elapse and for the bulk
+ * calls in progress to complete, unless another call fills the batch. It then makes the bulk call and releases the
+ * other calls of the batch with a latch. The keys, result and exception of a batch are written before the latch is
+ * released and read after, so they need no other synchronisation.</p>
+ */
+final class BatchLoadingClass extends DecorClass {
+
+    private static final Set<ClassName> BULK_PARAMETER_TYPES = new LinkedHashSet<>(Arrays.asList(ClassName.get(
+            Collection.class), ClassName.get(Set.class), ClassName.get(List.class), ClassName.get(Iterable.class)));
+
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final Map<InterfaceMethod, InterfaceMethod> bulkMethods;
+    private final NameAllocator names = new NameAllocator();
+    private final Map<InterfaceMethod, String> loaders = new IdentityHashMap<>();
+    private final String maxBatchSizeName;
+    private final String maxDelayName;
+    private final String loaderName;
+    private final String batchName;
+
+    public BatchLoadingClass(@NonNull String classPackage, @NonNull String className,
+                             @NonNull EnrichedTypeElement sourceType,
+                             @NonNull Class<? extends Processor> processorClass, @NonNull String bulkSuffix,
+                             int maxBatchSize, long maxDelayMillis) {
+        super(classPackage, className, sourceType, processorClass);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.bulkMethods = findBulkMethods(sourceType.getMethods(), notNull(bulkSuffix));
+        // Members must not hide the methods of the interface.
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            names.newName(method.getName(), method);
+        }
+        maxBatchSizeName = names.newName("MAX_BATCH_SIZE");
+        maxDelayName = names.newName("MAX_DELAY_NANOS");
+        loaderName = names.newName("Loader");
+        batchName = names.newName("Batch");
+        for (InterfaceMethod method : bulkMethods.keySet()) {
+            loaders.put(method, names.newName(method.getName() + "Loader"));
+        }
+    }
+
+    /**
+     * Pairs each method taking a single key, of a reference type, and returning a value, with the method named after
+     * it with the suffix, taking a collection of those keys and returning a map of those values. Generic methods are
+     * not paired.
+     * @return the bulk method of each single-key method, in the order of the methods.
+     */
+    @NonNull
+    static Map<InterfaceMethod, InterfaceMethod> findBulkMethods(@NonNull List<InterfaceMethod> methods,
+                                                                @NonNull String bulkSuffix) {
+        final Map<String, InterfaceMethod> candidates = new LinkedHashMap<>();
+        for (InterfaceMethod method : methods) {
+            if (method.getParameters().size() == 1 && method.getSignature().typeVariables.isEmpty()) {
+                candidates.put(method.getName(), method);
+            }
+        }
+        final Map<InterfaceMethod, InterfaceMethod> result = new LinkedHashMap<>();
+        for (InterfaceMethod method : candidates.values()) {
+            final InterfaceMethod bulk = candidates.get(method.getName() + bulkSuffix);
+            if (bulk != null && isBulkOf(bulk, method)) result.put(method, bulk);
+        }
+        return result;
+    }
+
+    private static boolean isBulkOf(InterfaceMethod bulk, InterfaceMethod single) {
+        final TypeName keyType = single.getParameters().get(0).type;
+        final TypeName valueType = single.getReturnType();
+        if (keyType.isPrimitive() || valueType.isPrimitive() || single.isVoid()) return false;
+        final TypeName keysType = bulk.getParameters().get(0).type;
+        final TypeName mapType = bulk.getReturnType();
+        if (!(keysType instanceof ParameterizedTypeName) || !(mapType instanceof ParameterizedTypeName)) return false;
+        final ParameterizedTypeName keys = (ParameterizedTypeName)keysType;
+        final ParameterizedTypeName map = (ParameterizedTypeName)mapType;
+        return BULK_PARAMETER_TYPES.contains(keys.rawType)
+               && keys.typeArguments.equals(Arrays.asList(keyType))
+               && map.rawType.equals(ClassName.get(Map.class))
+               && map.typeArguments.equals(Arrays.asList(keyType, valueType));
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        result.addField(FieldSpec.builder(TypeName.INT, maxBatchSizeName, Modifier.PRIVATE, Modifier.STATIC,
+                                          Modifier.FINAL).initializer("$L", maxBatchSize).build());
+        result.addField(FieldSpec.builder(TypeName.LONG, maxDelayName, Modifier.PRIVATE, Modifier.STATIC,
+                                          Modifier.FINAL)
+                                 .initializer("$T.MILLISECONDS.toNanos($LL)", TimeUnit.class, maxDelayMillis)
+                                 .build());
+        for (Map.Entry<InterfaceMethod, InterfaceMethod> pair : bulkMethods.entrySet()) {
+            result.addField(createLoaderField(pair.getKey(), pair.getValue(), decorated));
+        }
+        result.addType(createLoaderClass());
+        result.addType(createBatchClass());
+    }
+
+    @NonNull
+    private TypeName getLoaderTypeName() {
+        return ClassName.get("", loaderName);
+    }
+
+    @NonNull
+    private TypeName getBatchTypeName() {
+        return ClassName.get("", batchName);
+    }
+
+    @NonNull
+    private static TypeName getKeySetTypeName() {
+        return ParameterizedTypeName.get(ClassName.get(Set.class), TypeName.OBJECT);
+    }
+
+    /**
+     * The loader is an inner class, so it can call the decorated instance and use the type variables of the interface.
+     * The keys are passed to the bulk method as they are, or copied if it takes a <code>List</code>.
+     */
+    @NonNull
+    private FieldSpec createLoaderField(InterfaceMethod single, InterfaceMethod bulk, FieldSpec decorated) {
+        final TypeName keysType = bulk.getParameters().get(0).type;
+        final TypeName rawKeysType = ((ParameterizedTypeName)keysType).rawType;
+        final CodeBlock keys;
+        if (rawKeysType.equals(ClassName.get(List.class))) {
+            keys = CodeBlock.builder().add("new $T<$T>(keys)", ArrayList.class, TypeName.OBJECT).build();
+        } else {
+            keys = CodeBlock.builder().add("keys").build();
+        }
+        final TypeName anyMap = ParameterizedTypeName.get(ClassName.get(Map.class),
+                                                          WildcardTypeName.subtypeOf(Object.class),
+                                                          WildcardTypeName.subtypeOf(Object.class));
+        final TypeSpec loader = TypeSpec.anonymousClassBuilder("")
+                                        .superclass(getLoaderTypeName())
+                                        .addMethod(MethodSpec.methodBuilder("load")
+                                                             .addAnnotation(Override.class)
+                                                             .addAnnotation(createSuppressUncheckedAnnotation())
+                                                             .addModifiers(Modifier.PROTECTED)
+                                                             .returns(anyMap)
+                                                             .addParameter(getKeySetTypeName(), "keys")
+                                                             .addException(Exception.class)
+                                                             .addStatement("return $N.$N(($T)($T)$L)",
+                                                                           decorated,
+                                                                           bulk.getSignature(),
+                                                                           keysType,
+                                                                           rawKeysType,
+                                                                           keys)
+                                                             .build())
+                                        .build();
+        return FieldSpec.builder(getLoaderTypeName(), loaders.get(single), Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("$L", loader)
+                        .build();
+    }
+
+    /**
+     * Paired methods call their loader, the others are forwarded.
+     */
+    @NonNull
+    @Override
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        final String loader = loaders.get(method);
+        if (loader == null) return super.createOverridingMethod(method, delegate);
+
+        final MethodSpec.Builder result = method.toBuilder();
+        final TypeName returnType = method.getReturnType();
+        final NameAllocator locals = method.newNameAllocator();
+        final String value = locals.newName("result");
+        final String error = locals.newName("e");
+        result.addStatement("final $T $N", TypeName.OBJECT, value);
+        result.beginControlFlow("try");
+        result.addStatement("$N = this.$N.get($N)", value, loader, method.getParameters().get(0));
+        result.nextControlFlow("catch ($T $N)", Throwable.class, error);
+        final boolean uncheckedRethrow = addRethrow(result, method, CodeBlock.builder().add("$N", error).build());
+        result.endControlFlow();
+        if (uncheckedRethrow || !isCheckedCast(returnType)) result.addAnnotation(createSuppressUncheckedAnnotation());
+        result.addStatement("return ($T)$N", returnType, value);
+        return result;
+    }
+
+    @NonNull
+    private TypeSpec createLoaderClass() {
+        final TypeName batchType = getBatchTypeName();
+        final TypeName anyMap = ParameterizedTypeName.get(ClassName.get(Map.class),
+                                                          WildcardTypeName.subtypeOf(Object.class),
+                                                          WildcardTypeName.subtypeOf(Object.class));
+        final MethodSpec load = MethodSpec.methodBuilder("load")
+                                          .addModifiers(Modifier.PROTECTED, Modifier.ABSTRACT)
+                                          .returns(anyMap)
+                                          .addParameter(getKeySetTypeName(), "keys")
+                                          .addException(Exception.class)
+                                          .build();
+        final MethodSpec get = MethodSpec.methodBuilder("get")
+                                         .returns(TypeName.OBJECT)
+                                         .addParameter(TypeName.OBJECT, "key")
+                                         .addException(Throwable.class)
+                                         .addStatement("final $T batch", batchType)
+                                         .addStatement("final boolean leader")
+                                         .beginControlFlow("synchronized (this)")
+                                         .addStatement("leader = current == null")
+                                         .addStatement("if (leader) current = new $T()", batchType)
+                                         .addStatement("batch = current")
+                                         .addStatement("batch.keys.add(key)")
+                                         .beginControlFlow("if (batch.keys.size() >= $N)", maxBatchSizeName)
+                                         .addStatement("current = null")
+                                         .addStatement("notifyAll()")
+                                         .endControlFlow()
+                                         .endControlFlow()
+                                         .beginControlFlow("if (leader)")
+                                         .addStatement("dispatch(batch)")
+                                         .nextControlFlow("else")
+                                         .addStatement("batch.await()")
+                                         .endControlFlow()
+                                         .addStatement("if (batch.error != null) throw batch.error")
+                                         .addStatement("return batch.result == null ? null : batch.result.get(key)")
+                                         .build();
+        final MethodSpec dispatch = MethodSpec.methodBuilder("dispatch")
+                                              .addModifiers(Modifier.PRIVATE)
+                                              .addParameter(batchType, "batch")
+                                              .addStatement("boolean interrupted = false")
+                                              .beginControlFlow("synchronized (this)")
+                                              .addStatement("final long deadline = $T.nanoTime() + $N",
+                                                            System.class,
+                                                            maxDelayName)
+                                              .addStatement("long remaining = $N", maxDelayName)
+                                              .beginControlFlow("while (current == batch && (remaining > 0 || "
+                                                                + "inFlight > 0))")
+                                              .beginControlFlow("try")
+                                              .beginControlFlow("if (remaining > 0)")
+                                              .addStatement("$T.NANOSECONDS.timedWait(this, remaining)",
+                                                            TimeUnit.class)
+                                              .nextControlFlow("else")
+                                              .addStatement("wait()")
+                                              .endControlFlow()
+                                              .nextControlFlow("catch ($T e)", InterruptedException.class)
+                                              .addStatement("interrupted = true")
+                                              .endControlFlow()
+                                              .addStatement("remaining = deadline - $T.nanoTime()", System.class)
+                                              .endControlFlow()
+                                              .addStatement("if (current == batch) current = null")
+                                              .addStatement("inFlight++")
+                                              .endControlFlow()
+                                              .beginControlFlow("try")
+                                              .addStatement("batch.result = load(batch.keys)")
+                                              .nextControlFlow("catch ($T e)", Throwable.class)
+                                              .addStatement("batch.error = e")
+                                              .nextControlFlow("finally")
+                                              .beginControlFlow("synchronized (this)")
+                                              .addStatement("inFlight--")
+                                              .addStatement("notifyAll()")
+                                              .endControlFlow()
+                                              .addStatement("batch.done.countDown()")
+                                              .addStatement("if (interrupted) $T.currentThread().interrupt()",
+                                                            Thread.class)
+                                              .endControlFlow()
+                                              .build();
+        return TypeSpec.classBuilder(loaderName)
+                       .addModifiers(Modifier.PRIVATE, Modifier.ABSTRACT, Modifier.STATIC)
+                       .addField(batchType, "current", Modifier.PRIVATE)
+                       .addField(TypeName.INT, "inFlight", Modifier.PRIVATE)
+                       .addMethod(load)
+                       .addMethod(get)
+                       .addMethod(dispatch)
+                       .build();
+    }
+
+    @NonNull
+    private TypeSpec createBatchClass() {
+        final TypeName anyMap = ParameterizedTypeName.get(ClassName.get(Map.class),
+                                                          WildcardTypeName.subtypeOf(Object.class),
+                                                          WildcardTypeName.subtypeOf(Object.class));
+        return TypeSpec.classBuilder(batchName)
+                       .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                       .addField(FieldSpec.builder(getKeySetTypeName(), "keys", Modifier.PRIVATE, Modifier.FINAL)
+                                          .initializer("new $T<>()", LinkedHashSet.class)
+                                          .build())
+                       .addField(FieldSpec.builder(CountDownLatch.class, "done", Modifier.PRIVATE, Modifier.FINAL)
+                                          .initializer("new $T(1)", CountDownLatch.class)
+                                          .build())
+                       .addField(anyMap, "result", Modifier.PRIVATE)
+                       .addField(Throwable.class, "error", Modifier.PRIVATE)
+                       .addMethod(createUninterruptibleAwait("done"))
+                       .build();
+    }
+}
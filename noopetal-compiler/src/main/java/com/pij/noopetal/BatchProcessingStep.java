@@ -0,0 +1,74 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+final class BatchProcessingStep extends GenerationStep {
+
+    private static final String BATCH_CLASS_PREFIX = "Batching";
+
+    public BatchProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+    }
+
+    @NonNull
+    protected Class<Batch> getSupportedAnnotation() {
+        return Batch.class;
+    }
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link Batch} annotation.
+     */
+    protected boolean validate(Element element) {
+        final Batch annotation = element.getAnnotation(Batch.class);
+        return validateAnnotatedIsInterface(element)
+               && validatePositive(element, "maxBatchSize", annotation.maxBatchSize())
+               && validateNotNegative(element, "maxDelayMillis", annotation.maxDelayMillis());
+    }
+
+    /**
+     * A call returning a value cannot wait in a buffer.
+     * @return <code>true</code> if all the methods return <code>void</code>.
+     */
+    @Override
+    protected boolean validateModel(EnrichedTypeElement element) {
+        boolean valid = true;
+        for (InterfaceMethod method : element.getMethods()) {
+            if (!method.isVoid()) {
+                error(element.getTypeElement(),
+                      "@Batch methods must return void. %s returns %s",
+                      method.getName(),
+                      method.getReturnType());
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated class.
+     */
+    @Override
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
+        final Batch annotation = element.getAnnotation(getSupportedAnnotation());
+        final Pair<String, String> packageAndClassName = calculatePackageAndClassName(element,
+                                                                                      annotation.value(),
+                                                                                      BATCH_CLASS_PREFIX);
+        return new BatchingClass(packageAndClassName.getLeft(),
+                                 packageAndClassName.getRight(),
+                                 element,
+                                 processorClass,
+                                 annotation.maxBatchSize(),
+                                 annotation.maxDelayMillis());
+    }
+
+}
@@ -0,0 +1,443 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.google.common.base.CaseFormat;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+import static com.pij.noopetal.ClassGenerationUtil.createSuppressUncheckedAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.isCheckedCast;
+
+/**
+ * Generates a decorator storing the calls in a buffer and passing them on to the decorated instance in batches, on an
+ * executor. All the methods are assumed to return <code>void</code>.
+ * <p>A buffer holds the index of the method of each call, and its arguments in a fixed number of slots per call. The
+ * buffer is only locked while a call is stored. A full buffer is queued, replaced by a spare one, and queued buffers
+ * are delivered one at a time by a single task, which keeps the calls in order whatever the executor. Delivered buffers
+ * are cleared and reused, so a steady flow of calls does not allocate, besides boxing primitive arguments.</p>
+ * <p>With a maximum delay, the first call stored in an empty buffer schedules a flush, unless one is already scheduled,
+ * so no call waits longer than that.</p>
+ * <p>If the executor rejects a task, the exception is thrown to the caller, but the calls stay buffered: the next batch,
+ * or flush, passes them on.</p>
+ */
+final class BatchingClass extends DecorClass {
+
+    private static final String FLUSH_METHOD_NAME = "flush";
+    private static final String EXECUTOR_PARAMETER_NAME = "executor";
+
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final int arity;
+    private final NameAllocator names = new NameAllocator();
+    private final Map<InterfaceMethod, Integer> indexes = new IdentityHashMap<>();
+    private final Map<InterfaceMethod, String> deliveries = new IdentityHashMap<>();
+    private final InterfaceMethod flushMethod;
+    private final String executorName;
+    private final String maxBatchSizeName;
+    private final String arityName;
+    private final String maxDelayName;
+    private final String lockName;
+    private final String pendingName;
+    private final String drainTaskName;
+    private final String flushTaskName;
+    private final String currentName;
+    private final String spareName;
+    private final String drainingName;
+    private final String delayedName;
+    private final String passOnName;
+    private final String startDrainName;
+    private final String appendName;
+    private final String submitName;
+    private final String drainName;
+    private final String deliverName;
+    private final String callsName;
+
+    public BatchingClass(@NonNull String classPackage, @NonNull String className,
+                         @NonNull EnrichedTypeElement sourceType, @NonNull Class<? extends Processor> processorClass,
+                         int maxBatchSize, long maxDelayMillis) {
+        super(classPackage, className, sourceType, processorClass);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        // Members must neither hide the methods of the interface nor be hidden by their parameters.
+        int maxArity = 0;
+        InterfaceMethod flush = null;
+        final List<InterfaceMethod> methods = sourceType.getMethods();
+        for (InterfaceMethod method : methods) {
+            names.newName(method.getName(), method);
+            for (ParameterSpec parameter : method.getParameters()) {
+                names.newName(parameter.name);
+            }
+            indexes.put(method, indexes.size());
+            maxArity = Math.max(maxArity, method.getParameters().size());
+            if (method.getName().equals(FLUSH_METHOD_NAME) && method.getParameters().isEmpty()) flush = method;
+        }
+        arity = maxArity;
+        flushMethod = flush;
+        executorName = names.newName("executor");
+        maxBatchSizeName = names.newName("MAX_BATCH_SIZE");
+        arityName = names.newName("ARITY");
+        maxDelayName = names.newName("MAX_DELAY_MILLIS");
+        lockName = names.newName("lock");
+        pendingName = names.newName("pending");
+        drainTaskName = names.newName("drainTask");
+        flushTaskName = names.newName("flushTask");
+        currentName = names.newName("current");
+        spareName = names.newName("spare");
+        drainingName = names.newName("draining");
+        delayedName = names.newName("delayed");
+        passOnName = names.newName("passOn");
+        startDrainName = names.newName("startDrain");
+        appendName = names.newName("append");
+        submitName = names.newName("submit");
+        drainName = names.newName("drain");
+        deliverName = names.newName("deliver");
+        callsName = names.newName("Calls");
+        for (InterfaceMethod method : methods) {
+            final String name = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, method.getName());
+            deliveries.put(method, names.newName("deliver" + name));
+        }
+    }
+
+    private boolean delays() {
+        return maxDelayMillis > 0;
+    }
+
+    @NonNull
+    private ClassName getExecutorType() {
+        return ClassName.get(delays() ? ScheduledExecutorService.class : Executor.class);
+    }
+
+    @NonNull
+    private ClassName getCallsType() {
+        return ClassName.get("", callsName);
+    }
+
+    @Override
+    protected void completeConstructor(@NonNull MethodSpec.Builder constructor) {
+        constructor.addParameter(ParameterSpec.builder(getExecutorType(), EXECUTOR_PARAMETER_NAME, Modifier.FINAL)
+                                              .addAnnotation(NonNull.class)
+                                              .build());
+        constructor.addStatement("this.$N = $N", executorName, EXECUTOR_PARAMETER_NAME);
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        result.addField(createConstant(TypeName.INT, maxBatchSizeName, CodeBlock.builder().add("$L", maxBatchSize)));
+        result.addField(createConstant(TypeName.INT, arityName, CodeBlock.builder().add("$L", arity)));
+        if (delays()) {
+            result.addField(createConstant(TypeName.LONG,
+                                           maxDelayName,
+                                           CodeBlock.builder().add("$LL", maxDelayMillis)));
+        }
+        result.addField(getExecutorType(), executorName, Modifier.PRIVATE, Modifier.FINAL);
+        result.addField(FieldSpec.builder(TypeName.OBJECT, lockName, Modifier.PRIVATE, Modifier.FINAL)
+                                 .initializer("new $T()", TypeName.OBJECT)
+                                 .build());
+        result.addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(ArrayDeque.class), getCallsType()),
+                                          pendingName,
+                                          Modifier.PRIVATE,
+                                          Modifier.FINAL).initializer("new $T<>()", ArrayDeque.class).build());
+        result.addField(createTask(drainTaskName, CodeBlock.builder().addStatement("$N()", drainName).build()));
+        if (delays()) {
+            result.addField(createTask(flushTaskName,
+                                       CodeBlock.builder()
+                                                .beginControlFlow("synchronized ($N)", lockName)
+                                                .addStatement("$N = false", delayedName)
+                                                .endControlFlow()
+                                                .addStatement("$N()", passOnName)
+                                                .build()));
+        }
+        result.addField(FieldSpec.builder(getCallsType(), currentName, Modifier.PRIVATE)
+                                 .initializer("new $N()", callsName)
+                                 .build());
+        result.addField(getCallsType(), spareName, Modifier.PRIVATE);
+        result.addField(TypeName.BOOLEAN, drainingName, Modifier.PRIVATE);
+        if (delays()) result.addField(TypeName.BOOLEAN, delayedName, Modifier.PRIVATE);
+
+        if (flushMethod == null) {
+            result.addMethod(MethodSpec.methodBuilder(FLUSH_METHOD_NAME)
+                                       .addJavadoc("Passes the buffered calls on, without waiting for them to be "
+                                                   + "delivered.\n")
+                                       .addModifiers(Modifier.PUBLIC)
+                                       .addStatement("$N()", passOnName)
+                                       .build());
+        }
+        result.addMethod(createPassOn());
+        result.addMethod(createStartDrain());
+        result.addMethod(createAppend());
+        result.addMethod(createSubmit());
+        result.addMethod(createDrain());
+        result.addMethod(createDeliver());
+        final CodeBlock delegate = CodeBlock.builder().add("this.$N", decorated).build();
+        for (InterfaceMethod method : getSourceModel().getMethods()) {
+            result.addMethod(createDelivery(method, delegate));
+        }
+        result.addType(createCalls());
+    }
+
+    @NonNull
+    private static FieldSpec createConstant(TypeName type, String name, CodeBlock.Builder value) {
+        return FieldSpec.builder(type, name, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer(value.build())
+                        .build();
+    }
+
+    @NonNull
+    private static FieldSpec createTask(String name, CodeBlock body) {
+        final TypeSpec task = TypeSpec.anonymousClassBuilder("")
+                                      .addSuperinterface(Runnable.class)
+                                      .addMethod(MethodSpec.methodBuilder("run")
+                                                           .addAnnotation(Override.class)
+                                                           .addModifiers(Modifier.PUBLIC)
+                                                           .addCode(body)
+                                                           .build())
+                                      .build();
+        return FieldSpec.builder(Runnable.class, name, Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("$L", task)
+                        .build();
+    }
+
+    @NonNull
+    private MethodSpec createPassOn() {
+        return MethodSpec.methodBuilder(passOnName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .addStatement("final boolean drain")
+                         .beginControlFlow("synchronized ($N)", lockName)
+                         .addStatement("drain = $N()", submitName)
+                         .endControlFlow()
+                         .addStatement("if (drain) $N()", startDrainName)
+                         .build();
+    }
+
+    /**
+     * If the executor rejects the task, another caller may start delivering the batches.
+     */
+    @NonNull
+    private MethodSpec createStartDrain() {
+        return MethodSpec.methodBuilder(startDrainName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .beginControlFlow("try")
+                         .addStatement("$N.execute($N)", executorName, drainTaskName)
+                         .nextControlFlow("catch ($T e)", RuntimeException.class)
+                         .beginControlFlow("synchronized ($N)", lockName)
+                         .addStatement("$N = false", drainingName)
+                         .endControlFlow()
+                         .addStatement("throw e")
+                         .endControlFlow()
+                         .build();
+    }
+
+    /**
+     * Must be called with the lock held, once the arguments are stored.
+     */
+    @NonNull
+    private MethodSpec createAppend() {
+        final MethodSpec.Builder result = MethodSpec.methodBuilder(appendName)
+                                                    .addModifiers(Modifier.PRIVATE)
+                                                    .returns(TypeName.BOOLEAN)
+                                                    .addParameter(TypeName.INT, "method")
+                                                    .addStatement("$N.methods[$N.size++] = method",
+                                                                  currentName,
+                                                                  currentName)
+                                                    .addStatement("if ($N.size == $N) return $N()",
+                                                                  currentName,
+                                                                  maxBatchSizeName,
+                                                                  submitName);
+        if (delays()) {
+            result.beginControlFlow("if ($N.size == 1 && !$N)", currentName, delayedName)
+                  .addStatement("$N = true", delayedName)
+                  .beginControlFlow("try")
+                  .addStatement("$N.schedule($N, $N, $T.MILLISECONDS)",
+                                executorName,
+                                flushTaskName,
+                                maxDelayName,
+                                TimeUnit.class)
+                  .nextControlFlow("catch ($T e)", RuntimeException.class)
+                  .addStatement("$N = false", delayedName)
+                  .addStatement("throw e")
+                  .endControlFlow()
+                  .endControlFlow();
+        }
+        return result.addStatement("return false").build();
+    }
+
+    /**
+     * Must be called with the lock held. Batches left pending by a rejected delivery are passed on as well.
+     */
+    @NonNull
+    private MethodSpec createSubmit() {
+        return MethodSpec.methodBuilder(submitName)
+                         .addJavadoc("@return <code>true</code> if the caller must start delivering the batches.\n")
+                         .addModifiers(Modifier.PRIVATE)
+                         .returns(TypeName.BOOLEAN)
+                         .beginControlFlow("if ($N.size != 0)", currentName)
+                         .addStatement("$N.add($N)", pendingName, currentName)
+                         .addStatement("$N = $N != null ? $N : new $N()",
+                                       currentName,
+                                       spareName,
+                                       spareName,
+                                       callsName)
+                         .addStatement("$N = null", spareName)
+                         .endControlFlow()
+                         .addStatement("if ($N || $N.isEmpty()) return false", drainingName, pendingName)
+                         .addStatement("$N = true", drainingName)
+                         .addStatement("return true")
+                         .build();
+    }
+
+    @NonNull
+    private MethodSpec createDrain() {
+        return MethodSpec.methodBuilder(drainName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .beginControlFlow("while (true)")
+                         .addStatement("final $N calls", callsName)
+                         .beginControlFlow("synchronized ($N)", lockName)
+                         .addStatement("calls = $N.poll()", pendingName)
+                         .beginControlFlow("if (calls == null)")
+                         .addStatement("$N = false", drainingName)
+                         .addStatement("return")
+                         .endControlFlow()
+                         .endControlFlow()
+                         .addStatement("boolean delivered = false")
+                         .beginControlFlow("try")
+                         .addStatement("$N(calls)", deliverName)
+                         .addStatement("calls.clear()")
+                         .addStatement("delivered = true")
+                         .nextControlFlow("finally")
+                         .beginControlFlow("synchronized ($N)", lockName)
+                         .addStatement("if (delivered) $N = calls", spareName)
+                         .addStatement("else $N = false", drainingName)
+                         .endControlFlow()
+                         .endControlFlow()
+                         .endControlFlow()
+                         .build();
+    }
+
+    @NonNull
+    private MethodSpec createDeliver() {
+        final MethodSpec.Builder result = MethodSpec.methodBuilder(deliverName)
+                                                    .addModifiers(Modifier.PRIVATE)
+                                                    .addParameter(getCallsType(), "calls")
+                                                    .beginControlFlow("for (int call = 0; call < calls.size; call++)")
+                                                    .addStatement("final int offset = call * $N", arityName)
+                                                    .beginControlFlow("switch (calls.methods[call])");
+        for (InterfaceMethod method : getSourceModel().getMethods()) {
+            result.addCode("case $L:\n", indexes.get(method))
+                  .addCode("$>")
+                  .addStatement("$N(calls.arguments, offset)", deliveries.get(method))
+                  .addStatement("break")
+                  .addCode("$<");
+        }
+        return result.endControlFlow().endControlFlow().build();
+    }
+
+    /**
+     * The delivery of a call restores the arguments into variables named as the parameters of the method, from which
+     * the call is forwarded. Generic methods keep their type variables.
+     */
+    @NonNull
+    private MethodSpec createDelivery(InterfaceMethod method, CodeBlock delegate) {
+        final NameAllocator locals = method.newNameAllocator();
+        final String arguments = locals.newName("arguments");
+        final String offset = locals.newName("offset");
+        final MethodSpec.Builder result = MethodSpec.methodBuilder(deliveries.get(method))
+                                                    .addModifiers(Modifier.PRIVATE)
+                                                    .addTypeVariables(method.getSignature().typeVariables)
+                                                    .addParameter(Object[].class, arguments)
+                                                    .addParameter(TypeName.INT, offset);
+        boolean checked = true;
+        int slot = 0;
+        for (ParameterSpec parameter : method.getParameters()) {
+            final CodeBlock index = slot == 0
+                                    ? CodeBlock.builder().add("$N", offset).build()
+                                    : CodeBlock.builder().add("$N + $L", offset, slot).build();
+            result.addStatement("final $T $N = ($T)$N[$L]",
+                                parameter.type,
+                                parameter.name,
+                                parameter.type.box(),
+                                arguments,
+                                index);
+            checked &= isCheckedCast(parameter.type);
+            slot++;
+        }
+        if (!checked) result.addAnnotation(createSuppressUncheckedAnnotation());
+        return result.addStatement("$L", createForwardingCall(method, delegate)).build();
+    }
+
+    @NonNull
+    private TypeSpec createCalls() {
+        return TypeSpec.classBuilder(callsName)
+                       .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                       .addField(FieldSpec.builder(int[].class, "methods", Modifier.PRIVATE, Modifier.FINAL)
+                                          .initializer("new int[$N]", maxBatchSizeName)
+                                          .build())
+                       .addField(FieldSpec.builder(Object[].class, "arguments", Modifier.PRIVATE, Modifier.FINAL)
+                                          .initializer("new Object[$N * $N]", maxBatchSizeName, arityName)
+                                          .build())
+                       .addField(TypeName.INT, "size", Modifier.PRIVATE)
+                       .addMethod(MethodSpec.methodBuilder("clear")
+                                            .addModifiers(Modifier.PRIVATE)
+                                            .addStatement("$T.fill(arguments, 0, size * $N, null)",
+                                                          Arrays.class,
+                                                          arityName)
+                                            .addStatement("size = 0")
+                                            .build())
+                       .build();
+    }
+
+    /**
+     * Each call stores its arguments in the current buffer. The interface's own <code>flush()</code> also passes the
+     * buffer on, once stored.
+     */
+    @NonNull
+    @Override
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        final MethodSpec.Builder result = method.toBuilder();
+        final NameAllocator locals = method.newNameAllocator();
+        final String drain = locals.newName("drain");
+        final String offset = locals.newName("offset");
+        result.addStatement("final boolean $N", drain);
+        result.beginControlFlow("synchronized ($N)", lockName);
+        if (!method.getParameters().isEmpty()) {
+            result.addStatement("final int $N = $N.size * $N", offset, currentName, arityName);
+        }
+        int slot = 0;
+        for (ParameterSpec parameter : method.getParameters()) {
+            if (slot == 0) {
+                result.addStatement("$N.arguments[$N] = $N", currentName, offset, parameter.name);
+            } else {
+                result.addStatement("$N.arguments[$N + $L] = $N", currentName, offset, slot, parameter.name);
+            }
+            slot++;
+        }
+        if (method == flushMethod) {
+            // Both must run, the buffer may have been passed on when the call filled it.
+            result.addStatement("$N = $N($L) | $N()", drain, appendName, indexes.get(method), submitName);
+        } else {
+            result.addStatement("$N = $N($L)", drain, appendName, indexes.get(method));
+        }
+        result.endControlFlow();
+        result.addStatement("if ($N) $N()", drain, startDrainName);
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.google.common.base.CaseFormat;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.Arrays;
+
+import javax.lang.model.element.Modifier;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Generates the key identifying a call of a method by its arguments, for the decorators that share results between
+ * calls. A method without parameters is keyed by a constant. Otherwise a nested class holds the arguments: primitive
+ * arguments are kept unboxed, arrays are compared by content, other arguments by <code>equals()</code>. The hash code is
+ * computed once, when the key is created.
+ * <p>The key of each method is of its own class, so keys of different methods are never equal and a single map can
+ * hold the results of all the methods.</p>
+ */
+final class CallKey {
+
+    private static final TypeName OBJECT = TypeName.OBJECT;
+    private static final TypeName OBJECT_ARRAY = ArrayTypeName.of(TypeName.OBJECT);
+
+    private final InterfaceMethod method;
+    private final String name;
+
+    /**
+     * @param names allocator of the names of the generated class members, in which the key's name is allocated.
+     */
+    public CallKey(@NonNull InterfaceMethod method, @NonNull NameAllocator names) {
+        this.method = notNull(method);
+        final String methodName = method.getName();
+        if (method.getParameters().isEmpty()) {
+            name = names.newName(CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, methodName) + "_KEY", this);
+        } else {
+            name = names.newName(Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1) + "Key", this);
+        }
+    }
+
+    private boolean isConstant() {
+        return method.getParameters().isEmpty();
+    }
+
+    /**
+     * Adds the key's constant or class to the generated class.
+     */
+    public void addTo(@NonNull TypeSpec.Builder target) {
+        if (isConstant()) {
+            target.addField(FieldSpec.builder(OBJECT, name, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                                     .initializer("new $T()", OBJECT)
+                                     .build());
+        } else {
+            target.addType(createClass());
+        }
+    }
+
+    /**
+     * @return the expression creating the key of a call, from the parameters of the method.
+     */
+    @NonNull
+    public CodeBlock newInstance() {
+        if (isConstant()) return CodeBlock.builder().add("$N", name).build();
+        return CodeBlock.builder().add("new $N($L)", name, method.getArgumentList()).build();
+    }
+
+    @NonNull
+    private TypeSpec createClass() {
+        final TypeSpec.Builder result = TypeSpec.classBuilder(name)
+                                                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+        final MethodSpec.Builder constructor = MethodSpec.constructorBuilder();
+        final CodeBlock.Builder equality = CodeBlock.builder();
+        final String hashName = method.newNameAllocator().newName("hash");
+        final String otherName = "other";
+        constructor.addStatement("int $N = 1", hashName);
+        boolean first = true;
+        for (ParameterSpec parameter : method.getParameters()) {
+            final TypeName type = getFieldType(parameter.type);
+            result.addField(type, parameter.name, Modifier.PRIVATE, Modifier.FINAL);
+            constructor.addParameter(type, parameter.name);
+            constructor.addStatement("this.$N = $N", parameter.name, parameter.name);
+            constructor.addStatement("$N = 31 * $N + $L", hashName, hashName, hash(type, parameter.name));
+            if (!first) equality.add("\n&& ");
+            equality.add(equal(type, "this." + parameter.name, otherName + "." + parameter.name));
+            first = false;
+        }
+        result.addField(TypeName.INT, hashName, Modifier.PRIVATE, Modifier.FINAL);
+        constructor.addStatement("this.$N = $N", hashName, hashName);
+        result.addMethod(constructor.build());
+
+        result.addMethod(MethodSpec.methodBuilder("equals")
+                                   .addAnnotation(Override.class)
+                                   .addModifiers(Modifier.PUBLIC)
+                                   .returns(TypeName.BOOLEAN)
+                                   .addParameter(OBJECT, "object")
+                                   .addStatement("if (this == object) return true")
+                                   .addStatement("if (!(object instanceof $N)) return false", name)
+                                   .addStatement("final $N $N = ($N)object", name, otherName, name)
+                                   .addStatement("return $L", equality.build())
+                                   .build());
+        result.addMethod(MethodSpec.methodBuilder("hashCode")
+                                   .addAnnotation(Override.class)
+                                   .addModifiers(Modifier.PUBLIC)
+                                   .returns(TypeName.INT)
+                                   .addStatement("return $N", hashName)
+                                   .build());
+        return result.build();
+    }
+
+    /**
+     * Primitives and arrays of primitives keep their type. Other types may refer to type variables, which a static
+     * class cannot use, so they are held as <code>Object</code>.
+     */
+    @NonNull
+    private static TypeName getFieldType(TypeName parameterType) {
+        if (parameterType.isPrimitive()) return parameterType;
+        if (parameterType instanceof ArrayTypeName) {
+            final TypeName component = ((ArrayTypeName)parameterType).componentType;
+            return component.isPrimitive() ? parameterType : OBJECT_ARRAY;
+        }
+        return OBJECT;
+    }
+
+    @NonNull
+    private static CodeBlock hash(TypeName type, String field) {
+        final CodeBlock.Builder result = CodeBlock.builder();
+        if (type.equals(TypeName.BOOLEAN)) {
+            result.add("($N ? 1231 : 1237)", field);
+        } else if (type.equals(TypeName.LONG)) {
+            result.add("(int)($N ^ ($N >>> 32))", field, field);
+        } else if (type.equals(TypeName.FLOAT)) {
+            result.add("$T.floatToIntBits($N)", Float.class, field);
+        } else if (type.equals(TypeName.DOUBLE)) {
+            result.add("(int)($T.doubleToLongBits($N) ^ ($T.doubleToLongBits($N) >>> 32))",
+                       Double.class,
+                       field,
+                       Double.class,
+                       field);
+        } else if (type.isPrimitive()) {
+            result.add("$N", field);
+        } else if (type.equals(OBJECT_ARRAY)) {
+            result.add("$T.deepHashCode($N)", Arrays.class, field);
+        } else if (type instanceof ArrayTypeName) {
+            result.add("$T.hashCode($N)", Arrays.class, field);
+        } else {
+            result.add("($N == null ? 0 : $N.hashCode())", field, field);
+        }
+        return result.build();
+    }
+
+    @NonNull
+    private static CodeBlock equal(TypeName type, String field, String otherField) {
+        final CodeBlock.Builder result = CodeBlock.builder();
+        if (type.equals(TypeName.FLOAT)) {
+            result.add("$T.floatToIntBits($L) == $T.floatToIntBits($L)", Float.class, field, Float.class, otherField);
+        } else if (type.equals(TypeName.DOUBLE)) {
+            result.add("$T.doubleToLongBits($L) == $T.doubleToLongBits($L)",
+                       Double.class,
+                       field,
+                       Double.class,
+                       otherField);
+        } else if (type.isPrimitive()) {
+            result.add("$L == $L", field, otherField);
+        } else if (type.equals(OBJECT_ARRAY)) {
+            result.add("$T.deepEquals($L, $L)", Arrays.class, field, otherField);
+        } else if (type instanceof ArrayTypeName) {
+            result.add("$T.equals($L, $L)", Arrays.class, field, otherField);
+        } else {
+            result.add("($L == null ? $L == null : $L.equals($L))", field, otherField, field, otherField);
+        }
+        return result.build();
+    }
+}
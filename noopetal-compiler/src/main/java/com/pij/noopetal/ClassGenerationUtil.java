@@ -3,15 +3,21 @@ package com.pij.noopetal;
 import android.support.annotation.NonNull;
 
 import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.lang.reflect.UndeclaredThrowableException;
+
 import javax.annotation.Generated;
 import javax.annotation.processing.Processor;
 import javax.lang.model.type.TypeKind;
-import javax.lang.model.type.TypeMirror;
 
 import static org.apache.commons.lang3.StringUtils.defaultString;
 import static org.apache.commons.lang3.StringUtils.stripToNull;
@@ -30,8 +36,88 @@ class ClassGenerationUtil {
                              .build();
     }
 
-    public static String defaultReturnLiteral(@NonNull TypeMirror returnType) {
-        final TypeKind kind = returnType.getKind();
+    /**
+     * @return <code>@SuppressWarnings("unchecked")</code>, for generated code casting to generic types.
+     */
+    @NonNull
+    public static AnnotationSpec createSuppressUncheckedAnnotation() {
+        return createSuppressWarningsAnnotation("unchecked");
+    }
+
+    /**
+     * @return <code>@SuppressWarnings</code> of the warnings, for generated code that cannot avoid them, such as
+     * "rawtypes" where a generic type has no instance of its own.
+     */
+    @NonNull
+    public static AnnotationSpec createSuppressWarningsAnnotation(@NonNull String... warnings) {
+        final AnnotationSpec.Builder result = AnnotationSpec.builder(SuppressWarnings.class);
+        for (String warning : warnings) {
+            result.addMember("value", "$S", warning);
+        }
+        return result.build();
+    }
+
+    /**
+     * Creates the <code>await()</code> method of a generated class waiting for a latch. A waiting call is not
+     * interrupted, as the call it waits for is not. The interrupt is restored once done.
+     * @param latch the name of the <code>CountDownLatch</code> field.
+     */
+    @NonNull
+    public static MethodSpec createUninterruptibleAwait(@NonNull String latch) {
+        return MethodSpec.methodBuilder("await")
+                         .addStatement("boolean interrupted = false")
+                         .beginControlFlow("while (true)")
+                         .beginControlFlow("try")
+                         .addStatement("$N.await()", latch)
+                         .addStatement("break")
+                         .nextControlFlow("catch ($T e)", InterruptedException.class)
+                         .addStatement("interrupted = true")
+                         .endControlFlow()
+                         .endControlFlow()
+                         .addStatement("if (interrupted) $T.currentThread().interrupt()", Thread.class)
+                         .build();
+    }
+
+    /**
+     * @return <code>true</code> if a cast from <code>Object</code> to the type is checked at runtime.
+     */
+    public static boolean isCheckedCast(@NonNull TypeName type) {
+        if (type.isPrimitive() || type instanceof ClassName) return true;
+        return type instanceof ArrayTypeName && isCheckedCast(((ArrayTypeName)type).componentType);
+    }
+
+    /**
+     * Adds the statements rethrowing a <code>Throwable</code> from a method, cast to the unchecked exceptions or to one
+     * the method declares, or wrapped in an <code>UndeclaredThrowableException</code>. A type variable cannot be
+     * tested, so the exception is cast to the first one declared, without check.
+     * @param error the expression of the <code>Throwable</code>, not <code>null</code>.
+     * @return <code>true</code> if the exception is cast without check.
+     */
+    public static boolean addRethrow(@NonNull MethodSpec.Builder result, @NonNull InterfaceMethod method,
+                                     @NonNull CodeBlock error) {
+        result.addStatement("if ($L instanceof $T) throw ($T)$L",
+                            error,
+                            RuntimeException.class,
+                            RuntimeException.class,
+                            error);
+        result.addStatement("if ($L instanceof $T) throw ($T)$L", error, Error.class, Error.class, error);
+        TypeName uncheckedException = null;
+        for (TypeName exception : method.getSignature().exceptions) {
+            if (exception instanceof ClassName) {
+                result.addStatement("if ($L instanceof $T) throw ($T)$L", error, exception, exception, error);
+            } else if (uncheckedException == null) {
+                uncheckedException = exception;
+            }
+        }
+        if (uncheckedException == null) {
+            result.addStatement("throw new $T($L)", UndeclaredThrowableException.class, error);
+        } else {
+            result.addStatement("throw ($T)$L", uncheckedException, error);
+        }
+        return uncheckedException != null;
+    }
+
+    public static String defaultReturnLiteral(@NonNull TypeKind kind) {
         switch (kind) {
             case VOID:
                 return null;
@@ -39,6 +125,7 @@ class ClassGenerationUtil {
                 return "false";
             case BYTE:
             case CHAR:
+            case SHORT:
             case INT:
                 return "0";
             case LONG:
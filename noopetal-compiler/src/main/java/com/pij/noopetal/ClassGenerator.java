@@ -1,19 +1,28 @@
 package com.pij.noopetal;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.google.auto.common.BasicAnnotationProcessor;
 import com.google.auto.common.SuperficialValidation;
 import com.google.common.collect.SetMultimap;
 import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
 
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.annotation.Annotation;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.Messager;
@@ -23,37 +32,116 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
 
-import static javax.lang.model.element.ElementKind.INTERFACE;
 import static javax.tools.Diagnostic.Kind.ERROR;
+import static javax.tools.Diagnostic.Kind.NOTE;
+import static javax.tools.Diagnostic.Kind.WARNING;
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
 import static org.apache.commons.lang3.Validate.notNull;
 
 /**
- * Contains common code for processing an annotation that results in the generation of a single Java file.
+ * Processes all the annotations of Noopetal in a single pass. Each annotated interface is validated and analysed once,
+ * then every {@link GenerationStep} whose annotation it carries generates its Java file from that shared model.
+ * <p>Elements are streamed: the files of an element are written, and its model released, before the next element is
+ * analysed.</p>
+ * <p>When the {@link NoopetalOptions#PARALLELISM parallelism} is more than 1, the Java files are built on a fork-join pool
+ * from a snapshot of the models. Only the writing to the {@link Filer} stays on the processor thread, in the same order
+ * as sequential processing. Elements are then streamed by windows of a few types per thread.</p>
+ * <p>Elements whose hierarchy is not fully resolved yet, typically because it refers to a type another processor
+ * generates, are returned to {@link BasicAnnotationProcessor}. It retries them in the next rounds and reports an error
+ * for those still not resolved in the last round.</p>
+ * <p>The {@link ProcessingStats statistics} of each round are emitted according to the {@link NoopetalOptions#STATS}
+ * option.</p>
  */
-abstract class ClassGenerator implements BasicAnnotationProcessor.ProcessingStep {
+final class ClassGenerator implements BasicAnnotationProcessor.ProcessingStep {
 
     private final Class<? extends Processor> processorClass;
     private final ProcessingEnvironment processingEnv;
+    /**
+     * In parallel mode, how many generated types are built at once by each thread.
+     */
+    private static final int TYPES_PER_THREAD = 8;
+
+    private final List<GenerationStep> steps;
+    private final int parallelism;
+    private final NoopetalOptions.StatsOutput statsOutput;
+    private int round;
 
     public ClassGenerator(@NonNull Class<? extends Processor> processorClass,
-                          @NonNull ProcessingEnvironment processingEnv) {
+                          @NonNull ProcessingEnvironment processingEnv, @NonNull List<? extends GenerationStep> steps,
+                          @NonNull NoopetalOptions options) {
         this.processorClass = notNull(processorClass);
         this.processingEnv = notNull(processingEnv);
+        this.steps = new ArrayList<>(notNull(steps));
+        this.parallelism = options.getParallelism();
+        this.statsOutput = options.getStatsOutput();
     }
 
     @Override
-    public final Set<? extends Class<? extends Annotation>> annotations() {
-        return Collections.singleton(getSupportedAnnotation());
+    public Set<? extends Class<? extends Annotation>> annotations() {
+        Set<Class<? extends Annotation>> result = new LinkedHashSet<>();
+        for (GenerationStep step : steps) {
+            result.add(step.getSupportedAnnotation());
+        }
+        return result;
     }
 
     @Override
-    public final Set<Element> process(SetMultimap<Class<? extends Annotation>, Element> elementsByAnnotation) {
+    public Set<Element> process(SetMultimap<Class<? extends Annotation>, Element> elementsByAnnotation) {
+
+        ProcessingStats stats = new ProcessingStats(++round);
+        EnrichedTypeElementCache cache = new EnrichedTypeElementCache(getElementUtils(), getTypeUtils());
+        final int windowSize = parallelism > 1 ? parallelism * TYPES_PER_THREAD : 1;
+        List<PendingType> targetClasses = new ArrayList<>(windowSize);
+        List<EnrichedTypeElement> models = new ArrayList<>(windowSize);
+        Set<Element> deferred = new LinkedHashSet<>();
+
+        // Process each annotated element, streaming the generated types to the files as soon as enough are available.
+        for (Element element : collectElements(elementsByAnnotation)) {
+            final long start = System.nanoTime();
+            final boolean resolved = isResolved(element, cache);
+            stats.addElement(System.nanoTime() - start);
+            if (resolved) {
+                final EnrichedTypeElement model = parse(element, elementsByAnnotation, cache, targetClasses, stats);
+                if (model != null) models.add(model);
+            } else {
+                deferred.add(element);
+                stats.addDeferred();
+            }
+            if (targetClasses.size() >= windowSize) {
+                flush(targetClasses, models);
+            }
+        }
+        flush(targetClasses, models);
+
+        stats.finish(cache);
+        emitStats(stats);
 
-        Set<GeneratedType> targetClasses = findAndParseTargets(elementsByAnnotation.get(getSupportedAnnotation()));
+        return deferred;
+    }
+
+    /**
+     * The annotated interfaces are validated with all their parents, whose methods are generated too.
+     */
+    private static boolean isResolved(Element element, EnrichedTypeElementCache cache) {
+        if (element instanceof TypeElement) {
+            return cache.get((TypeElement)element).isResolved();
+        }
+        return SuperficialValidation.validateElement(element);
+    }
+
+    /**
+     * Writes the pending generated types and releases their model, so only a window of them is held in memory.
+     */
+    private void flush(List<PendingType> targetClasses, List<EnrichedTypeElement> models) {
         createFiles(targetClasses);
-        // TODO Look into this: did we rally process all elements?
-        return Collections.emptySet();
+        for (EnrichedTypeElement model : models) {
+            model.release();
+        }
+        targetClasses.clear();
+        models.clear();
     }
 
     private Elements getElementUtils() {
@@ -72,94 +160,177 @@ abstract class ClassGenerator implements BasicAnnotationProcessor.ProcessingStep
         return processingEnv.getMessager();
     }
 
-    private void createFiles(Set<GeneratedType> sourceClasses) {
-        for (GeneratedType source : sourceClasses) {
-            createFile(source);
+    private void createFiles(List<PendingType> sourceClasses) {
+        if (parallelism > 1 && sourceClasses.size() > 1) {
+            createFilesInParallel(sourceClasses);
+        } else {
+            for (PendingType source : sourceClasses) {
+                try {
+                    writeFile(source, buildFile(source));
+                } catch (Exception e) {
+                    logGenerationError(source.type, e);
+                }
+            }
         }
     }
 
-    private void createFile(GeneratedType source) {
-        final JavaFile file = JavaFile.builder(source.getTypePackage(), source.getTypeSpec())
-                                      .skipJavaLangImports(true)
-                                      .build();
+    /**
+     * Builds the files on a fork-join pool, then writes them in the order of the sources.
+     */
+    private void createFilesInParallel(List<PendingType> sourceClasses) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
         try {
-            file.writeTo(getFiler());
-        } catch (IOException e) {
-            final TypeElement sourceType = source.getSourceType();
-            final String className = source.getTypeName();
-            error(sourceType, "Unable to write file %s of type %s: %s", className, sourceType, e.getMessage());
-        }
-    }
-
-    // Process each annotated element.
-    private Set<GeneratedType> findAndParseTargets(Set<Element> elements) {
-        Set<GeneratedType> result = new LinkedHashSet<>();
-
-        for (Element element : elements) {
-            // Not too sure what this extra validation does, especially since it doesn't log what's wrong, but Wharton
-            // has it in Butterknife.
-            if (SuperficialValidation.validateElement(element) && validate(element)) {
+            List<Future<JavaFile>> files = new ArrayList<>(sourceClasses.size());
+            for (final PendingType source : sourceClasses) {
+                files.add(pool.submit(new Callable<JavaFile>() {
+                    @Override
+                    public JavaFile call() {
+                        return buildFile(source);
+                    }
+                }));
+            }
+            int index = 0;
+            for (PendingType source : sourceClasses) {
                 try {
-                    parse(element, result);
-                } catch (Exception e) {
-                    logParsingError(element, getSupportedAnnotation(), e);
+                    writeFile(source, files.get(index++).get());
+                } catch (ExecutionException e) {
+                    logGenerationError(source.type, e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logGenerationError(source.type, e);
                 }
             }
+        } finally {
+            pool.shutdownNow();
         }
-
-        return result;
     }
 
-    @NonNull
-    protected abstract Class<? extends Annotation> getSupportedAnnotation();
-
     /**
-     * @return <code>true</code> if the element is a valid target of the {@link Noop} annotation.
+     * Only uses the snapshot of the model, so it can be called from any thread.
      */
-    protected abstract boolean validate(Element element);
+    @NonNull
+    private static JavaFile buildFile(PendingType source) {
+        final long start = System.nanoTime();
+        final TypeSpec.Builder typeSpec = source.type.getTypeSpec().toBuilder();
+        for (Element originatingElement : source.type.getOriginatingElements()) {
+            typeSpec.addOriginatingElement(originatingElement);
+        }
+        final JavaFile result = JavaFile.builder(source.type.getTypePackage(), typeSpec.build())
+                                        .skipJavaLangImports(true)
+                                        .build();
+        source.stats.addBuilding(System.nanoTime() - start, result.typeSpec.methodSpecs.size());
+        return result;
+    }
 
     /**
-     * @return <code>true</code> if the element is an interface
+     * Same as {@link JavaFile#writeTo(Filer)}, counting the characters written.
      */
-    protected final boolean validateAnnotatedIsInterface(Element annotated) {
-        boolean hasError = false;
-        if (annotated.getKind() != INTERFACE) {
-            error(annotated,
-                  "@%s must only be applied to an interface. %s isn't",
-                  getSupportedAnnotation().getSimpleName(),
-                  annotated.getSimpleName());
-            hasError = true;
+    private void writeFile(PendingType source, JavaFile file) {
+        final long start = System.nanoTime();
+        try {
+            final String fileName = file.packageName.isEmpty()
+                                    ? file.typeSpec.name
+                                    : file.packageName + "." + file.typeSpec.name;
+            final List<Element> originating = file.typeSpec.originatingElements;
+            final Element[] originatingElements = originating.toArray(new Element[originating.size()]);
+            final JavaFileObject sourceFile = getFiler().createSourceFile(fileName, originatingElements);
+            final CountingWriter writer = new CountingWriter(sourceFile.openWriter());
+            try {
+                file.writeTo(writer);
+            } finally {
+                writer.close();
+            }
+            source.stats.addWriting(System.nanoTime() - start, writer.getCount());
+        } catch (IOException e) {
+            final TypeElement sourceType = source.type.getSourceType();
+            final String className = source.type.getTypeName();
+            error(sourceType, "Unable to write file %s of type %s: %s", className, sourceType, e.getMessage());
         }
-        return !hasError;
     }
 
-    private void logParsingError(Element element, Class<? extends Annotation> annotation, Exception e) {
+    private void emitStats(ProcessingStats stats) {
+        switch (statsOutput) {
+            case NOTE:
+                getMessager().printMessage(NOTE, stats.toSummary());
+                break;
+            case REPORT:
+                final String name = "META-INF/noopetal/stats-round" + stats.getRound() + ".properties";
+                try {
+                    final FileObject report = getFiler().createResource(CLASS_OUTPUT, "", name);
+                    try (Writer writer = report.openWriter()) {
+                        writer.write(stats.toReport());
+                    }
+                } catch (IOException e) {
+                    getMessager().printMessage(WARNING, "Unable to write " + name + ": " + e.getMessage());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void logGenerationError(GeneratedType source, Exception e) {
         StringWriter stackTrace = new StringWriter();
         e.printStackTrace(new PrintWriter(stackTrace));
-        error(element, "Unable to parse @%s annotation.\n\n%s", annotation.getSimpleName(), stackTrace);
+        error(source.getSourceType(), "Unable to generate %s.\n\n%s", source.getTypeName(), stackTrace);
     }
 
     /**
-     * This is where information about the annotation should be/is gathered.
+     * Collects the annotated elements, each one once, in the order of the steps.
      */
-    private void parse(Element element, Set<GeneratedType> targetClasses) {
-        TypeElement typeElement = (TypeElement)element;
+    @NonNull
+    private Set<Element> collectElements(SetMultimap<Class<? extends Annotation>, Element> elementsByAnnotation) {
+        Set<Element> result = new LinkedHashSet<>();
+        for (GenerationStep step : steps) {
+            result.addAll(elementsByAnnotation.get(step.getSupportedAnnotation()));
+        }
+        return result;
+    }
 
-        GeneratedType result = createGeneratedClass(new EnrichedTypeElement(typeElement, getElementUtils()),
-                                                    processorClass,
-                                                    getTypeUtils());
-        targetClasses.add(result);
+    private void logParsingError(Element element, Class<? extends Annotation> annotation, Exception e) {
+        StringWriter stackTrace = new StringWriter();
+        e.printStackTrace(new PrintWriter(stackTrace));
+        error(element, "Unable to parse @%s annotation.\n\n%s", annotation.getSimpleName(), stackTrace);
     }
 
     /**
-     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
-     * the element's package.
-     * @param element annotated interface, assumed valid
-     * @param types   type utility provided by the processor environment
-     * @return a representation of the generated class.
+     * This is where information about the annotations should be/is gathered. The model of the element is only created
+     * if at least one step accepts it.
+     * @return the model of the element, or <code>null</code> if no type is to be generated from it.
      */
-    protected abstract GeneratedType createGeneratedClass(EnrichedTypeElement element,
-                                                          Class<? extends Processor> processorClass, Types types);
+    @Nullable
+    private EnrichedTypeElement parse(Element element,
+                                      SetMultimap<Class<? extends Annotation>, Element> elementsByAnnotation,
+                                      EnrichedTypeElementCache cache, List<PendingType> targetClasses,
+                                      ProcessingStats stats) {
+        EnrichedTypeElement model = null;
+        for (GenerationStep step : steps) {
+            final Class<? extends Annotation> annotation = step.getSupportedAnnotation();
+            if (!elementsByAnnotation.containsEntry(annotation, element)) continue;
+            final ProcessingStats.Step stepStats = stats.get(step);
+            final long start = System.nanoTime();
+            final boolean valid = step.validate(element);
+            stepStats.addValidation(System.nanoTime() - start);
+            if (valid) {
+                try {
+                    final long parsingStart = System.nanoTime();
+                    if (model == null) {
+                        model = cache.get((TypeElement)element);
+                    }
+                    if (step.validateModel(model)) {
+                        for (GeneratedType type : step.createGeneratedClasses(model, processorClass)) {
+                            targetClasses.add(new PendingType(type, stepStats));
+                        }
+                    }
+                    model.snapshot();
+                    stepStats.addParsing(System.nanoTime() - parsingStart);
+                } catch (Exception e) {
+                    logParsingError(element, annotation, e);
+                }
+            }
+        }
+        return model;
+    }
 
     private void error(Element element, String message, Object... args) {
         if (args.length > 0) {
@@ -168,4 +339,48 @@ abstract class ClassGenerator implements BasicAnnotationProcessor.ProcessingStep
         getMessager().printMessage(ERROR, message, element);
     }
 
+    /**
+     * A generated type waiting to be written, with the statistics of the step that created it.
+     */
+    private static final class PendingType {
+
+        private final GeneratedType type;
+        private final ProcessingStats.Step stats;
+
+        private PendingType(GeneratedType type, ProcessingStats.Step stats) {
+            this.type = type;
+            this.stats = stats;
+        }
+    }
+
+    private static final class CountingWriter extends FilterWriter {
+
+        private long count;
+
+        private CountingWriter(Writer out) {
+            super(out);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            super.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            super.write(buffer, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void write(String string, int offset, int length) throws IOException {
+            super.write(string, offset, length);
+            count += length;
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+import static com.pij.noopetal.ClassGenerationUtil.addRethrow;
+import static com.pij.noopetal.ClassGenerationUtil.createSuppressUncheckedAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.createUninterruptibleAwait;
+import static com.pij.noopetal.ClassGenerationUtil.isCheckedCast;
+
+/**
+ * Generates a decorator letting a single call per method and arguments reach the decorated instance at a time. The
+ * calls in progress are registered in a <code>ConcurrentHashMap</code>, keyed by a {@link CallKey}: a call finding
+ * one registered waits on its latch and returns its result, or throws its exception. The call that registered
+ * itself forwards, records its outcome, then unregisters and releases the waiting calls.
+ * <p>The outcome is written before the latch is released and read after it is, so it needs no other
+ * synchronisation.</p>
+ */
+final class CoalescingClass extends DecorClass {
+
+    private final NameAllocator names = new NameAllocator();
+    private final Map<InterfaceMethod, CallKey> keys = new IdentityHashMap<>();
+    private final String callsName = names.newName("calls");
+    private final String callName = names.newName("Call");
+
+    public CoalescingClass(@NonNull String classPackage, @NonNull String className,
+                           @NonNull EnrichedTypeElement sourceType,
+                           @NonNull Class<? extends Processor> processorClass) {
+        super(classPackage, className, sourceType, processorClass);
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        final TypeName mapType = ParameterizedTypeName.get(ClassName.get(ConcurrentMap.class),
+                                                           TypeName.OBJECT,
+                                                           getCallTypeName());
+        result.addField(FieldSpec.builder(mapType, callsName, Modifier.PRIVATE, Modifier.FINAL)
+                                 .initializer("new $T<>()", ConcurrentHashMap.class)
+                                 .build());
+        result.addType(createCallClass());
+        for (InterfaceMethod method : getSourceModel().getMethods()) {
+            if (!method.isVoid()) getKey(method).addTo(result);
+        }
+    }
+
+    @NonNull
+    private CallKey getKey(InterfaceMethod method) {
+        CallKey result = keys.get(method);
+        if (result == null) {
+            result = new CallKey(method, names);
+            keys.put(method, result);
+        }
+        return result;
+    }
+
+    @NonNull
+    private TypeName getCallTypeName() {
+        return ClassName.get("", callName);
+    }
+
+    @NonNull
+    private TypeSpec createCallClass() {
+        return TypeSpec.classBuilder(callName)
+                       .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                       .addField(FieldSpec.builder(CountDownLatch.class, "done", Modifier.PRIVATE, Modifier.FINAL)
+                                          .initializer("new $T(1)", CountDownLatch.class)
+                                          .build())
+                       .addField(TypeName.OBJECT, "result", Modifier.PRIVATE)
+                       .addField(Throwable.class, "error", Modifier.PRIVATE)
+                       .addMethod(createUninterruptibleAwait("done"))
+                       .build();
+    }
+
+    /**
+     * Void methods are forwarded, the calls of the other ones are coalesced.
+     */
+    @NonNull
+    @Override
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        if (method.isVoid()) return super.createOverridingMethod(method, delegate);
+
+        final MethodSpec.Builder result = method.toBuilder();
+        final TypeName returnType = method.getReturnType();
+        final NameAllocator locals = method.newNameAllocator();
+        final String key = locals.newName("key");
+        final String call = locals.newName("call");
+        final String current = locals.newName("current");
+        final String value = locals.newName("result");
+        final String caught = locals.newName("e");
+        final TypeName callType = getCallTypeName();
+
+        result.addStatement("final $T $N = $L", TypeName.OBJECT, key, getKey(method).newInstance());
+        result.addStatement("final $T $N = new $T()", callType, call, callType);
+        result.addStatement("final $T $N = this.$N.putIfAbsent($N, $N)", callType, current, callsName, key, call);
+        result.beginControlFlow("if ($N != null)", current);
+        result.addStatement("$N.await()", current);
+        final CodeBlock error = CodeBlock.builder().add("$N.error", current).build();
+        result.beginControlFlow("if ($L != null)", error);
+        final boolean uncheckedRethrow = addRethrow(result, method, error);
+        result.endControlFlow();
+        if (uncheckedRethrow || !isCheckedCast(returnType)) result.addAnnotation(createSuppressUncheckedAnnotation());
+        result.addStatement("return ($T)$N.result", returnType.box(), current);
+        result.endControlFlow();
+
+        result.beginControlFlow("try");
+        result.addStatement("final $T $N = $L",
+                            returnType,
+                            value,
+                            createForwardingCall(method, CodeBlock.builder().add("this.$L", delegate).build()));
+        result.addStatement("$N.result = $N", call, value);
+        result.addStatement("return $N", value);
+        result.nextControlFlow("catch ($T $N)", Throwable.class, caught);
+        result.addStatement("$N.error = $N", call, caught);
+        result.addStatement("throw $N", caught);
+        result.nextControlFlow("finally");
+        result.addStatement("this.$N.remove($N, $N)", callsName, key, call);
+        result.addStatement("$N.done.countDown()", call);
+        result.endControlFlow();
+        return result;
+    }
+}
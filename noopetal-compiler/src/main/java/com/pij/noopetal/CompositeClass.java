@@ -0,0 +1,235 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+import static com.pij.noopetal.ClassGenerationUtil.createGeneratedAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.createSuppressWarningsAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.defaultReturnLiteral;
+import static com.pij.noopetal.DecorClass.createForwardingCall;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Generates a class forwarding each call to all the instances of the interface it holds, its components. The
+ * components are held in an array in an <code>AtomicReference</code>: adding or removing one replaces the array by
+ * compare-and-set, and a call reads the array once and iterates over it.
+ * <p>The array of a generic interface is created raw and cast, which is safe as it is never exposed.</p>
+ */
+final class CompositeClass implements GeneratedType {
+
+    private static final String COMPONENTS_FIELD_NAME = "components";
+
+    private final String classPackage;
+    private final String className;
+    private final Class<? extends Processor> processorClass;
+    private final EnrichedTypeElement sourceType;
+    private final Composite.Policy policy;
+
+    public CompositeClass(@NonNull String classPackage, @NonNull String className,
+                          @NonNull EnrichedTypeElement sourceType, @NonNull Class<? extends Processor> processorClass,
+                          @NonNull Composite.Policy policy) {
+        this.classPackage = notNull(classPackage);
+        this.className = notNull(className);
+        this.processorClass = notNull(processorClass);
+        this.sourceType = notNull(sourceType);
+        this.policy = notNull(policy);
+    }
+
+    @Override
+    public TypeElement getSourceType() {
+        return sourceType.getTypeElement();
+    }
+
+    @Override
+    public String getTypeName() {
+        return className;
+    }
+
+    @Override
+    public String getTypePackage() {
+        return classPackage;
+    }
+
+    /**
+     * The methods implemented are taken from the whole interface hierarchy.
+     */
+    @NonNull
+    @Override
+    public Collection<? extends Element> getOriginatingElements() {
+        return sourceType.getTypeHierarchy();
+    }
+
+    /**
+     * The access modifier is that of the sourceType.
+     */
+    @NonNull
+    @Override
+    public TypeSpec getTypeSpec() {
+        TypeSpec.Builder result = TypeSpec.classBuilder(getTypeName());
+        sourceType.applyAccessModifier(result);
+        sourceType.applyTypeVariables(result);
+        result.addJavadoc(createGeneratedAnnotation(processorClass).toString());
+        result.addJavadoc("\n");
+        result.addSuperinterface(getComponentTypeName());
+
+        result.addField(createComponents());
+        result.addMethod(createAdd());
+        result.addMethod(createRemove());
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            result.addMethod(createOverridingMethod(method).build());
+        }
+
+        return result.build();
+    }
+
+    private TypeName getComponentTypeName() {
+        return sourceType.getTypeName();
+    }
+
+    private TypeName getArrayTypeName() {
+        return ArrayTypeName.of(getComponentTypeName());
+    }
+
+    private boolean isGeneric() {
+        return !sourceType.getTypeVariables().isEmpty();
+    }
+
+    @NonNull
+    private FieldSpec createComponents() {
+        final TypeName type = ParameterizedTypeName.get(ClassName.get(AtomicReference.class), getArrayTypeName());
+        final FieldSpec.Builder result = FieldSpec.builder(type,
+                                                           COMPONENTS_FIELD_NAME,
+                                                           Modifier.PRIVATE,
+                                                           Modifier.FINAL);
+        if (isGeneric()) {
+            final ClassName rawType = ((ParameterizedTypeName)getComponentTypeName()).rawType;
+            // A generic array can only be created raw.
+            result.addAnnotation(createSuppressWarningsAnnotation("unchecked", "rawtypes"));
+            result.initializer("new $T<>(($T)new $T[0])", AtomicReference.class, getArrayTypeName(), rawType);
+        } else {
+            result.initializer("new $T<>(new $T[0])", AtomicReference.class, getComponentTypeName());
+        }
+        return result.build();
+    }
+
+    @NonNull
+    private MethodSpec createAdd() {
+        final TypeName arrayType = getArrayTypeName();
+        return MethodSpec.methodBuilder("addComponent")
+                         .addJavadoc("Adds a component, called after those already added.\n")
+                         .addModifiers(Modifier.PUBLIC)
+                         .addParameter(createComponentParameter())
+                         .beginControlFlow("while (true)")
+                         .addStatement("final $T current = this.$N.get()", arrayType, COMPONENTS_FIELD_NAME)
+                         .addStatement("final $T next = $T.copyOf(current, current.length + 1)",
+                                       arrayType,
+                                       Arrays.class)
+                         .addStatement("next[current.length] = component")
+                         .addStatement("if (this.$N.compareAndSet(current, next)) return", COMPONENTS_FIELD_NAME)
+                         .endControlFlow()
+                         .build();
+    }
+
+    @NonNull
+    private MethodSpec createRemove() {
+        final TypeName arrayType = getArrayTypeName();
+        return MethodSpec.methodBuilder("removeComponent")
+                         .addJavadoc("Removes the first component equal to the given one.\n"
+                                     + "@return <code>true</code> if a component was removed.\n")
+                         .addModifiers(Modifier.PUBLIC)
+                         .returns(TypeName.BOOLEAN)
+                         .addParameter(createComponentParameter())
+                         .beginControlFlow("while (true)")
+                         .addStatement("final $T current = this.$N.get()", arrayType, COMPONENTS_FIELD_NAME)
+                         .addStatement("int index = 0")
+                         .addStatement("while (index < current.length && !component.equals(current[index])) index++")
+                         .addStatement("if (index == current.length) return false")
+                         .addStatement("final $T next = $T.copyOf(current, current.length - 1)",
+                                       arrayType,
+                                       Arrays.class)
+                         .addStatement("$T.arraycopy(current, index + 1, next, index, next.length - index)",
+                                       System.class)
+                         .addStatement("if (this.$N.compareAndSet(current, next)) return true",
+                                       COMPONENTS_FIELD_NAME)
+                         .endControlFlow()
+                         .build();
+    }
+
+    @NonNull
+    private ParameterSpec createComponentParameter() {
+        return ParameterSpec.builder(getComponentTypeName(), "component", Modifier.FINAL)
+                            .addAnnotation(NonNull.class)
+                            .build();
+    }
+
+    /**
+     * Void methods call each component. The others also keep the result selected by the policy.
+     */
+    private MethodSpec.Builder createOverridingMethod(InterfaceMethod method) {
+        final MethodSpec.Builder result = method.toBuilder();
+        final NameAllocator locals = method.newNameAllocator();
+        final String component = locals.newName("component");
+        final CodeBlock call = createForwardingCall(method, CodeBlock.builder().add("$N", component).build());
+        final CodeBlock components = CodeBlock.builder().add("this.$N.get()", COMPONENTS_FIELD_NAME).build();
+        final TypeName componentType = getComponentTypeName();
+        if (method.isVoid()) {
+            result.beginControlFlow("for ($T $N : $L)", componentType, component, components);
+            result.addStatement("$L", call);
+            result.endControlFlow();
+            return result;
+        }
+
+        final TypeName returnType = method.getReturnType();
+        final String value = locals.newName("result");
+        final String defaultValue = defaultReturnLiteral(method.getReturnKind());
+        if (policy == Composite.Policy.LAST) {
+            result.addStatement("$T $N = $L", returnType, value, defaultValue);
+            result.beginControlFlow("for ($T $N : $L)", componentType, component, components);
+            result.addStatement("$N = $L", value, call);
+            result.endControlFlow();
+        } else if (policy == Composite.Policy.FIRST_NON_NULL && !returnType.isPrimitive()) {
+            final String current = locals.newName("current");
+            result.addStatement("$T $N = null", returnType, value);
+            result.beginControlFlow("for ($T $N : $L)", componentType, component, components);
+            result.addStatement("final $T $N = $L", returnType, current, call);
+            result.addStatement("if ($N == null) $N = $N", value, value, current);
+            result.endControlFlow();
+        } else {
+            final String array = locals.newName("current");
+            final String index = locals.newName("i");
+            result.addStatement("final $T $N = $L", getArrayTypeName(), array, components);
+            result.addStatement("if ($N.length == 0) return $L", array, defaultValue);
+            result.addStatement("final $T $N = $N[0].$N($L)",
+                                returnType,
+                                value,
+                                array,
+                                method.getSignature(),
+                                method.getArgumentList());
+            result.beginControlFlow("for (int $N = 1; $N < $N.length; $N++)", index, index, array, index);
+            result.addStatement("$N[$N].$N($L)", array, index, method.getSignature(), method.getArgumentList());
+            result.endControlFlow();
+        }
+        result.addStatement("return $N", value);
+        return result;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+final class CompositeProcessingStep extends GenerationStep {
+
+    private static final String COMPOSITE_CLASS_PREFIX = "Composite";
+
+    public CompositeProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+    }
+
+    @NonNull
+    protected Class<Composite> getSupportedAnnotation() {
+        return Composite.class;
+    }
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link Composite} annotation.
+     */
+    protected boolean validate(Element element) {
+        return validateAnnotatedIsInterface(element);
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated class.
+     */
+    @Override
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
+        final Composite annotation = element.getAnnotation(getSupportedAnnotation());
+        final Pair<String, String> packageAndClassName = calculatePackageAndClassName(element,
+                                                                                      annotation.value(),
+                                                                                      COMPOSITE_CLASS_PREFIX);
+        return new CompositeClass(packageAndClassName.getLeft(),
+                                  packageAndClassName.getRight(),
+                                  element,
+                                  processorClass,
+                                  annotation.policy());
+    }
+
+}
@@ -2,28 +2,33 @@ package com.pij.noopetal;
 
 import android.support.annotation.NonNull;
 
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 
 import org.apache.commons.lang3.ArrayUtils;
 
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
 import javax.annotation.processing.Processor;
 import javax.lang.model.element.Element;
-import javax.lang.model.element.ElementKind;
-import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.type.DeclaredType;
-import javax.lang.model.type.TypeKind;
-import javax.lang.model.util.Types;
 
 import static com.pij.noopetal.ClassGenerationUtil.createGeneratedAnnotation;
 import static org.apache.commons.lang3.Validate.notNull;
 
 /**
+ * Generates a class forwarding all the calls to a decorated instance of the interface. Other decorators extend it,
+ * adding their own {@link #addMembers(TypeSpec.Builder, FieldSpec) members} and wrapping the
+ * {@link #createForwardingCall(InterfaceMethod, CodeBlock) forwarding call} of each
+ * {@link #createOverridingMethod(InterfaceMethod, CodeBlock) method}.
  * @author Pierrejean on 25/10/2015.
  */
 class DecorClass implements GeneratedType {
@@ -33,17 +38,32 @@ class DecorClass implements GeneratedType {
     private final String classPackage;
     private final String className;
     private final Class<? extends Processor> processorClass;
-    private final Types types;
     private final EnrichedTypeElement sourceType;
     private final boolean mutable;
+    private final Decor.Publication publication;
+    private final boolean compareAndSet;
+
+    /**
+     * Creates an immutable decorator.
+     */
+    protected DecorClass(@NonNull String classPackage, @NonNull String className,
+                         @NonNull EnrichedTypeElement sourceType, @NonNull Class<? extends Processor> processorClass) {
+        this(classPackage, className, sourceType, processorClass, false, Decor.Publication.PLAIN, false);
+    }
 
+    /**
+     * @param publication how the decorated object is published, only relevant if mutable.
+     * @param compareAndSet if set, a compare-and-set method is added. Only valid with {@link Decor.Publication#ATOMIC}.
+     */
     public DecorClass(@NonNull String classPackage, @NonNull String className, @NonNull EnrichedTypeElement sourceType,
-                      @NonNull Class<? extends Processor> processorClass, @NonNull Types types, boolean mutable) {
+                      @NonNull Class<? extends Processor> processorClass, boolean mutable,
+                      @NonNull Decor.Publication publication, boolean compareAndSet) {
         this.mutable = mutable;
+        this.publication = mutable ? notNull(publication) : Decor.Publication.PLAIN;
+        this.compareAndSet = compareAndSet;
         this.classPackage = notNull(classPackage);
         this.className = notNull(className);
         this.processorClass = notNull(processorClass);
-        this.types = notNull(types);
         this.sourceType = notNull(sourceType);
     }
 
@@ -62,6 +82,15 @@ class DecorClass implements GeneratedType {
         return classPackage;
     }
 
+    /**
+     * The methods implemented are taken from the whole interface hierarchy.
+     */
+    @NonNull
+    @Override
+    public Collection<? extends Element> getOriginatingElements() {
+        return sourceType.getTypeHierarchy();
+    }
+
     /**
      * The access modifier is that of the sourceType.
      */
@@ -73,61 +102,114 @@ class DecorClass implements GeneratedType {
         sourceType.applyTypeVariables(result);
         result.addJavadoc(createGeneratedAnnotation(processorClass).toString());
         result.addJavadoc("\n");
-        result.addSuperinterface(getDecoratedTypeName());
+        result.addSuperinterface(getImplementedTypeName());
 
         // Add delegate field and constructor
-        final FieldSpec decorated = FieldSpec.builder(getDecoratedTypeName(), DECORATED_FIELD_NAME, getFieldModifiers())
+        final FieldSpec decorated = FieldSpec.builder(getFieldTypeName(), DECORATED_FIELD_NAME, getFieldModifiers())
                                              .build();
         result.addField(decorated);
         result.addMethod(createConstructor());
         if (mutable) result.addMethod(createSetter());
+        if (compareAndSet) result.addMethod(createCompareAndSet());
+        addMembers(result, decorated);
 
-        // Extracts methods elements and generate code from the element list.
-        for (Element element : sourceType.getAllEnclosedElements()) {
-            if (element.getKind() == ElementKind.METHOD) {
-                MethodSpec item = createOverridingMethod((ExecutableElement)element, decorated).build();
-                result.addMethod(item);
-            }
+        // Generate code from the methods of the shared interface model.
+        final CodeBlock delegate = getDelegate(decorated);
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            result.addMethod(createOverridingMethod(method, delegate).build());
         }
 
         return result.build();
     }
 
+    /**
+     * @return the modifiers of the decorated field. It is final unless the decorated object can be replaced.
+     */
     @NonNull
-    private Modifier[] getFieldModifiers() {
+    protected Modifier[] getFieldModifiers() {
         Modifier[] result = new Modifier[]{ Modifier.PRIVATE };
-        if (!mutable) result = ArrayUtils.add(result, Modifier.FINAL);
+        if (!mutable || publication == Decor.Publication.ATOMIC) result = ArrayUtils.add(result, Modifier.FINAL);
+        if (publication == Decor.Publication.VOLATILE) result = ArrayUtils.add(result, Modifier.VOLATILE);
 
         return result;
     }
 
-    private TypeName getDecoratedTypeName() {
-        return TypeName.get(sourceType.asType());
+    /**
+     * Adds the members specific to a kind of decorator. Called after the decorated field and the constructor are added,
+     * before the methods of the interface. Does nothing by default.
+     * @param decorated the field holding the decorated object.
+     */
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+    }
+
+    @NonNull
+    protected final EnrichedTypeElement getSourceModel() {
+        return sourceType;
+    }
+
+    @NonNull
+    protected final TypeName getDecoratedTypeName() {
+        return sourceType.getTypeName();
     }
 
     /**
-     * Code may be sub-optimal.
+     * @return the interface implemented by the generated class. By default, that of the decorated object.
      */
-    private MethodSpec.Builder createOverridingMethod(ExecutableElement element, FieldSpec decorated) {
-        // TODO fix the cast
-        MethodSpec.Builder result = MethodSpec.overriding(element, (DeclaredType)getSourceType().asType(), types);
-        String parameters = "";
-        boolean firstParameter = true;
-        for (ParameterSpec parameter : result.build().parameters) {
-            if (!firstParameter) parameters += ", ";
-            else firstParameter = false;
-            parameters += parameter.name;
+    @NonNull
+    protected TypeName getImplementedTypeName() {
+        return getDecoratedTypeName();
+    }
+
+    private TypeName getFieldTypeName() {
+        if (publication == Decor.Publication.ATOMIC) {
+            return ParameterizedTypeName.get(ClassName.get(AtomicReference.class), getDecoratedTypeName());
         }
-        String format = "$N.$N(" + parameters + ")";
-        if (element.getReturnType().getKind() != TypeKind.VOID) {
+        return getDecoratedTypeName();
+    }
+
+    /**
+     * @return the expression reading the decorated object from its field.
+     */
+    @NonNull
+    protected CodeBlock getDelegate(@NonNull FieldSpec decorated) {
+        if (publication == Decor.Publication.ATOMIC) {
+            return CodeBlock.builder().add("$N.get()", decorated).build();
+        }
+        return CodeBlock.builder().add("$N", decorated).build();
+    }
+
+    /**
+     * Creates the implementation of a method of the interface. By default, it forwards the call to the decorated object.
+     * @param delegate the expression reading the decorated object.
+     */
+    @NonNull
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        MethodSpec.Builder result = method.toBuilder();
+        String format = "$L";
+        if (!method.isVoid()) {
             format = "return " + format;
         }
-        result.addStatement(format, decorated, result.build());
+        result.addStatement(format, createForwardingCall(method, delegate));
 
         return result;
     }
 
-    private MethodSpec createConstructor() {
+    /**
+     * @return the call of the method on the delegate, with the same arguments, as an expression.
+     */
+    @NonNull
+    protected static CodeBlock createForwardingCall(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        return CodeBlock.builder()
+                        .add("$L.$N($L)", delegate, method.getSignature(), method.getArgumentList())
+                        .build();
+    }
+
+    /**
+     * Creates the constructor. By default, it takes the decorated object, then calls
+     * {@link #completeConstructor(MethodSpec.Builder)}.
+     */
+    @NonNull
+    protected MethodSpec createConstructor() {
         final String parameterName = "decorated";
         final ParameterSpec.Builder param = ParameterSpec.builder(getDecoratedTypeName(),
                                                                   parameterName,
@@ -137,10 +219,23 @@ class DecorClass implements GeneratedType {
         final MethodSpec.Builder result = MethodSpec.constructorBuilder();
         result.addModifiers(Modifier.PUBLIC);
         result.addParameter(param.build());
-        result.addStatement("this." + DECORATED_FIELD_NAME + " = " + parameterName);
+        if (publication == Decor.Publication.ATOMIC) {
+            result.addStatement("this." + DECORATED_FIELD_NAME + " = new $T<>(" + parameterName + ")",
+                                AtomicReference.class);
+        } else {
+            result.addStatement("this." + DECORATED_FIELD_NAME + " = " + parameterName);
+        }
+        completeConstructor(result);
         return result.build();
     }
 
+    /**
+     * Adds the parameters and statements specific to a kind of decorator to the constructor, after the decorated object
+     * is assigned. Does nothing by default.
+     */
+    protected void completeConstructor(@NonNull MethodSpec.Builder constructor) {
+    }
+
     private MethodSpec createSetter() {
         final String parameterName = "newValue";
         final ParameterSpec.Builder param = ParameterSpec.builder(getDecoratedTypeName(),
@@ -151,7 +246,28 @@ class DecorClass implements GeneratedType {
         final MethodSpec.Builder result = MethodSpec.methodBuilder("setDecorated");
         result.addModifiers(Modifier.PUBLIC);
         result.addParameter(param.build());
-        result.addStatement("this." + DECORATED_FIELD_NAME + " = " + parameterName);
+        if (publication == Decor.Publication.ATOMIC) {
+            result.addStatement("this." + DECORATED_FIELD_NAME + ".lazySet(" + parameterName + ")");
+        } else {
+            result.addStatement("this." + DECORATED_FIELD_NAME + " = " + parameterName);
+        }
+        return result.build();
+    }
+
+    /**
+     * Only valid with the {@link Decor.Publication#ATOMIC ATOMIC} publication.
+     */
+    private MethodSpec createCompareAndSet() {
+        final MethodSpec.Builder result = MethodSpec.methodBuilder("compareAndSetDecorated");
+        result.addModifiers(Modifier.PUBLIC);
+        result.returns(TypeName.BOOLEAN);
+        result.addParameter(ParameterSpec.builder(getDecoratedTypeName(), "expected", Modifier.FINAL)
+                                         .addAnnotation(NonNull.class)
+                                         .build());
+        result.addParameter(ParameterSpec.builder(getDecoratedTypeName(), "newValue", Modifier.FINAL)
+                                         .addAnnotation(NonNull.class)
+                                         .build());
+        result.addStatement("return this." + DECORATED_FIELD_NAME + ".compareAndSet(expected, newValue)");
         return result.build();
     }
 
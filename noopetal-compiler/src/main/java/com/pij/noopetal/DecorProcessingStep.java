@@ -8,17 +8,15 @@ import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.PackageElement;
-import javax.lang.model.util.Types;
 
 import static com.pij.noopetal.ClassGenerationUtil.extractPackageAndClassName;
 
-final class DecorProcessingStep extends ClassGenerator {
+final class DecorProcessingStep extends GenerationStep {
 
     private static final String DECOR_CLASS_PREFIX = "Decorating";
 
-    public DecorProcessingStep(@NonNull Class<? extends Processor> processorClass,
-                               @NonNull ProcessingEnvironment processingEnv) {
-        super(processorClass, processingEnv);
+    public DecorProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
     }
 
     @NonNull
@@ -30,7 +28,24 @@ final class DecorProcessingStep extends ClassGenerator {
      * @return <code>true</code> if the element is a valid target of the {@link Decor} annotation.
      */
     protected boolean validate(Element element) {
-        return validateAnnotatedIsInterface(element);
+        return validateAnnotatedIsInterface(element) && validatePublication(element);
+    }
+
+    /**
+     * @return <code>true</code> if the publication options are consistent with each other.
+     */
+    private boolean validatePublication(Element element) {
+        final Decor annotation = element.getAnnotation(getSupportedAnnotation());
+        boolean hasError = false;
+        if (!annotation.mutable() && annotation.publication() != Decor.Publication.PLAIN) {
+            error(element, "@Decor publication %s requires mutable = true", annotation.publication());
+            hasError = true;
+        }
+        if (annotation.compareAndSet() && annotation.publication() != Decor.Publication.ATOMIC) {
+            error(element, "@Decor compareAndSet requires mutable = true and publication = ATOMIC");
+            hasError = true;
+        }
+        return !hasError;
     }
 
     /**
@@ -40,8 +55,8 @@ final class DecorProcessingStep extends ClassGenerator {
      * @return a representation of the generated class.
      */
     @Override
-    protected GeneratedType createGeneratedClass(EnrichedTypeElement element, Class<? extends Processor> processorClass,
-                                                 Types types) {
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
 
         final String specifiedClass = element.getAnnotation(getSupportedAnnotation()).value();
         final Pair<String, String> packageAndClassName = extractPackageAndClassName(specifiedClass);
@@ -54,12 +69,14 @@ final class DecorProcessingStep extends ClassGenerator {
         if (className == null) {
             className = element.calculateClassNameWithPrefix(getClassPrefix());
         }
+        final Decor annotation = element.getAnnotation(getSupportedAnnotation());
         return new DecorClass(packageName,
                               className,
                               element,
                               processorClass,
-                              types,
-                              element.getAnnotation(getSupportedAnnotation()).mutable());
+                              annotation.mutable(),
+                              annotation.publication(),
+                              annotation.compareAndSet());
     }
 
     @NonNull
@@ -4,7 +4,10 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.google.auto.common.MoreTypes;
+import com.google.auto.common.SuperficialValidation;
 import com.google.common.collect.ImmutableSet;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 import com.squareup.javapoet.TypeVariableName;
 
@@ -13,29 +16,59 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.Name;
 import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 
 import static org.apache.commons.lang3.Validate.notNull;
 
 /**
+ * Model of an annotated interface. The methods and type variables are analysed on first use and then shared by all the
+ * generators working on the same interface. Instances are obtained from an {@link EnrichedTypeElementCache}, so parent
+ * interfaces shared by several annotated interfaces are only walked once per round.
  * @author Pierrejean on 25/10/2015.
  */
 class EnrichedTypeElement {
 
     private final TypeElement typeElement;
     private final Elements elementUtils;
+    private final Types typeUtils;
+    private final EnrichedTypeElementCache cache;
+    private List<EnrichedTypeElement> parentInterfaces;
+    private List<Element> allEnclosedElements;
+    private Set<TypeElement> typeHierarchy;
+    private List<InterfaceMethod> methods;
+    private List<TypeVariableName> typeVariables;
+    private TypeName typeName;
+    private String simpleName;
+    private Modifier accessModifier;
+    private boolean accessModifierKnown;
+    private Boolean resolved;
 
-    public EnrichedTypeElement(@NonNull TypeElement typeElement, @NonNull Elements elementUtils) {
+    EnrichedTypeElement(@NonNull TypeElement typeElement, @NonNull Elements elementUtils, @NonNull Types typeUtils,
+                        @NonNull EnrichedTypeElementCache cache) {
         this.typeElement = notNull(typeElement);
         this.elementUtils = notNull(elementUtils);
+        this.typeUtils = notNull(typeUtils);
+        this.cache = notNull(cache);
     }
 
     public TypeElement getTypeElement() {
@@ -46,11 +79,63 @@ class EnrichedTypeElement {
         return elementUtils.getPackageOf(typeElement);
     }
 
+    /**
+     * Validates this type and all the interfaces it inherits from, as their methods are generated too. A type may not be
+     * resolved yet if it refers to a type that another processor generates in a later round.
+     * @return <code>true</code> if this type and its parent interfaces are fully resolved.
+     */
+    public boolean isResolved() {
+        if (resolved == null) {
+            boolean result = SuperficialValidation.validateElement(typeElement);
+            if (result) {
+                for (EnrichedTypeElement parent : getParentInterfaces()) {
+                    if (!parent.isResolved()) {
+                        result = false;
+                        break;
+                    }
+                }
+            }
+            resolved = result;
+        }
+        return resolved;
+    }
+
+    /**
+     * Extracts from the compiler model all the information the generators need. Once done, generators do not access the
+     * compiler model anymore, so their {@link GeneratedType#getTypeSpec()} can be called from another thread. Must be
+     * called on the processor thread.
+     */
+    public void snapshot() {
+        getAccessModifier();
+        getTypeName();
+        getSimpleName();
+        getTypeVariables();
+        getMethods();
+        getTypeHierarchy();
+    }
+
+    /**
+     * Releases the data only needed to generate code for this type, such as the overriding signatures. It is
+     * computed again if needed. The flattened element list is kept, as it is reused by the types extending this one.
+     */
+    public void release() {
+        methods = null;
+    }
+
     /**
      * @return the access modifier of the element.
      */
     @Nullable
     private Modifier getAccessModifier() {
+        if (!accessModifierKnown) {
+            accessModifier = findAccessModifier();
+            accessModifierKnown = true;
+        }
+        return accessModifier;
+    }
+
+    @Nullable
+    private Modifier findAccessModifier() {
         for (Modifier modifier : typeElement.getModifiers()) {
             switch (modifier) {
                 case PRIVATE:
@@ -62,17 +147,183 @@ class EnrichedTypeElement {
         return null;
     }
 
+    /**
+     * @return the name of this type, including its type arguments.
+     */
+    @NonNull
+    public TypeName getTypeName() {
+        if (typeName == null) {
+            typeName = TypeName.get(typeElement.asType());
+        }
+        return typeName;
+    }
+
+    /**
+     * @return the simple name of the type, without its containing type(s).
+     */
+    @NonNull
+    public String getSimpleName() {
+        if (simpleName == null) {
+            simpleName = typeElement.getSimpleName().toString();
+        }
+        return simpleName;
+    }
+
     public void applyAccessModifier(@NonNull TypeSpec.Builder target) {
         final Modifier modifier = getAccessModifier();
         if (modifier != null) target.addModifiers(modifier);
     }
 
     public void applyTypeVariables(TypeSpec.Builder target) {
-        final List<? extends TypeParameterElement> sourceParameters = typeElement.getTypeParameters();
-        for (TypeParameterElement sourceParameter : sourceParameters) {
-            TypeVariableName targetParameter = TypeVariableName.get(sourceParameter);
-            target.addTypeVariable(targetParameter);
+        target.addTypeVariables(getTypeVariables());
+    }
+
+    @NonNull
+    public List<TypeVariableName> getTypeVariables() {
+        if (typeVariables == null) {
+            final List<? extends TypeParameterElement> sourceParameters = typeElement.getTypeParameters();
+            List<TypeVariableName> result = new ArrayList<>(sourceParameters.size());
+            for (TypeParameterElement sourceParameter : sourceParameters) {
+                result.add(TypeVariableName.get(sourceParameter));
+            }
+            typeVariables = Collections.unmodifiableList(result);
+        }
+        return typeVariables;
+    }
+
+    /**
+     * @return the methods to implement for this type, with their signature resolved against this type. Methods
+     * declared in this type and its parent types are listed once per override-equivalent signature, keeping the
+     * declaration with the most specific return type, and only the exceptions all of them allow. Static methods are
+     * ignored.
+     */
+    @NonNull
+    public List<InterfaceMethod> getMethods() {
+        if (methods == null) {
+            // TODO fix the cast
+            final DeclaredType containing = (DeclaredType)typeElement.asType();
+            List<InterfaceMethod> result = new ArrayList<>();
+            for (Map.Entry<ExecutableElement, List<ExecutableType>> entry : selectMethods(containing).entrySet()) {
+                final ExecutableElement method = entry.getKey();
+                MethodSpec signature = MethodSpec.overriding(method, containing, typeUtils).build();
+                if (entry.getValue().size() > 1) {
+                    signature = withExceptions(signature, getAllowedExceptions(entry.getValue()));
+                }
+                result.add(new InterfaceMethod(method, signature));
+            }
+            methods = Collections.unmodifiableList(result);
+        }
+        return methods;
+    }
+
+    /**
+     * Removes the override-equivalent methods: when a method is redeclared in a sub-interface, or declared in several
+     * unrelated parents, the declaration whose return type, as a member of this type, is a subtype of the other ones is
+     * kept. In case of a tie, the last one found, i.e. the most derived one, is kept. Each method keeps the position of
+     * its first declaration.
+     * @return each kept method, with the types of all the declarations it stands for.
+     */
+    @NonNull
+    private Map<ExecutableElement, List<ExecutableType>> selectMethods(DeclaredType containing) {
+        List<ExecutableElement> selected = new ArrayList<>();
+        List<ExecutableType> selectedTypes = new ArrayList<>();
+        List<List<ExecutableType>> mergedTypes = new ArrayList<>();
+        Map<Name, List<Integer>> indexesByName = new HashMap<>();
+        for (Element element : getAllEnclosedElements()) {
+            if (element.getKind() != ElementKind.METHOD || element.getModifiers().contains(Modifier.STATIC)) continue;
+            final ExecutableElement method = (ExecutableElement)element;
+            final ExecutableType type = (ExecutableType)typeUtils.asMemberOf(containing, method);
+            List<Integer> sameName = indexesByName.get(method.getSimpleName());
+            if (sameName == null) {
+                sameName = new ArrayList<>(1);
+                indexesByName.put(method.getSimpleName(), sameName);
+            }
+            int equivalent = -1;
+            for (int index : sameName) {
+                if (isOverrideEquivalent(type, selectedTypes.get(index))) {
+                    equivalent = index;
+                    break;
+                }
+            }
+            if (equivalent < 0) {
+                sameName.add(selected.size());
+                selected.add(method);
+                selectedTypes.add(type);
+                mergedTypes.add(new ArrayList<>(Collections.singletonList(type)));
+            } else {
+                mergedTypes.get(equivalent).add(type);
+                if (typeUtils.isSubtype(type.getReturnType(), selectedTypes.get(equivalent).getReturnType())) {
+                    selected.set(equivalent, method);
+                    selectedTypes.set(equivalent, type);
+                }
+            }
+        }
+        Map<ExecutableElement, List<ExecutableType>> result = new LinkedHashMap<>();
+        for (int index = 0; index < selected.size(); index++) {
+            result.put(selected.get(index), mergedTypes.get(index));
         }
+        return result;
+    }
+
+    /**
+     * An exception may be thrown by a method standing for several declarations if it is unchecked, or if each of them
+     * throws it or one of its super types.
+     */
+    @NonNull
+    private List<TypeName> getAllowedExceptions(List<ExecutableType> declarations) {
+        final TypeMirror runtimeException = elementUtils.getTypeElement(RuntimeException.class.getName()).asType();
+        final TypeMirror error = elementUtils.getTypeElement(Error.class.getName()).asType();
+        List<TypeMirror> allowed = new ArrayList<>();
+        for (ExecutableType declaration : declarations) {
+            for (TypeMirror exception : declaration.getThrownTypes()) {
+                if (contains(allowed, exception)) continue;
+                boolean thrownByAll = true;
+                for (int index = 0; thrownByAll && index < declarations.size(); index++) {
+                    thrownByAll = isThrown(exception, declarations.get(index));
+                }
+                if (thrownByAll
+                    || typeUtils.isSubtype(exception, runtimeException)
+                    || typeUtils.isSubtype(exception, error)) {
+                    allowed.add(exception);
+                }
+            }
+        }
+        List<TypeName> result = new ArrayList<>(allowed.size());
+        for (TypeMirror exception : allowed) {
+            result.add(TypeName.get(exception));
+        }
+        return result;
+    }
+
+    private boolean contains(List<TypeMirror> types, TypeMirror type) {
+        for (TypeMirror candidate : types) {
+            if (typeUtils.isSameType(candidate, type)) return true;
+        }
+        return false;
+    }
+
+    private boolean isThrown(TypeMirror exception, ExecutableType declaration) {
+        for (TypeMirror thrown : declaration.getThrownTypes()) {
+            if (typeUtils.isSubtype(exception, thrown)) return true;
+        }
+        return false;
+    }
+
+    @NonNull
+    private static MethodSpec withExceptions(MethodSpec signature, List<TypeName> exceptions) {
+        return MethodSpec.methodBuilder(signature.name)
+                         .addAnnotations(signature.annotations)
+                         .addModifiers(signature.modifiers)
+                         .addTypeVariables(signature.typeVariables)
+                         .returns(signature.returnType)
+                         .addParameters(signature.parameters)
+                         .varargs(signature.varargs)
+                         .addExceptions(exceptions)
+                         .build();
+    }
+
+    private boolean isOverrideEquivalent(ExecutableType one, ExecutableType other) {
+        return typeUtils.isSubsignature(one, other) || typeUtils.isSubsignature(other, one);
     }
 
     @NonNull
@@ -115,26 +366,38 @@ class EnrichedTypeElement {
     }
 
     /**
-     * @return the elements declared in this type and its parent types.
+     * @return the elements declared in this type and its parent types, each listed once. Elements inherited through
+     * several paths (i.e. diamond hierarchies) are only listed the first time they are reached. The list is computed
+     * once, from the lists of the parent types.
      */
     @NonNull
     public List<Element> getAllEnclosedElements() {
-        List<Element> result = new ArrayList<>();
-        collectEnclosedElements(result);
-        return result;
+        if (allEnclosedElements == null) {
+            Set<Element> collector = new LinkedHashSet<>();
+            for (EnrichedTypeElement parent : getParentInterfaces()) {
+                collector.addAll(parent.getAllEnclosedElements());
+            }
+            collector.addAll(getEnclosedElements());
+            allEnclosedElements = Collections.unmodifiableList(new ArrayList<>(collector));
+        }
+        return allEnclosedElements;
     }
 
     /**
-     * Collects the elements declared in this type and its parent types. This form is to improve speed.
-     * @param collector where to place the elements found.
+     * @return this type and all the interfaces it inherits from, each listed once. These are the elements walked by
+     * {@link #getAllEnclosedElements()}.
      */
-    private void collectEnclosedElements(@NonNull List<Element> collector) {
-        for (EnrichedTypeElement parent : getParentInterfaces()) {
-            if (parent != null) {
-                parent.collectEnclosedElements(collector);
+    @NonNull
+    public Set<TypeElement> getTypeHierarchy() {
+        if (typeHierarchy == null) {
+            Set<TypeElement> collector = new LinkedHashSet<>();
+            collector.add(typeElement);
+            for (EnrichedTypeElement parent : getParentInterfaces()) {
+                collector.addAll(parent.getTypeHierarchy());
             }
+            typeHierarchy = Collections.unmodifiableSet(collector);
         }
-        collector.addAll(getEnclosedElements());
+        return typeHierarchy;
     }
 
     public TypeMirror asType() {
@@ -147,12 +410,15 @@ class EnrichedTypeElement {
 
     @NonNull
     public List<EnrichedTypeElement> getParentInterfaces() {
-        ImmutableSet<TypeElement> parents = MoreTypes.asTypeElements(typeElement.getInterfaces());
-        List<EnrichedTypeElement> result = new ArrayList<>();
-        for (TypeElement parent : parents) {
-            result.add(new EnrichedTypeElement(parent, elementUtils));
+        if (parentInterfaces == null) {
+            ImmutableSet<TypeElement> parents = MoreTypes.asTypeElements(typeElement.getInterfaces());
+            List<EnrichedTypeElement> result = new ArrayList<>(parents.size());
+            for (TypeElement parent : parents) {
+                result.add(cache.get(parent));
+            }
+            parentInterfaces = Collections.unmodifiableList(result);
         }
-        return result;
+        return parentInterfaces;
     }
 
 }
@@ -0,0 +1,65 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Round-scoped cache of the interface models. Each interface, annotated or parent of an annotated one, is analysed at
+ * most once: its flattened method list and overriding signatures are then reused by all the generators and all the
+ * interfaces that extend it. Javac elements must not be kept across rounds, so a new cache is used for each round.
+ */
+final class EnrichedTypeElementCache {
+
+    private final Elements elementUtils;
+    private final Types typeUtils;
+    private final Map<TypeElement, EnrichedTypeElement> models = new HashMap<>();
+    private int hitCount;
+    private int missCount;
+
+    public EnrichedTypeElementCache(@NonNull Elements elementUtils, @NonNull Types typeUtils) {
+        this.elementUtils = notNull(elementUtils);
+        this.typeUtils = notNull(typeUtils);
+    }
+
+    /**
+     * @return the model of the type, created the first time it is requested.
+     */
+    @NonNull
+    public EnrichedTypeElement get(@NonNull TypeElement typeElement) {
+        EnrichedTypeElement result = models.get(notNull(typeElement));
+        if (result == null) {
+            missCount++;
+            result = new EnrichedTypeElement(typeElement, elementUtils, typeUtils, this);
+            models.put(typeElement, result);
+        } else {
+            hitCount++;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of requests answered by an existing model.
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of requests that had to create a new model.
+     */
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public int size() {
+        return models.size();
+    }
+}
@@ -2,11 +2,18 @@ package com.pij.noopetal;
 
 import android.support.annotation.NonNull;
 
+import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+
+import java.util.Collection;
+import java.util.Collections;
 
 import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 
@@ -29,10 +36,26 @@ final class FactoryInterface implements GeneratedType {
         this.sourceType = notNull(sourceType);
     }
 
+    /**
+     * @return the name of the generated interface, with the type variables of the source type as arguments.
+     */
+    @NonNull
+    public TypeName getInterfaceTypeName() {
+        final ClassName rawType = ClassName.get(classPackage, className);
+        if (sourceType.getTypeVariables().isEmpty()) return rawType;
+        return ParameterizedTypeName.get(rawType,
+                                         sourceType.getTypeVariables().toArray(new TypeVariableName[0]));
+    }
+
+    @NonNull
+    public String getCreateMethodName() {
+        return "create" + sourceType.getSimpleName();
+    }
+
     private MethodSpec.Builder createCreateMethod() {
-        final MethodSpec.Builder result = MethodSpec.methodBuilder("create" + getSourceType().getSimpleName());
+        final MethodSpec.Builder result = MethodSpec.methodBuilder(getCreateMethodName());
         result.addModifiers(Modifier.ABSTRACT, Modifier.PUBLIC);
-        result.returns(TypeName.get(getSourceType().asType()));
+        result.returns(sourceType.getTypeName());
         return result;
     }
 
@@ -51,6 +74,15 @@ final class FactoryInterface implements GeneratedType {
         return classPackage;
     }
 
+    /**
+     * Only the annotated interface is used.
+     */
+    @NonNull
+    @Override
+    public Collection<? extends Element> getOriginatingElements() {
+        return Collections.singleton(getSourceType());
+    }
+
     /**
      * The access modifier is that of the sourceType.
      */
@@ -4,21 +4,24 @@ import android.support.annotation.NonNull;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.PackageElement;
-import javax.lang.model.util.Types;
 
 import static com.pij.noopetal.ClassGenerationUtil.extractPackageAndClassName;
 
-final class FactoryProcessingStep extends ClassGenerator {
+final class FactoryProcessingStep extends GenerationStep {
 
     private static final String FACTORY_CLASS_PREFIX = "Factory";
+    private static final String POOLING_CLASS_PREFIX = "Pooling";
+    private static final String LAZY_CLASS_PREFIX = "Lazy";
 
-    public FactoryProcessingStep(@NonNull Class<? extends Processor> processorClass,
-                                 @NonNull ProcessingEnvironment processingEnv) {
-        super(processorClass, processingEnv);
+    public FactoryProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
     }
 
     @NonNull
@@ -30,19 +33,21 @@ final class FactoryProcessingStep extends ClassGenerator {
      * @return <code>true</code> if the element is a valid target of the {@link Factory} annotation.
      */
     protected boolean validate(Element element) {
-        return validateAnnotatedIsInterface(element);
+        final Factory annotation = element.getAnnotation(Factory.class);
+        return validateAnnotatedIsInterface(element)
+               && (annotation.pool() == Factory.Pool.NONE
+                   || validatePositive(element, "poolSize", annotation.poolSize()));
     }
 
     /**
      * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
      * the element's package.
      * @param element annotated interface, assumed valid
-     * @param types   type utility, currently ignored
      * @return a representation of the generated class.
      */
     @Override
-    protected GeneratedType createGeneratedClass(EnrichedTypeElement element, Class<? extends Processor> processorClass,
-                                                 Types types) {
+    protected FactoryInterface createGeneratedClass(EnrichedTypeElement element,
+                                                    Class<? extends Processor> processorClass) {
 
         final String specifiedClass = element.getAnnotation(getSupportedAnnotation()).value();
         final Pair<String, String> packageAndClassName = extractPackageAndClassName(specifiedClass);
@@ -58,6 +63,36 @@ final class FactoryProcessingStep extends ClassGenerator {
         return new FactoryInterface(packageName, className, element, processorClass);
     }
 
+    /**
+     * @return the factory interface and, if specified, its pooling and lazy implementations in the same package.
+     */
+    @NonNull
+    @Override
+    protected List<GeneratedType> createGeneratedClasses(EnrichedTypeElement element,
+                                                         Class<? extends Processor> processorClass) {
+        final Factory annotation = element.getAnnotation(getSupportedAnnotation());
+        final FactoryInterface factoryInterface = createGeneratedClass(element, processorClass);
+        final List<GeneratedType> result = new ArrayList<>();
+        result.add(factoryInterface);
+        if (annotation.pool() != Factory.Pool.NONE) {
+            result.add(new PoolingFactoryClass(factoryInterface.getTypePackage(),
+                                               POOLING_CLASS_PREFIX + factoryInterface.getTypeName(),
+                                               element,
+                                               processorClass,
+                                               factoryInterface,
+                                               annotation.pool(),
+                                               annotation.poolSize()));
+        }
+        if (annotation.lazy()) {
+            result.add(new LazyFactoryClass(factoryInterface.getTypePackage(),
+                                            LAZY_CLASS_PREFIX + factoryInterface.getTypeName(),
+                                            element,
+                                            processorClass,
+                                            factoryInterface));
+        }
+        return result;
+    }
+
     @NonNull
     protected String getClassSuffix() {
         return FACTORY_CLASS_PREFIX;
@@ -4,6 +4,9 @@ import android.support.annotation.NonNull;
 
 import com.squareup.javapoet.TypeSpec;
 
+import java.util.Collection;
+
+import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 
 /**
@@ -19,4 +22,11 @@ interface GeneratedType {
 
     @NonNull
     TypeSpec getTypeSpec();
+
+    /**
+     * @return the elements the generated type is derived from. Incremental build tools use them to decide which
+     * generated files must be regenerated when a source changes.
+     */
+    @NonNull
+    Collection<? extends Element> getOriginatingElements();
 }
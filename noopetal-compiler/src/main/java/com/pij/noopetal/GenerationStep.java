@@ -0,0 +1,165 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.lang.annotation.Annotation;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+import static com.pij.noopetal.ClassGenerationUtil.extractPackageAndClassName;
+import static javax.lang.model.element.ElementKind.INTERFACE;
+import static javax.tools.Diagnostic.Kind.ERROR;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Contains common code for processing an annotation that results in the generation of Java files, usually a single
+ * one. Steps are run by {@link ClassGenerator}, which analyses each annotated interface once for all of them.
+ */
+abstract class GenerationStep {
+
+    private final ProcessingEnvironment processingEnv;
+
+    public GenerationStep(@NonNull ProcessingEnvironment processingEnv) {
+        this.processingEnv = notNull(processingEnv);
+    }
+
+    @NonNull
+    protected abstract Class<? extends Annotation> getSupportedAnnotation();
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link #getSupportedAnnotation() annotation}.
+     */
+    protected abstract boolean validate(Element element);
+
+    /**
+     * Validates what can only be checked once the interface is analysed, such as its methods. Called after
+     * {@link #validate(Element)} succeeded, before {@link #createGeneratedClass(EnrichedTypeElement, Class)}. Accepts
+     * any interface by default.
+     * @return <code>true</code> if the class can be generated.
+     */
+    protected boolean validateModel(EnrichedTypeElement element) {
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if the element is an interface
+     */
+    protected final boolean validateAnnotatedIsInterface(Element annotated) {
+        boolean hasError = false;
+        if (annotated.getKind() != INTERFACE) {
+            error(annotated,
+                  "@%s must only be applied to an interface. %s isn't",
+                  getSupportedAnnotation().getSimpleName(),
+                  annotated.getSimpleName());
+            hasError = true;
+        }
+        return !hasError;
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated class.
+     */
+    protected abstract GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                          Class<? extends Processor> processorClass);
+
+    /**
+     * Creates all the types generated for the element. Most annotations generate a single type, the one created by
+     * {@link #createGeneratedClass(EnrichedTypeElement, Class)}.
+     * @param element annotated interface, assumed valid
+     */
+    @NonNull
+    protected List<GeneratedType> createGeneratedClasses(EnrichedTypeElement element,
+                                                         Class<? extends Processor> processorClass) {
+        return Collections.singletonList(createGeneratedClass(element, processorClass));
+    }
+
+    /**
+     * @param specifiedClass the class name specified in the annotation, possibly empty or only a package.
+     * @param prefix prefix of the interface name, used when the annotation does not specify the class name.
+     * @return the package and the simple name of the class to generate. The element's package is used if none is
+     * specified.
+     */
+    @NonNull
+    protected final Pair<String, String> calculatePackageAndClassName(EnrichedTypeElement element,
+                                                                      String specifiedClass, String prefix) {
+        final Pair<String, String> packageAndClassName = extractPackageAndClassName(specifiedClass);
+        String packageName = packageAndClassName.getLeft();
+        if (packageName == null) {
+            packageName = element.getPackage().getQualifiedName().toString();
+        }
+        String className = packageAndClassName.getRight();
+        if (className == null) {
+            className = element.calculateClassNameWithPrefix(prefix);
+        }
+        return Pair.of(packageName, className);
+    }
+
+    /**
+     * Reports an error if the value is not positive.
+     * @return <code>true</code> if the value is positive.
+     */
+    protected final boolean validatePositive(Element annotated, String attribute, long value) {
+        if (value <= 0) {
+            error(annotated,
+                  "@%s %s must be positive, not %d",
+                  getSupportedAnnotation().getSimpleName(),
+                  attribute,
+                  value);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reports an error if the value is negative.
+     * @return <code>true</code> if the value is not negative.
+     */
+    protected final boolean validateNotNegative(Element annotated, String attribute, long value) {
+        if (value < 0) {
+            error(annotated,
+                  "@%s %s must not be negative, not %d",
+                  getSupportedAnnotation().getSimpleName(),
+                  attribute,
+                  value);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reports an error for each method of the interface, without parameters, named as a method the generated class
+     * adds, as the generated class would not compile.
+     * @return <code>true</code> if there is none.
+     */
+    protected final boolean validateNoClash(EnrichedTypeElement element, Collection<String> generatedMethods) {
+        boolean valid = true;
+        for (InterfaceMethod method : element.getMethods()) {
+            if (method.getParameters().isEmpty() && generatedMethods.contains(method.getName())) {
+                error(element.getTypeElement(),
+                      "@%s generates a %s() method, so the interface cannot declare one",
+                      getSupportedAnnotation().getSimpleName(),
+                      method.getName());
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    protected final void error(Element element, String message, Object... args) {
+        if (args.length > 0) {
+            message = String.format(message, args);
+        }
+        processingEnv.getMessager().printMessage(ERROR, message, element);
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Generates a decorator forwarding each call under a read/write lock: the read lock for the methods named as reads,
+ * the write lock for the others.
+ * <p>With an optimistic lock, a read returning a value first forwards with the stamp of
+ * <code>tryOptimisticRead()</code>, and returns the result, or throws the exception, if the stamp is still valid.
+ * Otherwise, or if a write was in progress, it forwards again under the read lock. The exception is rethrown as caught,
+ * which is allowed by its precise type, so no cast is needed.</p>
+ */
+final class GuardedClass extends DecorClass {
+
+    static final ClassName STAMPED_LOCK = ClassName.get("java.util.concurrent.locks", "StampedLock");
+
+    private final List<String> readPrefixes;
+    private final Guarded.Lock lock;
+    private final NameAllocator names = new NameAllocator();
+    private final String lockName;
+
+    public GuardedClass(@NonNull String classPackage, @NonNull String className,
+                        @NonNull EnrichedTypeElement sourceType, @NonNull Class<? extends Processor> processorClass,
+                        @NonNull List<String> readPrefixes, @NonNull Guarded.Lock lock) {
+        super(classPackage, className, sourceType, processorClass);
+        this.readPrefixes = new ArrayList<>(notNull(readPrefixes));
+        this.lock = notNull(lock);
+        // Members must not hide the methods of the interface.
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            names.newName(method.getName(), method);
+        }
+        lockName = names.newName("lock");
+    }
+
+    private boolean isStamped() {
+        return lock != Guarded.Lock.READ_WRITE;
+    }
+
+    /**
+     * A read is named as a prefix, or starts with one followed by anything but a lower case letter, as in
+     * <code>getName</code> or <code>is2D</code>.
+     */
+    private boolean isRead(InterfaceMethod method) {
+        final String name = method.getName();
+        for (String prefix : readPrefixes) {
+            if (name.startsWith(prefix)
+                && (name.length() == prefix.length() || !Character.isLowerCase(name.charAt(prefix.length())))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        final TypeName type = isStamped() ? STAMPED_LOCK : ClassName.get(ReentrantReadWriteLock.class);
+        result.addField(FieldSpec.builder(type, lockName, Modifier.PRIVATE, Modifier.FINAL)
+                                 .initializer("new $T()", type)
+                                 .build());
+    }
+
+    @NonNull
+    @Override
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        final MethodSpec.Builder result = method.toBuilder();
+        final NameAllocator locals = method.newNameAllocator();
+        final CodeBlock call = createForwardingCall(method, CodeBlock.builder().add("this.$L", delegate).build());
+        final boolean read = isRead(method);
+        if (lock == Guarded.Lock.OPTIMISTIC && read && !method.isVoid()) {
+            addOptimisticRead(result, method, locals, call);
+        }
+        final CodeBlock unlock;
+        if (isStamped()) {
+            final String stamp = locals.newName("stamp");
+            result.addStatement("final long $N = this.$N.$L()", stamp, lockName, read ? "readLock" : "writeLock");
+            unlock = CodeBlock.builder()
+                              .add("this.$N.$L($N)", lockName, read ? "unlockRead" : "unlockWrite", stamp)
+                              .build();
+        } else {
+            final String side = read ? "readLock" : "writeLock";
+            result.addStatement("this.$N.$L().lock()", lockName, side);
+            unlock = CodeBlock.builder().add("this.$N.$L().unlock()", lockName, side).build();
+        }
+        result.beginControlFlow("try");
+        result.addStatement(method.isVoid() ? "$L" : "return $L", call);
+        result.nextControlFlow("finally");
+        result.addStatement("$L", unlock);
+        result.endControlFlow();
+        return result;
+    }
+
+    private void addOptimisticRead(MethodSpec.Builder result, InterfaceMethod method, NameAllocator locals,
+                                   CodeBlock call) {
+        final String optimistic = locals.newName("optimistic");
+        final String value = locals.newName("result");
+        final String error = locals.newName("e");
+        result.addStatement("final long $N = this.$N.tryOptimisticRead()", optimistic, lockName);
+        result.beginControlFlow("if ($N != 0L)", optimistic);
+        result.beginControlFlow("try");
+        result.addStatement("final $T $N = $L", method.getReturnType(), value, call);
+        result.addStatement("if (this.$N.validate($N)) return $N", lockName, optimistic, value);
+        result.nextControlFlow("catch ($T $N)", Throwable.class, error);
+        result.addStatement("if (this.$N.validate($N)) throw $N", lockName, optimistic, error);
+        result.endControlFlow();
+        result.endControlFlow();
+    }
+}
@@ -0,0 +1,80 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.Arrays;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+final class GuardedProcessingStep extends GenerationStep {
+
+    private static final String GUARDED_CLASS_PREFIX = "Guarded";
+
+    private final ProcessingEnvironment processingEnv;
+
+    public GuardedProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+        this.processingEnv = notNull(processingEnv);
+    }
+
+    @NonNull
+    protected Class<Guarded> getSupportedAnnotation() {
+        return Guarded.class;
+    }
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link Guarded} annotation, and, with a stamped
+     * lock, if <code>StampedLock</code> is available.
+     */
+    protected boolean validate(Element element) {
+        if (!validateAnnotatedIsInterface(element)) return false;
+        final Guarded annotation = element.getAnnotation(getSupportedAnnotation());
+        for (String prefix : annotation.readPrefixes()) {
+            if (prefix.isEmpty()) {
+                error(element, "@Guarded readPrefixes must not be empty strings");
+                return false;
+            }
+        }
+        return annotation.lock() == Guarded.Lock.READ_WRITE || validateStampedLockAvailable(element, annotation.lock());
+    }
+
+    private boolean validateStampedLockAvailable(Element element, Guarded.Lock lock) {
+        final String lockClass = GuardedClass.STAMPED_LOCK.toString();
+        if (processingEnv.getElementUtils().getTypeElement(lockClass) == null) {
+            error(element,
+                  "@Guarded lock %s requires %s, available from Java 8 and Android API level 24",
+                  lock,
+                  lockClass);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated class.
+     */
+    @Override
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
+        final Guarded annotation = element.getAnnotation(getSupportedAnnotation());
+        final Pair<String, String> packageAndClassName = calculatePackageAndClassName(element,
+                                                                                      annotation.value(),
+                                                                                      GUARDED_CLASS_PREFIX);
+        return new GuardedClass(packageAndClassName.getLeft(),
+                                packageAndClassName.getRight(),
+                                element,
+                                processorClass,
+                                Arrays.asList(annotation.readPrefixes()),
+                                annotation.lock());
+    }
+
+}
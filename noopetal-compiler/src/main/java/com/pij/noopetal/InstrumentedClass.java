@@ -0,0 +1,355 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+/**
+ * Generates a decorator counting the calls of each method, the calls that threw, and recording their latency in a
+ * histogram of power-of-two buckets of nanoseconds.
+ * <p>All the counters live in a single <code>AtomicLongArray</code>, in as many stripes as there are processors, rounded
+ * to a power of two. A call only updates the stripe of its thread, so recording takes a few uncontended atomic
+ * additions, without boxing. Stripes are padded so that two of them do not share a cache line. A snapshot adds the
+ * stripes up.</p>
+ */
+final class InstrumentedClass extends DecorClass {
+
+    // The public method added to those of the interface.
+    static final String SNAPSHOT_METHOD_NAME = "snapshot";
+
+    private static final String SNAPSHOT_CLASS_NAME = "MethodSnapshot";
+    private static final int BUCKETS = 40;
+    private static final int PADDING = 16;
+
+    private final NameAllocator names = new NameAllocator();
+    private final Map<InterfaceMethod, Integer> indexes = new IdentityHashMap<>();
+    private final String methodNamesName;
+    private final String bucketsName;
+    private final String callsName;
+    private final String errorsName;
+    private final String totalNanosName;
+    private final String firstBucketName;
+    private final String slotsName;
+    private final String stripesName;
+    private final String strideName;
+    private final String countersName;
+    private final String recordCallName;
+    private final String recordErrorName;
+    private final String offsetName;
+    private final String bucketName;
+    private final String countStripesName;
+    private final ClassName snapshotType;
+
+    public InstrumentedClass(@NonNull String classPackage, @NonNull String className,
+                             @NonNull EnrichedTypeElement sourceType,
+                             @NonNull Class<? extends Processor> processorClass) {
+        super(classPackage, className, sourceType, processorClass);
+        // Private members must not hide the methods of the interface.
+        int index = 0;
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            names.newName(method.getName(), method);
+            indexes.put(method, index++);
+        }
+        methodNamesName = names.newName("METHOD_NAMES");
+        bucketsName = names.newName("BUCKETS");
+        callsName = names.newName("CALLS");
+        errorsName = names.newName("ERRORS");
+        totalNanosName = names.newName("TOTAL_NANOS");
+        firstBucketName = names.newName("FIRST_BUCKET");
+        slotsName = names.newName("SLOTS");
+        stripesName = names.newName("STRIPES");
+        strideName = names.newName("STRIDE");
+        countersName = names.newName("counters");
+        recordCallName = names.newName("recordCall");
+        recordErrorName = names.newName("recordError");
+        offsetName = names.newName("offset");
+        bucketName = names.newName("bucket");
+        countStripesName = names.newName("countStripes");
+        snapshotType = ClassName.get(classPackage, className, SNAPSHOT_CLASS_NAME);
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        result.addField(createMethodNames());
+        result.addField(createConstant(bucketsName, CodeBlock.builder().add("$L", BUCKETS).build()));
+        result.addField(createConstant(callsName, CodeBlock.builder().add("0").build()));
+        result.addField(createConstant(errorsName, CodeBlock.builder().add("1").build()));
+        result.addField(createConstant(totalNanosName, CodeBlock.builder().add("2").build()));
+        result.addField(createConstant(firstBucketName, CodeBlock.builder().add("3").build()));
+        result.addField(createConstant(slotsName,
+                                       CodeBlock.builder().add("$N + $N", firstBucketName, bucketsName).build()));
+        result.addField(createConstant(stripesName, CodeBlock.builder().add("$N()", countStripesName).build()));
+        // The padding keeps the counters of two stripes on different cache lines.
+        result.addField(createConstant(strideName,
+                                       CodeBlock.builder()
+                                                .add("$N.length * $N + $L", methodNamesName, slotsName, PADDING)
+                                                .build()));
+        result.addField(FieldSpec.builder(AtomicLongArray.class, countersName, Modifier.PRIVATE, Modifier.FINAL)
+                                 .initializer("new $T($N * $N)", AtomicLongArray.class, stripesName, strideName)
+                                 .build());
+        result.addMethod(createSnapshot());
+        result.addMethod(createRecordCall());
+        result.addMethod(createRecordError());
+        result.addMethod(createOffset());
+        result.addMethod(createBucket());
+        result.addMethod(createCountStripes());
+        result.addType(createSnapshotClass());
+    }
+
+    @NonNull
+    private static FieldSpec createConstant(String name, CodeBlock value) {
+        return FieldSpec.builder(TypeName.INT, name, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer(value)
+                        .build();
+    }
+
+    /**
+     * The methods are named after their signature, so that overloads can be told apart.
+     */
+    @NonNull
+    private FieldSpec createMethodNames() {
+        final CodeBlock.Builder initializer = CodeBlock.builder().add("{");
+        boolean first = true;
+        for (InterfaceMethod method : getSourceModel().getMethods()) {
+            initializer.add(first ? " $S" : ", $S", describe(method));
+            first = false;
+        }
+        initializer.add(first ? "}" : " }");
+        return FieldSpec.builder(ArrayTypeName.of(String.class),
+                                 methodNamesName,
+                                 Modifier.PRIVATE,
+                                 Modifier.STATIC,
+                                 Modifier.FINAL).initializer(initializer.build()).build();
+    }
+
+    @NonNull
+    private static String describe(InterfaceMethod method) {
+        final StringBuilder result = new StringBuilder(method.getName()).append('(');
+        boolean first = true;
+        for (ParameterSpec parameter : method.getParameters()) {
+            if (!first) result.append(", ");
+            result.append(parameter.type);
+            first = false;
+        }
+        return result.append(')').toString();
+    }
+
+    @NonNull
+    private MethodSpec createSnapshot() {
+        final String snapshot = "result";
+        final String method = "method";
+        final String values = "values";
+        final String stripe = "stripe";
+        final String slot = "slot";
+        final String offset = "offset";
+        return MethodSpec.methodBuilder(SNAPSHOT_METHOD_NAME)
+                         .addJavadoc("@return the measures of each method. It does not wait for the calls in "
+                                     + "progress.\n")
+                         .addModifiers(Modifier.PUBLIC)
+                         .returns(ParameterizedTypeName.get(ClassName.get(List.class), snapshotType))
+                         .addStatement("final $T<$T> $N = new $T<>($N.length)",
+                                       List.class,
+                                       snapshotType,
+                                       snapshot,
+                                       ArrayList.class,
+                                       methodNamesName)
+                         .beginControlFlow("for (int $N = 0; $N < $N.length; $N++)",
+                                           method,
+                                           method,
+                                           methodNamesName,
+                                           method)
+                         .addStatement("final long[] $N = new long[$N]", values, slotsName)
+                         .beginControlFlow("for (int $N = 0; $N < $N; $N++)", stripe, stripe, stripesName, stripe)
+                         .addStatement("final int $N = $N * $N + $N * $N",
+                                       offset,
+                                       stripe,
+                                       strideName,
+                                       method,
+                                       slotsName)
+                         .beginControlFlow("for (int $N = 0; $N < $N; $N++)", slot, slot, slotsName, slot)
+                         .addStatement("$N[$N] += $N.get($N + $N)", values, slot, countersName, offset, slot)
+                         .endControlFlow()
+                         .endControlFlow()
+                         .addStatement("$N.add(new $T($N[$N], $N))",
+                                       snapshot,
+                                       snapshotType,
+                                       methodNamesName,
+                                       method,
+                                       values)
+                         .endControlFlow()
+                         .addStatement("return $N", snapshot)
+                         .build();
+    }
+
+    @NonNull
+    private MethodSpec createRecordCall() {
+        return MethodSpec.methodBuilder(recordCallName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .addParameter(TypeName.INT, "method")
+                         .addParameter(TypeName.LONG, "nanos")
+                         .addStatement("final int offset = $N(method)", offsetName)
+                         .addStatement("$N.incrementAndGet(offset + $N)", countersName, callsName)
+                         .addStatement("$N.addAndGet(offset + $N, nanos)", countersName, totalNanosName)
+                         .addStatement("$N.incrementAndGet(offset + $N + $N(nanos))",
+                                       countersName,
+                                       firstBucketName,
+                                       bucketName)
+                         .build();
+    }
+
+    @NonNull
+    private MethodSpec createRecordError() {
+        return MethodSpec.methodBuilder(recordErrorName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .addParameter(TypeName.INT, "method")
+                         .addStatement("$N.incrementAndGet($N(method) + $N)", countersName, offsetName, errorsName)
+                         .build();
+    }
+
+    /**
+     * Thread ids are allocated in sequence, so consecutive threads use different stripes.
+     */
+    @NonNull
+    private MethodSpec createOffset() {
+        return MethodSpec.methodBuilder(offsetName)
+                         .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                         .returns(TypeName.INT)
+                         .addParameter(TypeName.INT, "method")
+                         .addStatement("final int stripe = (int)($T.currentThread().getId() & ($N - 1))",
+                                       Thread.class,
+                                       stripesName)
+                         .addStatement("return stripe * $N + method * $N", strideName, slotsName)
+                         .build();
+    }
+
+    /**
+     * Bucket <code>i</code> holds the durations of <code>i</code> significant bits, the last one all the longer ones.
+     */
+    @NonNull
+    private MethodSpec createBucket() {
+        return MethodSpec.methodBuilder(bucketName)
+                         .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                         .returns(TypeName.INT)
+                         .addParameter(TypeName.LONG, "nanos")
+                         .addStatement("return $T.min($N - 1, 64 - $T.numberOfLeadingZeros(nanos))",
+                                       Math.class,
+                                       bucketsName,
+                                       Long.class)
+                         .build();
+    }
+
+    @NonNull
+    private MethodSpec createCountStripes() {
+        return MethodSpec.methodBuilder(countStripesName)
+                         .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                         .returns(TypeName.INT)
+                         .addStatement("final int processors = $T.min(64, $T.getRuntime().availableProcessors())",
+                                       Math.class,
+                                       Runtime.class)
+                         .addStatement("return $T.highestOneBit(processors * 2 - 1)", Integer.class)
+                         .build();
+    }
+
+    @NonNull
+    private TypeSpec createSnapshotClass() {
+        final TypeName longArray = ArrayTypeName.of(TypeName.LONG);
+        return TypeSpec.classBuilder(SNAPSHOT_CLASS_NAME)
+                       .addJavadoc("Measures of a method, taken at once.\n")
+                       .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                       .addField(String.class, "name", Modifier.PRIVATE, Modifier.FINAL)
+                       .addField(longArray, "values", Modifier.PRIVATE, Modifier.FINAL)
+                       .addMethod(MethodSpec.constructorBuilder()
+                                            .addModifiers(Modifier.PRIVATE)
+                                            .addParameter(String.class, "name")
+                                            .addParameter(longArray, "values")
+                                            .addStatement("this.name = name")
+                                            .addStatement("this.values = values")
+                                            .build())
+                       .addMethod(createGetter(ClassName.get(String.class), "getName", "name"))
+                       .addMethod(createGetter(TypeName.LONG, "getCallCount", "values[" + callsName + "]"))
+                       .addMethod(createGetter(TypeName.LONG, "getErrorCount", "values[" + errorsName + "]"))
+                       .addMethod(createGetter(TypeName.LONG, "getTotalNanos", "values[" + totalNanosName + "]"))
+                       .addMethod(MethodSpec.methodBuilder("getBucketCount")
+                                            .addJavadoc("@return the number of calls that took less than "
+                                                        + "<code>2^bucket</code> nanoseconds, and at least half of "
+                                                        + "that.\n")
+                                            .addModifiers(Modifier.PUBLIC)
+                                            .returns(TypeName.LONG)
+                                            .addParameter(TypeName.INT, "bucket")
+                                            .addStatement("return values[$N + bucket]", firstBucketName)
+                                            .build())
+                       .addMethod(createGetter(TypeName.INT, "getBuckets", bucketsName))
+                       .addMethod(MethodSpec.methodBuilder("getPercentileNanos")
+                                            .addJavadoc("@param fraction between 0 and 1, e.g. 0.99.\n"
+                                                        + "@return an upper bound of the duration of that fraction of "
+                                                        + "the calls, or 0 if there was no call.\n")
+                                            .addModifiers(Modifier.PUBLIC)
+                                            .returns(TypeName.LONG)
+                                            .addParameter(TypeName.DOUBLE, "fraction")
+                                            .addStatement("final double threshold = fraction * values[$N]",
+                                                          callsName)
+                                            .addStatement("long count = 0")
+                                            .beginControlFlow("for (int bucket = 0; bucket < $N; bucket++)",
+                                                          bucketsName)
+                                            .addStatement("count += values[$N + bucket]", firstBucketName)
+                                            .beginControlFlow("if (count > 0 && count >= threshold)")
+                                            .addStatement("return bucket < $N - 1 ? 1L << bucket : $T.MAX_VALUE",
+                                                          bucketsName,
+                                                          Long.class)
+                                            .endControlFlow()
+                                            .endControlFlow()
+                                            .addStatement("return 0")
+                                            .build())
+                       .build();
+    }
+
+    @NonNull
+    private static MethodSpec createGetter(TypeName type, String methodName, String value) {
+        return MethodSpec.methodBuilder(methodName)
+                         .addModifiers(Modifier.PUBLIC)
+                         .returns(type)
+                         .addStatement("return $L", value)
+                         .build();
+    }
+
+    /**
+     * Every call is recorded with its duration, whether it returned or threw. What it threw is rethrown as is.
+     */
+    @NonNull
+    @Override
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        final MethodSpec.Builder result = method.toBuilder();
+        final NameAllocator locals = method.newNameAllocator();
+        final String start = locals.newName("start");
+        final String error = locals.newName("e");
+        final int index = indexes.get(method);
+        result.addStatement("final long $N = $T.nanoTime()", start, System.class);
+        result.beginControlFlow("try");
+        result.addStatement(method.isVoid() ? "$L" : "return $L", createForwardingCall(method, delegate));
+        result.nextControlFlow("catch ($T $N)", Throwable.class, error);
+        result.addStatement("$N($L)", recordErrorName, index);
+        result.addStatement("throw $N", error);
+        result.nextControlFlow("finally");
+        result.addStatement("$N($L, $T.nanoTime() - $N)", recordCallName, index, System.class, start);
+        result.endControlFlow();
+        return result;
+    }
+}
@@ -0,0 +1,61 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.Collections;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+final class InstrumentedProcessingStep extends GenerationStep {
+
+    private static final String INSTRUMENTED_CLASS_PREFIX = "Instrumented";
+
+    public InstrumentedProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+    }
+
+    @NonNull
+    protected Class<Instrumented> getSupportedAnnotation() {
+        return Instrumented.class;
+    }
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link Instrumented} annotation.
+     */
+    protected boolean validate(Element element) {
+        return validateAnnotatedIsInterface(element);
+    }
+
+    /**
+     * The snapshot method of the generated class must not clash with the methods of the interface. Its nested
+     * snapshot class needs no check, as the types of the interface named as it are written qualified.
+     */
+    @Override
+    protected boolean validateModel(EnrichedTypeElement element) {
+        return validateNoClash(element, Collections.singletonList(InstrumentedClass.SNAPSHOT_METHOD_NAME));
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated class.
+     */
+    @Override
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
+        final Instrumented annotation = element.getAnnotation(getSupportedAnnotation());
+        final Pair<String, String> packageAndClassName = calculatePackageAndClassName(element,
+                                                                                      annotation.value(),
+                                                                                      INSTRUMENTED_CLASS_PREFIX);
+        return new InstrumentedClass(packageAndClassName.getLeft(),
+                                     packageAndClassName.getRight(),
+                                     element,
+                                     processorClass);
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+
+import java.util.List;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.type.TypeKind;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * A method of an annotated interface, analysed once and shared by all the generators of that interface.
+ */
+final class InterfaceMethod {
+
+    private final ExecutableElement element;
+    private final MethodSpec signature;
+    private final String argumentList;
+    private final TypeKind returnKind;
+
+    public InterfaceMethod(@NonNull ExecutableElement element, @NonNull MethodSpec signature) {
+        this.element = notNull(element);
+        this.signature = notNull(signature);
+        this.argumentList = joinParameterNames(signature);
+        this.returnKind = element.getReturnType().getKind();
+    }
+
+    @NonNull
+    private static String joinParameterNames(@NonNull MethodSpec signature) {
+        StringBuilder result = new StringBuilder();
+        for (ParameterSpec parameter : signature.parameters) {
+            if (result.length() > 0) result.append(", ");
+            result.append(parameter.name);
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return the method as declared in the interface or one of its parents. It must only be used on the processor
+     * thread.
+     */
+    @NonNull
+    public ExecutableElement getElement() {
+        return element;
+    }
+
+    /**
+     * @return the overriding signature of the method, resolved against the annotated interface. It has no body.
+     */
+    @NonNull
+    public MethodSpec getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return a new builder for an overriding method, to which the body can be added.
+     */
+    @NonNull
+    public MethodSpec.Builder toBuilder() {
+        return signature.toBuilder();
+    }
+
+    @NonNull
+    public String getName() {
+        return signature.name;
+    }
+
+    /**
+     * @return the return type, resolved against the annotated interface.
+     */
+    @NonNull
+    public TypeName getReturnType() {
+        return signature.returnType;
+    }
+
+    @NonNull
+    public List<ParameterSpec> getParameters() {
+        return signature.parameters;
+    }
+
+    /**
+     * @return a name allocator in which the names of the parameters are already taken, to name local variables.
+     */
+    @NonNull
+    public NameAllocator newNameAllocator() {
+        NameAllocator result = new NameAllocator();
+        for (ParameterSpec parameter : signature.parameters) {
+            result.newName(parameter.name, parameter);
+        }
+        return result;
+    }
+
+    /**
+     * @return the names of the parameters, separated by a comma, as they would be passed to another call.
+     */
+    @NonNull
+    public String getArgumentList() {
+        return argumentList;
+    }
+
+    /**
+     * @return the kind of the return type, as declared.
+     */
+    @NonNull
+    public TypeKind getReturnKind() {
+        return returnKind;
+    }
+
+    public boolean isVoid() {
+        return returnKind == TypeKind.VOID;
+    }
+}
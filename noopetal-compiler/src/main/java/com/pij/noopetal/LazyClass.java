@@ -0,0 +1,147 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+
+import java.util.List;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+/**
+ * Generates a decorator creating the decorated instance on first use, with a supplier declared as a nested interface,
+ * as <code>java.util.function.Supplier</code> is not available before Java 8.
+ * <p>The decorated field is volatile: once set, a call reads it once and forwards. Until then, the creation is
+ * synchronized and checks the field again, so the supplier is called by a single thread.</p>
+ */
+final class LazyClass extends DecorClass {
+
+    private static final String SUPPLIER_CLASS_NAME = "Supplier";
+    private static final String SUPPLIER_PARAMETER_NAME = "supplier";
+
+    private final NameAllocator names = new NameAllocator();
+    private final String supplierName;
+    private final String decoratedName;
+    private final String createName;
+
+    public LazyClass(@NonNull String classPackage, @NonNull String className, @NonNull EnrichedTypeElement sourceType,
+                     @NonNull Class<? extends Processor> processorClass) {
+        super(classPackage, className, sourceType, processorClass);
+        // Members must not hide the methods of the interface.
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            names.newName(method.getName(), method);
+        }
+        supplierName = names.newName("supplier");
+        decoratedName = names.newName("decorated");
+        createName = names.newName("create");
+    }
+
+    @NonNull
+    @Override
+    protected Modifier[] getFieldModifiers() {
+        return new Modifier[]{ Modifier.PRIVATE, Modifier.VOLATILE };
+    }
+
+    /**
+     * The calls are forwarded to the instance returned by the accessor, which creates it if needed.
+     */
+    @NonNull
+    @Override
+    protected CodeBlock getDelegate(@NonNull FieldSpec decorated) {
+        return CodeBlock.builder().add("$N()", decoratedName).build();
+    }
+
+    @NonNull
+    @Override
+    protected MethodSpec createConstructor() {
+        return MethodSpec.constructorBuilder()
+                         .addJavadoc("@param $N creates the decorated instance on first use.\n",
+                                     SUPPLIER_PARAMETER_NAME)
+                         .addModifiers(Modifier.PUBLIC)
+                         .addParameter(ParameterSpec.builder(getSupplierTypeName(),
+                                                             SUPPLIER_PARAMETER_NAME,
+                                                             Modifier.FINAL).addAnnotation(NonNull.class).build())
+                         .addStatement("this.$N = $N", supplierName, SUPPLIER_PARAMETER_NAME)
+                         .build();
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        result.addField(getSupplierTypeName(), supplierName, Modifier.PRIVATE);
+        result.addMethod(createDecoratedAccessor(decorated));
+        result.addMethod(createCreate(decorated));
+        result.addType(createSupplierInterface());
+    }
+
+    /**
+     * The nested interface is static, so it declares its own type variables, named as those of the class.
+     */
+    @NonNull
+    private TypeName getSupplierTypeName() {
+        final ClassName rawType = ClassName.get(getTypePackage(), getTypeName(), SUPPLIER_CLASS_NAME);
+        final List<TypeVariableName> typeVariables = getSourceModel().getTypeVariables();
+        if (typeVariables.isEmpty()) return rawType;
+        return ParameterizedTypeName.get(rawType, typeVariables.toArray(new TypeVariableName[0]));
+    }
+
+    @NonNull
+    private TypeSpec createSupplierInterface() {
+        return TypeSpec.interfaceBuilder(SUPPLIER_CLASS_NAME)
+                       .addJavadoc("Creates the decorated instance.\n")
+                       .addModifiers(Modifier.PUBLIC)
+                       .addTypeVariables(getSourceModel().getTypeVariables())
+                       .addMethod(MethodSpec.methodBuilder("get")
+                                            .addJavadoc("@return the decorated instance, not <code>null</code>.\n")
+                                            .addAnnotation(NonNull.class)
+                                            .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                                            .returns(getDecoratedTypeName())
+                                            .build())
+                       .build();
+    }
+
+    /**
+     * The fast path: a single volatile read once the instance is created.
+     */
+    @NonNull
+    private MethodSpec createDecoratedAccessor(FieldSpec decorated) {
+        final TypeName type = getDecoratedTypeName();
+        return MethodSpec.methodBuilder(decoratedName)
+                         .addModifiers(Modifier.PRIVATE)
+                         .returns(type)
+                         .addStatement("final $T result = this.$N", type, decorated)
+                         .addStatement("return result != null ? result : $N()", createName)
+                         .build();
+    }
+
+    /**
+     * The supplier is only accessed under the lock, and released once the instance is created.
+     */
+    @NonNull
+    private MethodSpec createCreate(FieldSpec decorated) {
+        final TypeName type = getDecoratedTypeName();
+        return MethodSpec.methodBuilder(createName)
+                         .addModifiers(Modifier.PRIVATE, Modifier.SYNCHRONIZED)
+                         .returns(type)
+                         .addStatement("$T result = this.$N", type, decorated)
+                         .beginControlFlow("if (result == null)")
+                         .addStatement("result = this.$N.get()", supplierName)
+                         .addStatement("if (result == null) throw new $T($S)",
+                                       NullPointerException.class,
+                                       "The supplier returned null")
+                         .addStatement("this.$N = result", decorated)
+                         .addStatement("this.$N = null", supplierName)
+                         .endControlFlow()
+                         .addStatement("return result")
+                         .build();
+    }
+}
@@ -0,0 +1,140 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+import static com.pij.noopetal.ClassGenerationUtil.createGeneratedAnnotation;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Generates an implementation of a {@link FactoryInterface factory interface} creating a single instance, on first
+ * use, with another factory. The instance is held in a volatile field, so once created it is returned without
+ * locking. Its creation is guarded by double-checked locking, after which the other factory is released.
+ */
+final class LazyFactoryClass implements GeneratedType {
+
+    private static final String FACTORY_NAME = "factory";
+    private static final String INSTANCE_NAME = "instance";
+
+    private final String classPackage;
+    private final String className;
+    private final Class<? extends Processor> processorClass;
+    private final EnrichedTypeElement sourceType;
+    private final FactoryInterface factoryInterface;
+
+    public LazyFactoryClass(@NonNull String classPackage, @NonNull String className,
+                            @NonNull EnrichedTypeElement sourceType,
+                            @NonNull Class<? extends Processor> processorClass,
+                            @NonNull FactoryInterface factoryInterface) {
+        this.classPackage = notNull(classPackage);
+        this.className = notNull(className);
+        this.processorClass = notNull(processorClass);
+        this.sourceType = notNull(sourceType);
+        this.factoryInterface = notNull(factoryInterface);
+    }
+
+    @Override
+    public TypeElement getSourceType() {
+        return sourceType.getTypeElement();
+    }
+
+    @Override
+    public String getTypeName() {
+        return className;
+    }
+
+    @Override
+    public String getTypePackage() {
+        return classPackage;
+    }
+
+    /**
+     * Only the annotated interface is used.
+     */
+    @NonNull
+    @Override
+    public Collection<? extends Element> getOriginatingElements() {
+        return Collections.singleton(getSourceType());
+    }
+
+    /**
+     * The access modifier is that of the sourceType.
+     */
+    @NonNull
+    @Override
+    public TypeSpec getTypeSpec() {
+        TypeSpec.Builder result = TypeSpec.classBuilder(getTypeName());
+        sourceType.applyAccessModifier(result);
+        sourceType.applyTypeVariables(result);
+        result.addModifiers(Modifier.FINAL);
+        result.addJavadoc(createGeneratedAnnotation(processorClass).toString());
+        result.addJavadoc("\n");
+        result.addSuperinterface(factoryInterface.getInterfaceTypeName());
+
+        result.addField(factoryInterface.getInterfaceTypeName(), FACTORY_NAME, Modifier.PRIVATE);
+        result.addField(getInstanceTypeName(), INSTANCE_NAME, Modifier.PRIVATE, Modifier.VOLATILE);
+
+        result.addMethod(createConstructor());
+        result.addMethod(createCreateMethod());
+
+        return result.build();
+    }
+
+    private TypeName getInstanceTypeName() {
+        return sourceType.getTypeName();
+    }
+
+    @NonNull
+    private MethodSpec createConstructor() {
+        return MethodSpec.constructorBuilder()
+                         .addJavadoc("@param $N creates the instance on first use.\n", FACTORY_NAME)
+                         .addModifiers(Modifier.PUBLIC)
+                         .addParameter(ParameterSpec.builder(factoryInterface.getInterfaceTypeName(),
+                                                             FACTORY_NAME,
+                                                             Modifier.FINAL).addAnnotation(NonNull.class).build())
+                         .addStatement("this.$N = $N", FACTORY_NAME, FACTORY_NAME)
+                         .build();
+    }
+
+    /**
+     * The factory field is only accessed under the lock. It is cleared once the instance is created, so that whatever
+     * it refers to can be collected.
+     */
+    @NonNull
+    private MethodSpec createCreateMethod() {
+        final TypeName instanceType = getInstanceTypeName();
+        return MethodSpec.methodBuilder(factoryInterface.getCreateMethodName())
+                         .addJavadoc("@return the same instance on each call, created on the first one. A "
+                                     + "<code>null</code> instance is not kept.\n")
+                         .addAnnotation(Override.class)
+                         .addModifiers(Modifier.PUBLIC)
+                         .returns(instanceType)
+                         .addStatement("$T result = this.$N", instanceType, INSTANCE_NAME)
+                         .beginControlFlow("if (result == null)")
+                         .beginControlFlow("synchronized (this)")
+                         .addStatement("result = this.$N", INSTANCE_NAME)
+                         .beginControlFlow("if (result == null)")
+                         .addStatement("result = this.$N.$N()", FACTORY_NAME, factoryInterface.getCreateMethodName())
+                         .beginControlFlow("if (result != null)")
+                         .addStatement("this.$N = result", INSTANCE_NAME)
+                         .addStatement("this.$N = null", FACTORY_NAME)
+                         .endControlFlow()
+                         .endControlFlow()
+                         .endControlFlow()
+                         .endControlFlow()
+                         .addStatement("return result")
+                         .build();
+    }
+}
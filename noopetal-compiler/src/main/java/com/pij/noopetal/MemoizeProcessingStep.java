@@ -0,0 +1,66 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.Arrays;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+final class MemoizeProcessingStep extends GenerationStep {
+
+    private static final String MEMOIZE_CLASS_PREFIX = "Memoizing";
+
+    public MemoizeProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+    }
+
+    @NonNull
+    protected Class<Memoize> getSupportedAnnotation() {
+        return Memoize.class;
+    }
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link Memoize} annotation.
+     */
+    protected boolean validate(Element element) {
+        return validateAnnotatedIsInterface(element)
+               && validatePositive(element, "maximumSize", element.getAnnotation(Memoize.class).maximumSize());
+    }
+
+    /**
+     * The counter getters of the generated class must not clash with the methods of the interface.
+     */
+    @Override
+    protected boolean validateModel(EnrichedTypeElement element) {
+        return validateNoClash(element,
+                               Arrays.asList(MemoizingClass.HIT_COUNT_METHOD_NAME,
+                                             MemoizingClass.MISS_COUNT_METHOD_NAME));
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated class.
+     */
+    @Override
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
+        final Memoize annotation = element.getAnnotation(getSupportedAnnotation());
+        final Pair<String, String> packageAndClassName = calculatePackageAndClassName(element,
+                                                                                      annotation.value(),
+                                                                                      MEMOIZE_CLASS_PREFIX);
+        return new MemoizingClass(packageAndClassName.getLeft(),
+                                  packageAndClassName.getRight(),
+                                  element,
+                                  processorClass,
+                                  annotation.maximumSize(),
+                                  annotation.eviction(),
+                                  annotation.expireAfterWriteMillis());
+    }
+
+}
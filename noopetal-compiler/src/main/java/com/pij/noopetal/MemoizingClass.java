@@ -0,0 +1,237 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+import static com.pij.noopetal.ClassGenerationUtil.createSuppressUncheckedAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.isCheckedCast;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Generates a decorator caching the results of the non-void methods in a bounded <code>LinkedHashMap</code>, keyed by
+ * {@link CallKey}. The map is guarded by its own lock, which is released while the decorated object is called.
+ * <p>Without expiry, <code>null</code> results are stored as a constant, so a hit costs a single lookup. With expiry,
+ * results are stored with their expiry time.</p>
+ */
+final class MemoizingClass extends DecorClass {
+
+    // The public methods added to those of the interface.
+    static final String HIT_COUNT_METHOD_NAME = "getHitCount";
+    static final String MISS_COUNT_METHOD_NAME = "getMissCount";
+
+    private static final ClassName MAP = ClassName.get(Map.class);
+    private static final ClassName LINKED_HASH_MAP = ClassName.get(LinkedHashMap.class);
+
+    private final int maximumSize;
+    private final Memoize.Eviction eviction;
+    private final long expireAfterWriteMillis;
+    private final NameAllocator names = new NameAllocator();
+    private final Map<InterfaceMethod, CallKey> keys = new IdentityHashMap<>();
+    private final String cacheName;
+    private final String hitCountName;
+    private final String missCountName;
+    private final String maximumSizeName;
+    private final String expiryName;
+    private final String nullName;
+    private final String entryName;
+
+    public MemoizingClass(@NonNull String classPackage, @NonNull String className,
+                          @NonNull EnrichedTypeElement sourceType, @NonNull Class<? extends Processor> processorClass,
+                          int maximumSize, @NonNull Memoize.Eviction eviction, long expireAfterWriteMillis) {
+        super(classPackage, className, sourceType, processorClass);
+        this.maximumSize = maximumSize;
+        this.eviction = notNull(eviction);
+        this.expireAfterWriteMillis = expireAfterWriteMillis;
+        // Members must neither hide the methods of the interface nor be hidden by their parameters.
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            names.newName(method.getName(), method);
+            for (ParameterSpec parameter : method.getParameters()) {
+                names.newName(parameter.name);
+            }
+        }
+        cacheName = names.newName("cache");
+        hitCountName = names.newName("hitCount");
+        missCountName = names.newName("missCount");
+        maximumSizeName = names.newName("MAXIMUM_SIZE");
+        expiryName = names.newName("EXPIRE_AFTER_WRITE_NANOS");
+        nullName = names.newName("NULL");
+        entryName = names.newName("Entry");
+    }
+
+    private boolean expires() {
+        return expireAfterWriteMillis > 0;
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        result.addField(FieldSpec.builder(TypeName.INT, maximumSizeName, Modifier.PRIVATE, Modifier.STATIC,
+                                          Modifier.FINAL).initializer("$L", maximumSize).build());
+        if (expires()) {
+            result.addField(FieldSpec.builder(TypeName.LONG, expiryName, Modifier.PRIVATE, Modifier.STATIC,
+                                              Modifier.FINAL)
+                                     .initializer("$T.MILLISECONDS.toNanos($LL)", TimeUnit.class, expireAfterWriteMillis)
+                                     .build());
+            result.addType(createEntry());
+        } else {
+            result.addField(FieldSpec.builder(TypeName.OBJECT, nullName, Modifier.PRIVATE, Modifier.STATIC,
+                                              Modifier.FINAL).initializer("new $T()", TypeName.OBJECT).build());
+        }
+        result.addField(createCache());
+        result.addField(TypeName.LONG, hitCountName, Modifier.PRIVATE);
+        result.addField(TypeName.LONG, missCountName, Modifier.PRIVATE);
+        result.addMethod(createCounterGetter(HIT_COUNT_METHOD_NAME, hitCountName));
+        result.addMethod(createCounterGetter(MISS_COUNT_METHOD_NAME, missCountName));
+
+        for (InterfaceMethod method : getSourceModel().getMethods()) {
+            if (!method.isVoid()) getKey(method).addTo(result);
+        }
+    }
+
+    @NonNull
+    private CallKey getKey(InterfaceMethod method) {
+        CallKey result = keys.get(method);
+        if (result == null) {
+            result = new CallKey(method, names);
+            keys.put(method, result);
+        }
+        return result;
+    }
+
+    @NonNull
+    private TypeName getValueType() {
+        return expires() ? ClassName.get("", entryName) : TypeName.OBJECT;
+    }
+
+    @NonNull
+    private FieldSpec createCache() {
+        final TypeName mapType = ParameterizedTypeName.get(MAP, TypeName.OBJECT, getValueType());
+        final TypeName eldestType = ParameterizedTypeName.get(ClassName.get(Map.Entry.class),
+                                                              TypeName.OBJECT,
+                                                              getValueType());
+        final TypeSpec map = TypeSpec.anonymousClassBuilder("16, 0.75f, $L", eviction == Memoize.Eviction.LRU)
+                                     .superclass(ParameterizedTypeName.get(LINKED_HASH_MAP,
+                                                                           TypeName.OBJECT,
+                                                                           getValueType()))
+                                     .addMethod(MethodSpec.methodBuilder("removeEldestEntry")
+                                                          .addAnnotation(Override.class)
+                                                          .addModifiers(Modifier.PROTECTED)
+                                                          .returns(TypeName.BOOLEAN)
+                                                          .addParameter(eldestType, "eldest")
+                                                          .addStatement("return size() > $N", maximumSizeName)
+                                                          .build())
+                                     .build();
+        return FieldSpec.builder(mapType, cacheName, Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("$L", map)
+                        .build();
+    }
+
+    @NonNull
+    private TypeSpec createEntry() {
+        return TypeSpec.classBuilder(entryName)
+                       .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                       .addField(TypeName.OBJECT, "value", Modifier.PRIVATE, Modifier.FINAL)
+                       .addField(TypeName.LONG, "expiresAt", Modifier.PRIVATE, Modifier.FINAL)
+                       .addMethod(MethodSpec.constructorBuilder()
+                                            .addParameter(TypeName.OBJECT, "value")
+                                            .addParameter(TypeName.LONG, "expiresAt")
+                                            .addStatement("this.value = value")
+                                            .addStatement("this.expiresAt = expiresAt")
+                                            .build())
+                       .build();
+    }
+
+    @NonNull
+    private MethodSpec createCounterGetter(String methodName, String field) {
+        return MethodSpec.methodBuilder(methodName)
+                         .addModifiers(Modifier.PUBLIC)
+                         .returns(TypeName.LONG)
+                         .beginControlFlow("synchronized ($N)", cacheName)
+                         .addStatement("return $N", field)
+                         .endControlFlow()
+                         .build();
+    }
+
+    /**
+     * Void methods are forwarded, the results of the other ones are cached.
+     */
+    @NonNull
+    @Override
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        if (method.isVoid()) return super.createOverridingMethod(method, delegate);
+
+        final MethodSpec.Builder result = method.toBuilder();
+        final TypeName returnType = method.getReturnType();
+        if (!isCheckedCast(returnType)) {
+            result.addAnnotation(createSuppressUncheckedAnnotation());
+        }
+        final NameAllocator locals = method.newNameAllocator();
+        final String key = locals.newName("key");
+        final String cached = locals.newName("cached");
+        final String value = locals.newName("result");
+        final TypeName castType = returnType.box();
+
+        result.addStatement("final $T $N = $L", TypeName.OBJECT, key, getKey(method).newInstance());
+        if (expires()) {
+            final String now = locals.newName("now");
+            result.addStatement("final long $N = $T.nanoTime()", now, System.class);
+            result.beginControlFlow("synchronized ($N)", cacheName);
+            result.addStatement("final $N $N = $N.get($N)", entryName, cached, cacheName, key);
+            result.beginControlFlow("if ($N != null && $N.expiresAt - $N > 0)", cached, cached, now);
+            result.addStatement("$N++", hitCountName);
+            result.addStatement("return ($T)$N.value", castType, cached);
+            result.endControlFlow();
+            result.addStatement("$N++", missCountName);
+            result.endControlFlow();
+            result.addStatement("final $T $N = $L", returnType, value, createForwardingCall(method, delegate));
+            result.beginControlFlow("synchronized ($N)", cacheName);
+            result.addStatement("$N.put($N, new $N($N, $T.nanoTime() + $N))",
+                                cacheName,
+                                key,
+                                entryName,
+                                value,
+                                System.class,
+                                expiryName);
+            result.endControlFlow();
+        } else {
+            result.beginControlFlow("synchronized ($N)", cacheName);
+            result.addStatement("final $T $N = $N.get($N)", TypeName.OBJECT, cached, cacheName, key);
+            result.beginControlFlow("if ($N != null)", cached);
+            result.addStatement("$N++", hitCountName);
+            if (returnType.isPrimitive()) {
+                result.addStatement("return ($T)$N", castType, cached);
+            } else {
+                result.addStatement("return $N == $N ? null : ($T)$N", cached, nullName, castType, cached);
+            }
+            result.endControlFlow();
+            result.addStatement("$N++", missCountName);
+            result.endControlFlow();
+            result.addStatement("final $T $N = $L", returnType, value, createForwardingCall(method, delegate));
+            result.beginControlFlow("synchronized ($N)", cacheName);
+            if (returnType.isPrimitive()) {
+                result.addStatement("$N.put($N, $N)", cacheName, key, value);
+            } else {
+                result.addStatement("$N.put($N, $N == null ? $N : $N)", cacheName, key, value, nullName, value);
+            }
+            result.endControlFlow();
+        }
+        result.addStatement("return $N", value);
+        return result;
+    }
+}
@@ -2,36 +2,85 @@ package com.pij.noopetal;
 
 import android.support.annotation.NonNull;
 
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.processing.Processor;
 import javax.lang.model.element.Element;
-import javax.lang.model.element.ElementKind;
-import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.type.DeclaredType;
-import javax.lang.model.util.Types;
 
 import static com.pij.noopetal.ClassGenerationUtil.createGeneratedAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.createSuppressUncheckedAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.createSuppressWarningsAnnotation;
+import static com.pij.noopetal.ClassGenerationUtil.isCheckedCast;
 import static org.apache.commons.lang3.Validate.notNull;
 
 final class NoopClass implements GeneratedType {
 
+    static final String INSTANCE_NAME = "INSTANCE";
+    static final String ACCESSOR_NAME = "instance";
+
+    private static final ClassName OPTIONAL = ClassName.get("java.util", "Optional");
+    private static final Map<ClassName, String> EMPTY_COLLECTIONS = new HashMap<>();
+
+    static {
+        EMPTY_COLLECTIONS.put(ClassName.get(Iterable.class), "emptyList");
+        EMPTY_COLLECTIONS.put(ClassName.get(Collection.class), "emptyList");
+        EMPTY_COLLECTIONS.put(ClassName.get(List.class), "emptyList");
+        EMPTY_COLLECTIONS.put(ClassName.get(Set.class), "emptySet");
+        EMPTY_COLLECTIONS.put(ClassName.get(Map.class), "emptyMap");
+        EMPTY_COLLECTIONS.put(ClassName.get(Iterator.class), "emptyIterator");
+        EMPTY_COLLECTIONS.put(ClassName.get(ListIterator.class), "emptyListIterator");
+        EMPTY_COLLECTIONS.put(ClassName.get(Enumeration.class), "emptyEnumeration");
+    }
+
     private final String classPackage;
     private final String className;
     private final Class<? extends Processor> processorClass;
     private final EnrichedTypeElement sourceType;
-    private final Types types;
 
+    private final boolean extensible;
+    private final Noop.Defaults defaults;
+    private final Map<ClassName, CodeBlock> sharedNoops;
+
+    /**
+     * @param extensible if not set, the class is final and can only be used through its shared instance.
+     * @param sharedNoops the shared instance of the Noop class of the interfaces returned by the methods, if they are
+     * annotated with {@link Noop}. Only used with the {@link Noop.Defaults#EMPTY EMPTY} defaults.
+     */
     public NoopClass(@NonNull String classPackage, @NonNull String className, @NonNull EnrichedTypeElement sourceType,
-                     @NonNull Class<? extends Processor> processorClass, @NonNull Types types) {
+                     @NonNull Class<? extends Processor> processorClass, boolean extensible,
+                     @NonNull Noop.Defaults defaults, @NonNull Map<ClassName, CodeBlock> sharedNoops) {
         this.classPackage = notNull(classPackage);
         this.className = notNull(className);
         this.processorClass = notNull(processorClass);
-        this.types = notNull(types);
         this.sourceType = notNull(sourceType);
+        this.extensible = extensible;
+        this.defaults = notNull(defaults);
+        this.sharedNoops = notNull(sharedNoops);
     }
 
     @Override
@@ -49,6 +98,15 @@ final class NoopClass implements GeneratedType {
         return classPackage;
     }
 
+    /**
+     * The methods implemented are taken from the whole interface hierarchy.
+     */
+    @NonNull
+    @Override
+    public Collection<? extends Element> getOriginatingElements() {
+        return sourceType.getTypeHierarchy();
+    }
+
     /**
      * The access modifier is that of the sourceType.
      */
@@ -61,27 +119,135 @@ final class NoopClass implements GeneratedType {
         result.addJavadoc(createGeneratedAnnotation(processorClass).toString());
         result.addJavadoc("\n");
         result.addSuperinterface(getDecoratedTypeName());
+        if (!extensible) {
+            result.addModifiers(Modifier.FINAL);
+            result.addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+        }
+        addSharedInstance(result);
 
-        for (Element element : sourceType.getAllEnclosedElements()) {
-            if (element.getKind() == ElementKind.METHOD) {
-                MethodSpec method = createOverridingMethod((ExecutableElement)element).build();
-                result.addMethod(method);
-            }
+        final NameAllocator constantNames = new NameAllocator();
+        constantNames.newName(INSTANCE_NAME, INSTANCE_NAME);
+        final Map<TypeName, String> emptyArrays = new LinkedHashMap<>();
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            result.addMethod(createOverridingMethod(method, constantNames, emptyArrays).build());
+        }
+        for (Map.Entry<TypeName, String> emptyArray : emptyArrays.entrySet()) {
+            result.addField(createEmptyArray(emptyArray.getKey(), emptyArray.getValue()));
         }
 
         return result.build();
     }
 
+    /**
+     * The class has no state, so a single instance can be shared. For a generic interface, that instance is raw and
+     * cast by a generic accessor, unless the interface has a method of the same name. The raw type is not reported, so
+     * the generated code compiles without warnings.
+     */
+    private void addSharedInstance(TypeSpec.Builder result) {
+        final ClassName rawType = ClassName.get(classPackage, className);
+        final List<TypeVariableName> typeVariables = sourceType.getTypeVariables();
+        if (typeVariables.isEmpty()) {
+            result.addField(FieldSpec.builder(rawType, INSTANCE_NAME, Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                                     .addJavadoc("Shared instance, the class has no state.\n")
+                                     .initializer("new $T()", rawType)
+                                     .build());
+            return;
+        }
+        result.addField(FieldSpec.builder(rawType, INSTANCE_NAME, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                                 .addAnnotation(createSuppressWarningsAnnotation("rawtypes"))
+                                 .initializer("new $T()", rawType)
+                                 .build());
+        if (hasMethod(ACCESSOR_NAME)) return;
+        final TypeName type = ParameterizedTypeName.get(rawType, typeVariables.toArray(new TypeVariableName[0]));
+        result.addMethod(MethodSpec.methodBuilder(ACCESSOR_NAME)
+                                   .addJavadoc("@return the shared instance, the class has no state.\n")
+                                   .addAnnotation(createSuppressUncheckedAnnotation())
+                                   .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                                   .addTypeVariables(typeVariables)
+                                   .returns(type)
+                                   .addStatement("return ($T)$N", type, INSTANCE_NAME)
+                                   .build());
+    }
+
+    private boolean hasMethod(String name) {
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            if (method.getName().equals(name) && method.getParameters().isEmpty()) return true;
+        }
+        return false;
+    }
+
     private TypeName getDecoratedTypeName() {
-        return TypeName.get(sourceType.asType());
+        return sourceType.getTypeName();
     }
 
-    private MethodSpec.Builder createOverridingMethod(ExecutableElement element) {
-        // TODO fix the cast
-        MethodSpec.Builder result = MethodSpec.overriding(element, (DeclaredType)getSourceType().asType(), types);
-        String literal = ClassGenerationUtil.defaultReturnLiteral(element.getReturnType());
-        if (literal != null) result.addStatement("return $L", literal);
+    private MethodSpec.Builder createOverridingMethod(InterfaceMethod method, NameAllocator constantNames,
+                                                     Map<TypeName, String> emptyArrays) {
+        MethodSpec.Builder result = method.toBuilder();
+        CodeBlock empty = null;
+        if (defaults == Noop.Defaults.EMPTY) {
+            empty = createEmptyValue(method.getReturnType(), constantNames, emptyArrays);
+        }
+        if (empty != null) {
+            result.addStatement("return $L", empty);
+        } else {
+            String literal = ClassGenerationUtil.defaultReturnLiteral(method.getReturnKind());
+            if (literal != null) result.addStatement("return $L", literal);
+        }
         return result;
     }
 
+    /**
+     * Empty arrays are held in constants, shared by the methods returning the same type. The immutable collections
+     * are obtained from generic methods, their type is inferred from the return type.
+     * @return the empty value of the type, or <code>null</code> if it has none.
+     */
+    private CodeBlock createEmptyValue(TypeName type, NameAllocator constantNames, Map<TypeName, String> emptyArrays) {
+        if (type instanceof ArrayTypeName) {
+            if (!isCheckedCast(type)) return null;
+            String constant = emptyArrays.get(type);
+            if (constant == null) {
+                constant = constantNames.newName(createEmptyArrayName(type), type);
+                emptyArrays.put(type, constant);
+            }
+            return CodeBlock.of("$N", constant);
+        }
+        final TypeName rawType = type instanceof ParameterizedTypeName ? ((ParameterizedTypeName)type).rawType : type;
+        if (!(rawType instanceof ClassName)) return null;
+        if (rawType.equals(ClassName.get(String.class)) || rawType.equals(ClassName.get(CharSequence.class))) {
+            return CodeBlock.of("$S", "");
+        }
+        if (EMPTY_COLLECTIONS.containsKey(rawType)) {
+            return CodeBlock.of("$T.$N()", Collections.class, EMPTY_COLLECTIONS.get(rawType));
+        }
+        if (rawType.equals(OPTIONAL)) return CodeBlock.of("$T.empty()", OPTIONAL);
+        return sharedNoops.get(rawType);
+    }
+
+    /**
+     * @return a name such as <code>EMPTY_STRING_ARRAY</code> or <code>EMPTY_INT_ARRAY_ARRAY</code>.
+     */
+    @NonNull
+    private static String createEmptyArrayName(TypeName type) {
+        final StringBuilder suffix = new StringBuilder();
+        while (type instanceof ArrayTypeName) {
+            suffix.append("_ARRAY");
+            type = ((ArrayTypeName)type).componentType;
+        }
+        final String simpleName = type instanceof ClassName ? ((ClassName)type).simpleName() : type.toString();
+        return "EMPTY_" + simpleName.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT) + suffix;
+    }
+
+    @NonNull
+    private static FieldSpec createEmptyArray(TypeName type, String name) {
+        TypeName elementType = type;
+        int dimensions = 0;
+        while (elementType instanceof ArrayTypeName) {
+            elementType = ((ArrayTypeName)elementType).componentType;
+            dimensions++;
+        }
+        return FieldSpec.builder(type, name, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("new $T[0]$L", elementType, StringUtils.repeat("[]", dimensions - 1))
+                        .build();
+    }
+
 }
@@ -2,23 +2,41 @@ package com.pij.noopetal;
 
 import android.support.annotation.NonNull;
 
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
 import javax.lang.model.element.PackageElement;
-import javax.lang.model.util.Types;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
 
 import static com.pij.noopetal.ClassGenerationUtil.extractPackageAndClassName;
+import static javax.lang.model.element.ElementKind.INTERFACE;
+import static org.apache.commons.lang3.Validate.notNull;
 
-final class NoopProcessingStep extends ClassGenerator {
+final class NoopProcessingStep extends GenerationStep {
 
     private static final String NOOP_CLASS_PREFIX = "Noop";
 
-    public NoopProcessingStep(@NonNull Class<? extends Processor> processorClass,
-                              @NonNull ProcessingEnvironment processingEnv) {
-        super(processorClass, processingEnv);
+    private final ProcessingEnvironment processingEnv;
+
+    public NoopProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+        this.processingEnv = notNull(processingEnv);
     }
 
     @NonNull
@@ -37,14 +55,14 @@ final class NoopProcessingStep extends ClassGenerator {
      * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
      * the element's package.
      * @param element annotated interface, assumed valid
-     * @param types   type utility, currently ignored
      * @return a representation of the generated class.
      */
     @Override
-    protected GeneratedType createGeneratedClass(EnrichedTypeElement element, Class<? extends Processor> processorClass,
-                                                 Types types) {
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
 
-        final String specifiedClass = element.getAnnotation(getSupportedAnnotation()).value();
+        final Noop annotation = element.getAnnotation(getSupportedAnnotation());
+        final String specifiedClass = annotation.value();
         final Pair<String, String> packageAndClassName = extractPackageAndClassName(specifiedClass);
         String packageName = packageAndClassName.getLeft();
         if (packageName == null) {
@@ -55,7 +73,80 @@ final class NoopProcessingStep extends ClassGenerator {
         if (className == null) {
             className = element.calculateClassNameWithPrefix(getClassPrefix());
         }
-        return new NoopClass(packageName, className, element, processorClass, types);
+        final Map<ClassName, CodeBlock> sharedNoops = annotation.defaults() == Noop.Defaults.EMPTY
+                                                      ? findSharedNoops(element.getMethods())
+                                                      : Collections.<ClassName, CodeBlock>emptyMap();
+        return new NoopClass(packageName,
+                             className,
+                             element,
+                             processorClass,
+                             annotation.extensible(),
+                             annotation.defaults(),
+                             sharedNoops);
+    }
+
+    /**
+     * Looks for the methods returning an interface annotated with {@link Noop}. They can return the shared instance of
+     * its Noop class. Done on the processor thread, as it uses the compiler model.
+     * @return the expression of the shared instance, for each interface.
+     */
+    @NonNull
+    private Map<ClassName, CodeBlock> findSharedNoops(List<InterfaceMethod> methods) {
+        final Map<ClassName, CodeBlock> result = new HashMap<>();
+        for (InterfaceMethod method : methods) {
+            final TypeMirror returnType = method.getElement().getReturnType();
+            if (returnType.getKind() != TypeKind.DECLARED) continue;
+            final TypeElement returned = (TypeElement)((DeclaredType)returnType).asElement();
+            final Noop annotation = returned.getAnnotation(Noop.class);
+            if (returned.getKind() != INTERFACE || annotation == null) continue;
+            final ClassName returnedName = ClassName.get(returned);
+            if (result.containsKey(returnedName)) continue;
+            final ClassName noopName = calculateNoopClassName(returned, annotation);
+            if (returned.getTypeParameters().isEmpty()) {
+                result.put(returnedName, CodeBlock.of("$T.$N", noopName, NoopClass.INSTANCE_NAME));
+            } else if (!hasAccessorMethod(returned)) {
+                result.put(returnedName, CodeBlock.of("$T.$N()", noopName, NoopClass.ACCESSOR_NAME));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same naming as {@link #createGeneratedClass(EnrichedTypeElement, Class)}, for an interface that is not analysed.
+     */
+    @NonNull
+    private ClassName calculateNoopClassName(TypeElement type, Noop annotation) {
+        final Pair<String, String> packageAndClassName = extractPackageAndClassName(annotation.value());
+        String packageName = packageAndClassName.getLeft();
+        if (packageName == null) {
+            packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        }
+        String className = packageAndClassName.getRight();
+        if (className == null) {
+            final List<String> simpleNames = ClassName.get(type).simpleNames();
+            final StringBuilder name = new StringBuilder();
+            for (String enclosing : simpleNames.subList(0, simpleNames.size() - 1)) {
+                name.append(enclosing).append('_');
+            }
+            className = name.append(getClassPrefix()).append(simpleNames.get(simpleNames.size() - 1)).toString();
+        }
+        return ClassName.get(packageName, className);
+    }
+
+    /**
+     * @return <code>true</code> if the Noop class of the interface has no generic accessor, as the interface has a
+     * method of that name.
+     */
+    private boolean hasAccessorMethod(TypeElement type) {
+        final List<? extends Element> members = processingEnv.getElementUtils().getAllMembers(type);
+        for (ExecutableElement member : ElementFilter.methodsIn(members)) {
+            if (member.getSimpleName().contentEquals(NoopClass.ACCESSOR_NAME)
+                && member.getParameters().isEmpty()
+                && !member.getModifiers().contains(Modifier.STATIC)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @NonNull
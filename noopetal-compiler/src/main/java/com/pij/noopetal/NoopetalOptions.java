@@ -0,0 +1,75 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.processing.ProcessingEnvironment;
+
+import static javax.tools.Diagnostic.Kind.WARNING;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Options of the processor, passed to javac as <code>-A&lt;name&gt;=&lt;value&gt;</code>.
+ */
+final class NoopetalOptions {
+
+    /**
+     * Number of threads building the generated types. The default, 1, builds them on the processor thread.
+     */
+    static final String PARALLELISM = "noopetal.parallelism";
+    /**
+     * Where to emit the statistics of each round: <code>note</code> for a summary printed as a compiler note,
+     * <code>report</code> for a properties file in the class output. Not emitted by default.
+     */
+    static final String STATS = "noopetal.stats";
+
+    private final ProcessingEnvironment processingEnv;
+
+    public NoopetalOptions(@NonNull ProcessingEnvironment processingEnv) {
+        this.processingEnv = notNull(processingEnv);
+    }
+
+    /**
+     * @return the {@link #PARALLELISM} option, at least 1.
+     */
+    public int getParallelism() {
+        final String value = getOptions().get(PARALLELISM);
+        if (value == null) return 1;
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            warning("Ignoring option %s: %s is not a number", PARALLELISM, value);
+            return 1;
+        }
+    }
+
+    /**
+     * @return the {@link #STATS} option, {@link StatsOutput#NONE} if absent or invalid.
+     */
+    @NonNull
+    public StatsOutput getStatsOutput() {
+        final String value = getOptions().get(STATS);
+        if (value == null) return StatsOutput.NONE;
+        try {
+            return StatsOutput.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            warning("Ignoring option %s: %s is neither note nor report", STATS, value);
+            return StatsOutput.NONE;
+        }
+    }
+
+    @NonNull
+    private Map<String, String> getOptions() {
+        return processingEnv.getOptions();
+    }
+
+    private void warning(String message, Object... args) {
+        processingEnv.getMessager().printMessage(WARNING, String.format(message, args));
+    }
+
+    enum StatsOutput {
+        NONE, NOTE, REPORT
+    }
+}
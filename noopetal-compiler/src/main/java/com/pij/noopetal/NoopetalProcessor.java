@@ -4,11 +4,14 @@ import com.google.auto.common.BasicAnnotationProcessor;
 import com.google.auto.service.AutoService;
 
 import java.util.Arrays;
+import java.util.Collections;
 
 import javax.annotation.processing.Processor;
+import javax.annotation.processing.SupportedOptions;
 import javax.lang.model.SourceVersion;
 
 @AutoService(Processor.class)
+@SupportedOptions({ NoopetalOptions.PARALLELISM, NoopetalOptions.STATS })
 public final class NoopetalProcessor extends BasicAnnotationProcessor {
 
     @Override
@@ -18,9 +21,23 @@ public final class NoopetalProcessor extends BasicAnnotationProcessor {
 
     @Override
     protected Iterable<? extends ProcessingStep> initSteps() {
-        return Arrays.asList(new NoopProcessingStep(getClass(), processingEnv),
-                             new DecorProcessingStep(getClass(), processingEnv),
-                             new FactoryProcessingStep(getClass(), processingEnv));
+        return Collections.singleton(new ClassGenerator(getClass(),
+                                                        processingEnv,
+                                                        Arrays.asList(new NoopProcessingStep(processingEnv),
+                                                                      new DecorProcessingStep(processingEnv),
+                                                                      new FactoryProcessingStep(processingEnv),
+                                                                      new MemoizeProcessingStep(processingEnv),
+                                                                      new InstrumentedProcessingStep(processingEnv),
+                                                                      new BatchProcessingStep(processingEnv),
+                                                                      new AsyncFacadeProcessingStep(processingEnv),
+                                                                      new CompositeProcessingStep(processingEnv),
+                                                                      new LazyProcessingStep(processingEnv),
+                                                                      new CoalesceProcessingStep(processingEnv),
+                                                                      new BatchLoaderProcessingStep(processingEnv),
+                                                                      new ActorProcessingStep(processingEnv),
+                                                                      new GuardedProcessingStep(processingEnv),
+                                                                      new StripedProcessingStep(processingEnv)),
+                                                        new NoopetalOptions(processingEnv)));
     }
 
 }
@@ -0,0 +1,355 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+import static com.pij.noopetal.ClassGenerationUtil.createGeneratedAnnotation;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Generates an implementation of a {@link FactoryInterface factory interface} reusing the instances released to it.
+ * The instances are held in bounded queues, which do not allocate when used: one for the {@link Factory.Pool#BOUNDED
+ * BOUNDED} pool, one per stripe of threads for the {@link Factory.Pool#STRIPED STRIPED} pool, and an
+ * <code>ArrayDeque</code> per thread for the {@link Factory.Pool#THREAD_LOCAL THREAD_LOCAL} pool.
+ * <p>The hits and misses are counted in an <code>AtomicLongArray</code>, each stripe of threads on its own cache
+ * line.</p>
+ */
+final class PoolingFactoryClass implements GeneratedType {
+
+    private static final String POOL_SIZE_NAME = "POOL_SIZE";
+    private static final String STRIPES_NAME = "STRIPES";
+    private static final String STRIDE_NAME = "STRIDE";
+    private static final String FACTORY_NAME = "factory";
+    private static final String COUNTERS_NAME = "counters";
+    private static final String POOL_NAME = "pool";
+    private static final String POOLS_NAME = "pools";
+    private static final String STRIPE_NAME = "stripe";
+    private static final String COUNT_STRIPES_NAME = "countStripes";
+    private static final String RESET_NAME = "reset";
+    private static final String INSTANCE_NAME = "instance";
+
+    private final String classPackage;
+    private final String className;
+    private final Class<? extends Processor> processorClass;
+    private final EnrichedTypeElement sourceType;
+    private final FactoryInterface factoryInterface;
+    private final Factory.Pool pool;
+    private final int poolSize;
+
+    public PoolingFactoryClass(@NonNull String classPackage, @NonNull String className,
+                               @NonNull EnrichedTypeElement sourceType,
+                               @NonNull Class<? extends Processor> processorClass,
+                               @NonNull FactoryInterface factoryInterface, @NonNull Factory.Pool pool, int poolSize) {
+        this.classPackage = notNull(classPackage);
+        this.className = notNull(className);
+        this.processorClass = notNull(processorClass);
+        this.sourceType = notNull(sourceType);
+        this.factoryInterface = notNull(factoryInterface);
+        this.pool = notNull(pool);
+        isTrue(pool != Factory.Pool.NONE, "A pooling factory needs a pool");
+        this.poolSize = poolSize;
+    }
+
+    @Override
+    public TypeElement getSourceType() {
+        return sourceType.getTypeElement();
+    }
+
+    @Override
+    public String getTypeName() {
+        return className;
+    }
+
+    @Override
+    public String getTypePackage() {
+        return classPackage;
+    }
+
+    /**
+     * Only the annotated interface is used.
+     */
+    @NonNull
+    @Override
+    public Collection<? extends Element> getOriginatingElements() {
+        return Collections.singleton(getSourceType());
+    }
+
+    /**
+     * The access modifier is that of the sourceType. The class is not final, so that {@link #RESET_NAME reset} can be
+     * overridden.
+     */
+    @NonNull
+    @Override
+    public TypeSpec getTypeSpec() {
+        TypeSpec.Builder result = TypeSpec.classBuilder(getTypeName());
+        sourceType.applyAccessModifier(result);
+        sourceType.applyTypeVariables(result);
+        result.addJavadoc(createGeneratedAnnotation(processorClass).toString());
+        result.addJavadoc("\n");
+        result.addSuperinterface(factoryInterface.getInterfaceTypeName());
+
+        result.addField(createConstant(POOL_SIZE_NAME, String.valueOf(poolSize)));
+        result.addField(createConstant(STRIPES_NAME, COUNT_STRIPES_NAME + "()"));
+        // The padding keeps the counters of two stripes on different cache lines.
+        result.addField(createConstant(STRIDE_NAME, "16"));
+        result.addField(factoryInterface.getInterfaceTypeName(), FACTORY_NAME, Modifier.PRIVATE, Modifier.FINAL);
+        result.addField(FieldSpec.builder(AtomicLongArray.class, COUNTERS_NAME, Modifier.PRIVATE, Modifier.FINAL)
+                                 .initializer("new $T($N * $N)", AtomicLongArray.class, STRIPES_NAME, STRIDE_NAME)
+                                 .build());
+        result.addField(createPoolField());
+
+        result.addMethod(createConstructor());
+        result.addMethod(createCreateMethod());
+        result.addMethod(createRelease());
+        result.addMethod(createReset());
+        result.addMethod(createCountGetter("getHitCount", 0, "@return how many instances were taken from the pool."));
+        result.addMethod(createCountGetter("getMissCount",
+                                           1,
+                                           "@return how many instances were created, the pool being empty."));
+        result.addMethod(createPoolGetter());
+        result.addMethod(createStripe());
+        result.addMethod(createCountStripes());
+
+        return result.build();
+    }
+
+    private TypeName getInstanceTypeName() {
+        return sourceType.getTypeName();
+    }
+
+    private TypeName getQueueTypeName() {
+        return ParameterizedTypeName.get(ClassName.get(Queue.class), getInstanceTypeName());
+    }
+
+    @NonNull
+    private static FieldSpec createConstant(String name, String value) {
+        return FieldSpec.builder(TypeName.INT, name, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$L", value)
+                        .build();
+    }
+
+    /**
+     * The pools of the stripes are created by the constructor.
+     */
+    @NonNull
+    private FieldSpec createPoolField() {
+        final TypeName instanceType = getInstanceTypeName();
+        switch (pool) {
+            case BOUNDED:
+                return FieldSpec.builder(getQueueTypeName(), POOL_NAME, Modifier.PRIVATE, Modifier.FINAL)
+                                .initializer("new $T<>($N)", ArrayBlockingQueue.class, POOL_SIZE_NAME)
+                                .build();
+            case STRIPED:
+                return FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(List.class), getQueueTypeName()),
+                                         POOLS_NAME,
+                                         Modifier.PRIVATE,
+                                         Modifier.FINAL)
+                                .initializer("new $T<>($N)", ArrayList.class, STRIPES_NAME)
+                                .build();
+            default:
+                final TypeName dequeType = ParameterizedTypeName.get(ClassName.get(ArrayDeque.class), instanceType);
+                final TypeSpec threadLocal = TypeSpec.anonymousClassBuilder("")
+                                                     .addSuperinterface(ParameterizedTypeName.get(ClassName.get(
+                                                             ThreadLocal.class), dequeType))
+                                                     .addMethod(MethodSpec.methodBuilder("initialValue")
+                                                                          .addAnnotation(Override.class)
+                                                                          .addModifiers(Modifier.PROTECTED)
+                                                                          .returns(dequeType)
+                                                                          .addStatement("return new $T($N)",
+                                                                                        dequeType,
+                                                                                        POOL_SIZE_NAME)
+                                                                          .build())
+                                                     .build();
+                return FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(ThreadLocal.class), dequeType),
+                                         POOL_NAME,
+                                         Modifier.PRIVATE,
+                                         Modifier.FINAL)
+                                .initializer("$L", threadLocal)
+                                .build();
+        }
+    }
+
+    /**
+     * The pool is shared as equally as possible between the stripes, so their sizes sum to the pool size.
+     */
+    @NonNull
+    private MethodSpec createConstructor() {
+        final MethodSpec.Builder result = MethodSpec.constructorBuilder()
+                                                    .addJavadoc("@param $N creates the instances when the pool is "
+                                                                + "empty.\n", FACTORY_NAME)
+                                                    .addModifiers(Modifier.PUBLIC)
+                                                    .addParameter(ParameterSpec.builder(factoryInterface
+                                                                                                .getInterfaceTypeName(),
+                                                                                        FACTORY_NAME,
+                                                                                        Modifier.FINAL)
+                                                                               .addAnnotation(NonNull.class)
+                                                                               .build())
+                                                    .addStatement("this.$N = $N", FACTORY_NAME, FACTORY_NAME);
+        if (pool == Factory.Pool.STRIPED) {
+            result.beginControlFlow("for (int i = 0; i < $N; i++)", STRIPES_NAME);
+            result.addStatement("this.$N.add(new $T<$T>($N / $N + (i < $N % $N ? 1 : 0)))",
+                                POOLS_NAME,
+                                ArrayBlockingQueue.class,
+                                getInstanceTypeName(),
+                                POOL_SIZE_NAME,
+                                STRIPES_NAME,
+                                POOL_SIZE_NAME,
+                                STRIPES_NAME);
+            result.endControlFlow();
+        }
+        return result.build();
+    }
+
+    @NonNull
+    private MethodSpec createCreateMethod() {
+        final TypeName instanceType = getInstanceTypeName();
+        return MethodSpec.methodBuilder(factoryInterface.getCreateMethodName())
+                         .addJavadoc("@return an instance from the pool if there is one, otherwise a new one.\n")
+                         .addAnnotation(Override.class)
+                         .addModifiers(Modifier.PUBLIC)
+                         .returns(instanceType)
+                         .addStatement("final int offset = $N() * $N", STRIPE_NAME, STRIDE_NAME)
+                         .addStatement("final $T pooled = $N().poll()", instanceType, POOL_NAME)
+                         .beginControlFlow("if (pooled != null)")
+                         .addStatement("$N.incrementAndGet(offset)", COUNTERS_NAME)
+                         .addStatement("return pooled")
+                         .endControlFlow()
+                         .addStatement("$N.incrementAndGet(offset + 1)", COUNTERS_NAME)
+                         .addStatement("return $N.$N()", FACTORY_NAME, factoryInterface.getCreateMethodName())
+                         .build();
+    }
+
+    /**
+     * The queues of the shared pools are bounded, the <code>ArrayDeque</code> of a thread is not.
+     */
+    @NonNull
+    private MethodSpec createRelease() {
+        final MethodSpec.Builder result = MethodSpec.methodBuilder("release")
+                                                    .addJavadoc("Resets an instance and returns it to the pool. It is "
+                                                                + "dropped if the pool is full.\nThe instance must not "
+                                                                + "be used after being released.\n")
+                                                    .addModifiers(Modifier.PUBLIC)
+                                                    .addParameter(createInstanceParameter())
+                                                    .addStatement("$N($N)", RESET_NAME, INSTANCE_NAME);
+        if (pool == Factory.Pool.THREAD_LOCAL) {
+            result.addStatement("final $T pooled = $N()", getQueueTypeName(), POOL_NAME);
+            result.addStatement("if (pooled.size() < $N) pooled.offer($N)", POOL_SIZE_NAME, INSTANCE_NAME);
+        } else {
+            result.addStatement("$N().offer($N)", POOL_NAME, INSTANCE_NAME);
+        }
+        return result.build();
+    }
+
+    @NonNull
+    private MethodSpec createReset() {
+        return MethodSpec.methodBuilder(RESET_NAME)
+                         .addJavadoc("Called on each released instance before it is pooled, to clear its state. Does "
+                                     + "nothing by default.\n")
+                         .addModifiers(Modifier.PROTECTED)
+                         .addParameter(createInstanceParameter())
+                         .build();
+    }
+
+    @NonNull
+    private ParameterSpec createInstanceParameter() {
+        return ParameterSpec.builder(getInstanceTypeName(), INSTANCE_NAME, Modifier.FINAL)
+                            .addAnnotation(NonNull.class)
+                            .build();
+    }
+
+    /**
+     * Sums the counter of all the stripes. It does not wait for the calls in progress.
+     */
+    @NonNull
+    private MethodSpec createCountGetter(String name, int slot, String javadoc) {
+        return MethodSpec.methodBuilder(name)
+                         .addJavadoc(javadoc + "\n")
+                         .addModifiers(Modifier.PUBLIC)
+                         .returns(TypeName.LONG)
+                         .addStatement("long result = 0")
+                         .beginControlFlow("for (int i = 0; i < $N; i++)", STRIPES_NAME)
+                         .addStatement("result += $N.get(i * $N + $L)", COUNTERS_NAME, STRIDE_NAME, slot)
+                         .endControlFlow()
+                         .addStatement("return result")
+                         .build();
+    }
+
+    @NonNull
+    private MethodSpec createPoolGetter() {
+        final MethodSpec.Builder result = MethodSpec.methodBuilder(POOL_NAME)
+                                                    .addModifiers(Modifier.PRIVATE)
+                                                    .returns(getQueueTypeName());
+        switch (pool) {
+            case BOUNDED:
+                result.addStatement("return $N", POOL_NAME);
+                break;
+            case STRIPED:
+                result.addStatement("return $N.get($N())", POOLS_NAME, STRIPE_NAME);
+                break;
+            default:
+                result.addStatement("return $N.get()", POOL_NAME);
+        }
+        return result.build();
+    }
+
+    /**
+     * Thread ids are allocated in sequence, so consecutive threads use different stripes.
+     */
+    @NonNull
+    private MethodSpec createStripe() {
+        return MethodSpec.methodBuilder(STRIPE_NAME)
+                         .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                         .returns(TypeName.INT)
+                         .addStatement("return (int)($T.currentThread().getId() & ($N - 1))",
+                                       Thread.class,
+                                       STRIPES_NAME)
+                         .build();
+    }
+
+    /**
+     * A striped pool has no more stripes than instances, so each stripe holds at least one.
+     */
+    @NonNull
+    private MethodSpec createCountStripes() {
+        final CodeBlock stripes = pool == Factory.Pool.STRIPED
+                                  ? CodeBlock.builder()
+                                             .add("$T.min(stripes, $T.highestOneBit($N))",
+                                                  Math.class,
+                                                  Integer.class,
+                                                  POOL_SIZE_NAME)
+                                             .build()
+                                  : CodeBlock.builder().add("stripes").build();
+        return MethodSpec.methodBuilder(COUNT_STRIPES_NAME)
+                         .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                         .returns(TypeName.INT)
+                         .addStatement("final int processors = $T.min(64, $T.getRuntime().availableProcessors())",
+                                       Math.class,
+                                       Runtime.class)
+                         .addStatement("final int stripes = $T.highestOneBit(processors * 2 - 1)", Integer.class)
+                         .addStatement("return $L", stripes)
+                         .build();
+    }
+}
@@ -0,0 +1,183 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Timings and counters of one processing round of {@link ClassGenerator}, broken down by {@link GenerationStep}.
+ * <p>Only the building of the files may run on other threads, so only its counters are atomic.</p>
+ */
+final class ProcessingStats {
+
+    private final int round;
+    private final long start = System.nanoTime();
+    private final Map<GenerationStep, Step> steps = new LinkedHashMap<>();
+    private long roundNanos;
+    private int elements;
+    private int deferred;
+    private long validationNanos;
+    private int cacheHits;
+    private int cacheMisses;
+
+    /**
+     * @param round index of the round, starting at 1. Only the rounds with annotated elements are counted.
+     */
+    public ProcessingStats(int round) {
+        this.round = round;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    @NonNull
+    public Step get(@NonNull GenerationStep step) {
+        Step result = steps.get(notNull(step));
+        if (result == null) {
+            result = new Step(step.getSupportedAnnotation().getSimpleName());
+            steps.put(step, result);
+        }
+        return result;
+    }
+
+    /**
+     * Counts an annotated element and the time spent validating it, before it is handed to the steps.
+     */
+    public void addElement(long validationNanos) {
+        elements++;
+        this.validationNanos += validationNanos;
+    }
+
+    /**
+     * Counts an element left for a later round.
+     */
+    public void addDeferred() {
+        deferred++;
+    }
+
+    /**
+     * Ends the round.
+     */
+    public void finish(@NonNull EnrichedTypeElementCache cache) {
+        roundNanos = System.nanoTime() - start;
+        cacheHits = cache.getHitCount();
+        cacheMisses = cache.getMissCount();
+    }
+
+    /**
+     * @return a human-readable summary, one line per step.
+     */
+    @NonNull
+    public String toSummary() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format(Locale.ROOT,
+                                    "Noopetal round %d: %d elements (%d deferred) in %.1f ms, validation %.1f ms, "
+                                    + "model cache %d hits / %d misses",
+                                    round,
+                                    elements,
+                                    deferred,
+                                    millis(roundNanos),
+                                    millis(validationNanos),
+                                    cacheHits,
+                                    cacheMisses));
+        for (Step step : steps.values()) {
+            result.append(String.format(Locale.ROOT,
+                                        "%n  @%-10s %5d interfaces %6d methods %9d chars  validation %7.1f ms  "
+                                        + "parsing %7.1f ms  building %7.1f ms  writing %7.1f ms",
+                                        step.name,
+                                        step.interfaces,
+                                        step.methods.get(),
+                                        step.characters,
+                                        millis(step.validationNanos),
+                                        millis(step.parsingNanos),
+                                        millis(step.buildingNanos.get()),
+                                        millis(step.writingNanos)));
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return the statistics in the properties format, the durations in nanoseconds. Keys are always in the same
+     * order so reports can be compared across builds.
+     */
+    @NonNull
+    public String toReport() {
+        StringBuilder result = new StringBuilder();
+        appendProperty(result, "round", round);
+        appendProperty(result, "round.nanos", roundNanos);
+        appendProperty(result, "round.elements", elements);
+        appendProperty(result, "round.deferred", deferred);
+        appendProperty(result, "round.validationNanos", validationNanos);
+        appendProperty(result, "cache.hits", cacheHits);
+        appendProperty(result, "cache.misses", cacheMisses);
+        for (Step step : steps.values()) {
+            final String prefix = step.name + ".";
+            appendProperty(result, prefix + "interfaces", step.interfaces);
+            appendProperty(result, prefix + "methods", step.methods.get());
+            appendProperty(result, prefix + "characters", step.characters);
+            appendProperty(result, prefix + "validationNanos", step.validationNanos);
+            appendProperty(result, prefix + "parsingNanos", step.parsingNanos);
+            appendProperty(result, prefix + "buildingNanos", step.buildingNanos.get());
+            appendProperty(result, prefix + "writingNanos", step.writingNanos);
+        }
+        return result.toString();
+    }
+
+    private static void appendProperty(StringBuilder builder, String key, long value) {
+        builder.append(key).append('=').append(value).append('\n');
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000d;
+    }
+
+    /**
+     * Statistics of a single {@link GenerationStep}.
+     */
+    static final class Step {
+
+        private final String name;
+        private final AtomicLong methods = new AtomicLong();
+        private final AtomicLong buildingNanos = new AtomicLong();
+        private int interfaces;
+        private long characters;
+        private long validationNanos;
+        private long parsingNanos;
+        private long writingNanos;
+
+        private Step(String name) {
+            this.name = name;
+        }
+
+        public void addValidation(long nanos) {
+            validationNanos += nanos;
+        }
+
+        /**
+         * Counts an interface for which the step created a generated type.
+         */
+        public void addParsing(long nanos) {
+            interfaces++;
+            parsingNanos += nanos;
+        }
+
+        /**
+         * Can be called from any thread.
+         */
+        public void addBuilding(long nanos, int methodCount) {
+            buildingNanos.addAndGet(nanos);
+            methods.addAndGet(methodCount);
+        }
+
+        public void addWriting(long nanos, long characterCount) {
+            writingNanos += nanos;
+            characters += characterCount;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Modifier;
+
+/**
+ * Generates a decorator forwarding each call under the lock of the stripe of its first argument, its key. The stripe
+ * is selected by the spread hash code of the key, masked by the number of stripes, a power of two. A call without
+ * arguments takes all the locks, in ascending order, so two of them cannot wait for each other, and releases them in
+ * the reverse order.
+ */
+final class StripedClass extends DecorClass {
+
+    private final int stripes;
+    private final NameAllocator names = new NameAllocator();
+    private final String stripesName;
+    private final String locksName;
+    private final String createLocksName;
+    private final String stripeName;
+    private final String lockAllName;
+    private final String unlockAllName;
+
+    public StripedClass(@NonNull String classPackage, @NonNull String className,
+                        @NonNull EnrichedTypeElement sourceType, @NonNull Class<? extends Processor> processorClass,
+                        int stripes) {
+        super(classPackage, className, sourceType, processorClass);
+        this.stripes = stripes;
+        // Members must not hide the methods of the interface.
+        for (InterfaceMethod method : sourceType.getMethods()) {
+            names.newName(method.getName(), method);
+        }
+        stripesName = names.newName("STRIPES");
+        locksName = names.newName("locks");
+        createLocksName = names.newName("createLocks");
+        stripeName = names.newName("stripe");
+        lockAllName = names.newName("lockAll");
+        unlockAllName = names.newName("unlockAll");
+    }
+
+    @Override
+    protected void addMembers(@NonNull TypeSpec.Builder result, @NonNull FieldSpec decorated) {
+        final TypeName locksType = ArrayTypeName.of(ReentrantLock.class);
+        result.addField(FieldSpec.builder(TypeName.INT, stripesName, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                                 .initializer("$L", stripes)
+                                 .build());
+        result.addField(FieldSpec.builder(locksType, locksName, Modifier.PRIVATE, Modifier.FINAL)
+                                 .initializer("$N()", createLocksName)
+                                 .build());
+        result.addMethod(MethodSpec.methodBuilder(createLocksName)
+                                   .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                                   .returns(locksType)
+                                   .addStatement("final $T result = new $T[$N]",
+                                                 locksType,
+                                                 ReentrantLock.class,
+                                                 stripesName)
+                                   .addStatement("for (int i = 0; i < $N; i++) result[i] = new $T()",
+                                                 stripesName,
+                                                 ReentrantLock.class)
+                                   .addStatement("return result")
+                                   .build());
+        result.addMethod(createStripe());
+        if (hasGlobalMethod()) {
+            result.addMethod(MethodSpec.methodBuilder(lockAllName)
+                                       .addModifiers(Modifier.PRIVATE)
+                                       .addStatement("for ($T lock : this.$N) lock.lock()",
+                                                     ReentrantLock.class,
+                                                     locksName)
+                                       .build());
+            result.addMethod(MethodSpec.methodBuilder(unlockAllName)
+                                       .addModifiers(Modifier.PRIVATE)
+                                       .addStatement("for (int i = $N - 1; i >= 0; i--) this.$N[i].unlock()",
+                                                     stripesName,
+                                                     locksName)
+                                       .build());
+        }
+    }
+
+    private boolean hasGlobalMethod() {
+        for (InterfaceMethod method : getSourceModel().getMethods()) {
+            if (method.getParameters().isEmpty()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The high bits of the hash code are mixed into the low ones, which select the stripe, as in
+     * <code>HashMap</code>. A <code>null</code> key has the first stripe.
+     */
+    @NonNull
+    private MethodSpec createStripe() {
+        return MethodSpec.methodBuilder(stripeName)
+                         .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                         .returns(TypeName.INT)
+                         .addParameter(TypeName.OBJECT, "key")
+                         .addStatement("if (key == null) return 0")
+                         .addStatement("final int hash = key.hashCode()")
+                         .addStatement("return (hash ^ (hash >>> 16)) & ($N - 1)", stripesName)
+                         .build();
+    }
+
+    @NonNull
+    @Override
+    protected MethodSpec.Builder createOverridingMethod(@NonNull InterfaceMethod method, @NonNull CodeBlock delegate) {
+        final MethodSpec.Builder result = method.toBuilder();
+        final CodeBlock call = createForwardingCall(method, CodeBlock.builder().add("this.$L", delegate).build());
+        final CodeBlock unlock;
+        if (method.getParameters().isEmpty()) {
+            result.addStatement("$N()", lockAllName);
+            unlock = CodeBlock.builder().add("$N()", unlockAllName).build();
+        } else {
+            final String lock = method.newNameAllocator().newName("lock");
+            result.addStatement("final $T $N = this.$N[$N($N)]",
+                                ReentrantLock.class,
+                                lock,
+                                locksName,
+                                stripeName,
+                                method.getParameters().get(0));
+            result.addStatement("$N.lock()", lock);
+            unlock = CodeBlock.builder().add("$N.unlock()", lock).build();
+        }
+        result.beginControlFlow("try");
+        result.addStatement(method.isVoid() ? "$L" : "return $L", call);
+        result.nextControlFlow("finally");
+        result.addStatement("$L", unlock);
+        result.endControlFlow();
+        return result;
+    }
+}
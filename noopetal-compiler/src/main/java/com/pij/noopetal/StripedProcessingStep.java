@@ -0,0 +1,57 @@
+package com.pij.noopetal;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.lang.model.element.Element;
+
+final class StripedProcessingStep extends GenerationStep {
+
+    private static final String STRIPED_CLASS_PREFIX = "Striped";
+
+    public StripedProcessingStep(@NonNull ProcessingEnvironment processingEnv) {
+        super(processingEnv);
+    }
+
+    @NonNull
+    protected Class<Striped> getSupportedAnnotation() {
+        return Striped.class;
+    }
+
+    /**
+     * @return <code>true</code> if the element is a valid target of the {@link Striped} annotation.
+     */
+    protected boolean validate(Element element) {
+        if (!validateAnnotatedIsInterface(element)) return false;
+        final int stripes = element.getAnnotation(getSupportedAnnotation()).stripes();
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            error(element, "@Striped stripes must be a positive power of two, not %d", stripes);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Assumes the element is valid. It uses the value specified in the annotation, if it has a package. Otherwise uses
+     * the element's package.
+     * @param element annotated interface, assumed valid
+     * @return a representation of the generated class.
+     */
+    @Override
+    protected GeneratedType createGeneratedClass(EnrichedTypeElement element,
+                                                 Class<? extends Processor> processorClass) {
+        final Striped annotation = element.getAnnotation(getSupportedAnnotation());
+        final Pair<String, String> packageAndClassName = calculatePackageAndClassName(element,
+                                                                                      annotation.value(),
+                                                                                      STRIPED_CLASS_PREFIX);
+        return new StripedClass(packageAndClassName.getLeft(),
+                                packageAndClassName.getRight(),
+                                element,
+                                processorClass,
+                                annotation.stripes());
+    }
+
+}
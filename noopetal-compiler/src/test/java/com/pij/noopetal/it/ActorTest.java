@@ -0,0 +1,303 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.Actor;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Integration test for the {@link Actor} annotation.
+ */
+public class ActorTest {
+
+    private static void assertGeneration(JavaFileObject source, JavaFileObject expectedGeneratedSource) {
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedGeneratedSource);
+    }
+
+    @Test
+    public void test_voidAndNonVoidMethods_CompilesAndGeneratesActorDecorator() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Actor",
+                                               "public interface Test {",
+                                               "void record(String account, long amount);",
+                                               "long balance(String account) throws java.io.IOException;",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/ActorTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.io.IOException;",
+                                                 "import java.lang.reflect.UndeclaredThrowableException;",
+                                                 "import java.util.Queue;",
+                                                 "import java.util.concurrent.ConcurrentLinkedQueue;",
+                                                 "import java.util.concurrent.CountDownLatch;",
+                                                 "import java.util.concurrent.Executor;",
+                                                 "import java.util.concurrent.atomic.AtomicBoolean;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class ActorTest implements Test {",
+                                                 "private final Test decorated;",
+                                                 "private final Executor executor;",
+                                                 "private final Queue<Command> commands = new "
+                                                 + "ConcurrentLinkedQueue<>();",
+                                                 "private final AtomicBoolean scheduled = new AtomicBoolean();",
+                                                 "private volatile Thread consumer;",
+                                                 "private final Runnable drainTask = new Runnable() {",
+                                                 "@Override",
+                                                 "public void run() {",
+                                                 "drain();",
+                                                 "}",
+                                                 "};",
+                                                 "public ActorTest(@NonNull final Test decorated, @NonNull final "
+                                                 + "Executor executor) {",
+                                                 "this.decorated = decorated;",
+                                                 "this.executor = executor;",
+                                                 "}",
+                                                 "private void submit(Command command) {",
+                                                 "commands.offer(command);",
+                                                 "schedule();",
+                                                 "}",
+                                                 "private void schedule() {",
+                                                 "if (!scheduled.compareAndSet(false, true)) return;",
+                                                 "try {",
+                                                 "executor.execute(drainTask);",
+                                                 "} catch (RuntimeException e) {",
+                                                 "reject(e);",
+                                                 "throw e;",
+                                                 "}",
+                                                 "}",
+                                                 "private void reject(RuntimeException e) {",
+                                                 "do {",
+                                                 "Command command;",
+                                                 "while ((command = commands.poll()) != null) {",
+                                                 "if (command.done != null) {",
+                                                 "command.error = e;",
+                                                 "command.done.countDown();",
+                                                 "}",
+                                                 "}",
+                                                 "scheduled.set(false);",
+                                                 "} while (!commands.isEmpty() && scheduled.compareAndSet(false, true));",
+                                                 "}",
+                                                 "private void drain() {",
+                                                 "consumer = Thread.currentThread();",
+                                                 "try {",
+                                                 "Command command;",
+                                                 "while ((command = commands.poll()) != null) deliver(command);",
+                                                 "} finally {",
+                                                 "consumer = null;",
+                                                 "scheduled.set(false);",
+                                                 "}",
+                                                 "if (!commands.isEmpty()) schedule();",
+                                                 "}",
+                                                 "private void deliver(Command command) {",
+                                                 "try {",
+                                                 "switch (command.method) {",
+                                                 "case 0:",
+                                                 "deliverRecord(command.arguments);",
+                                                 "break;",
+                                                 "case 1:",
+                                                 "command.result = deliverBalance(command.arguments);",
+                                                 "break;",
+                                                 "}",
+                                                 "} catch (Throwable e) {",
+                                                 "if (command.done == null) {",
+                                                 "final Thread thread = Thread.currentThread();",
+                                                 "thread.getUncaughtExceptionHandler().uncaughtException(thread, e);",
+                                                 "} else {",
+                                                 "command.error = e;",
+                                                 "}",
+                                                 "} finally {",
+                                                 "if (command.done != null) command.done.countDown();",
+                                                 "}",
+                                                 "}",
+                                                 "private void deliverRecord(Object[] arguments) {",
+                                                 "final String account = (String)arguments[0];",
+                                                 "final long amount = (Long)arguments[1];",
+                                                 "this.decorated.record(account, amount);",
+                                                 "}",
+                                                 "private Object deliverBalance(Object[] arguments) throws "
+                                                 + "IOException {",
+                                                 "final String account = (String)arguments[0];",
+                                                 "return this.decorated.balance(account);",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void record(String account, long amount) {",
+                                                 "this.submit(new Command(0, new Object[]{ account, amount }, false));",
+                                                 "}",
+                                                 "@Override",
+                                                 "public long balance(String account) throws IOException {",
+                                                 "if (Thread.currentThread() == this.consumer) return "
+                                                 + "this.decorated.balance(account);",
+                                                 "final Command command = new Command(1, new Object[]{ account }, "
+                                                 + "true);",
+                                                 "this.submit(command);",
+                                                 "command.await();",
+                                                 "if (command.error != null) {",
+                                                 "if (command.error instanceof RuntimeException) throw "
+                                                 + "(RuntimeException)command.error;",
+                                                 "if (command.error instanceof Error) throw (Error)command.error;",
+                                                 "if (command.error instanceof IOException) throw "
+                                                 + "(IOException)command.error;",
+                                                 "throw new UndeclaredThrowableException(command.error);",
+                                                 "}",
+                                                 "return (Long)command.result;",
+                                                 "}",
+                                                 "private static final class Command {",
+                                                 "private final int method;",
+                                                 "private final Object[] arguments;",
+                                                 "private final CountDownLatch done;",
+                                                 "private Object result;",
+                                                 "private Throwable error;",
+                                                 "Command(int method, Object[] arguments, boolean awaited) {",
+                                                 "this.method = method;",
+                                                 "this.arguments = arguments;",
+                                                 "this.done = awaited ? new CountDownLatch(1) : null;",
+                                                 "}",
+                                                 "void await() {",
+                                                 "boolean interrupted = false;",
+                                                 "while (true) {",
+                                                 "try {",
+                                                 "done.await();",
+                                                 "break;",
+                                                 "} catch (InterruptedException e) {",
+                                                 "interrupted = true;",
+                                                 "}",
+                                                 "}",
+                                                 "if (interrupted) Thread.currentThread().interrupt();",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_rejectedTask_CompletesWaitingCommands() throws Exception {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Actor",
+                                               "public interface Test {",
+                                               "void touch();",
+                                               "int count();",
+                                               "}");
+        final ClassLoader classes = GeneratedClasses.compile(source);
+        final Class<?> type = classes.loadClass("test.Test");
+        final Object decorated = Proxy.newProxyInstance(classes, new Class<?>[]{ type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getReturnType() == int.class ? 0 : null;
+            }
+        });
+        // Runs the first task, then rejects the others once released.
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final Executor executor = new Executor() {
+            private final AtomicInteger tasks = new AtomicInteger();
+
+            @Override
+            public void execute(Runnable command) {
+                if (tasks.getAndIncrement() == 0) {
+                    command.run();
+                    return;
+                }
+                entered.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new RejectedExecutionException();
+            }
+        };
+        final Object actor = classes.loadClass("test.ActorTest")
+                                    .getConstructor(type, Executor.class)
+                                    .newInstance(decorated, executor);
+        final Method touch = type.getMethod("touch");
+        final Method count = type.getMethod("count");
+        touch.invoke(actor);
+
+        final Thread rejected = new Thread() {
+            @Override
+            public void run() {
+                invoke(touch, actor);
+            }
+        };
+        rejected.start();
+        entered.await();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                error.set(invoke(count, actor));
+            }
+        };
+        waiting.start();
+        while (waiting.getState() != Thread.State.WAITING) Thread.sleep(1);
+        released.countDown();
+
+        waiting.join(5000);
+        rejected.join(5000);
+        assertFalse(waiting.isAlive());
+        assertTrue(error.get() instanceof RejectedExecutionException);
+    }
+
+    private static Throwable invoke(Method method, Object target) {
+        try {
+            method.invoke(target);
+            return null;
+        } catch (InvocationTargetException e) {
+            return e.getCause();
+        } catch (IllegalAccessException e) {
+            return e;
+        }
+    }
+
+    @Test
+    public void test_genericMethodsAndParameterNamedAsMembers_Compiles() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Actor",
+                                               "public interface Test<T> {",
+                                               "<E extends Exception> T check(T command, String... arguments)"
+                                               + " throws E;",
+                                               "void drain(java.util.List<T> commands);",
+                                               "}");
+        assertAbout(javaSource()).that(source).processedWith(new NoopetalProcessor()).compilesWithoutError();
+    }
+
+    @Test
+    public void test_class_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Actor",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Actor must only be applied to an interface. Test isn't");
+    }
+}
@@ -0,0 +1,123 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.AsyncFacade;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static javax.tools.StandardLocation.SOURCE_OUTPUT;
+
+/**
+ * Integration test for the {@link AsyncFacade} annotation.
+ */
+public class AsyncFacadeTest {
+
+    @Test
+    public void test_methods_CompilesAndGeneratesInterfaceAndAdapter() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.AsyncFacade",
+                                               "public interface Test<K> {",
+                                               "String find(K key) throws java.io.IOException;",
+                                               "void close();",
+                                               "}");
+        JavaFileObject expectedInterface = forSourceLines("test/TestAsync",
+                                                          "package test;",
+                                                          "",
+                                                          "import java.util.concurrent.CompletableFuture;",
+                                                          "",
+                                                          "/**",
+                                                          " * @javax.annotation.Generated("
+                                                          + "\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                          "public interface TestAsync<K> {",
+                                                          "CompletableFuture<String> find(K key);",
+                                                          "CompletableFuture<Void> close();",
+                                                          "}");
+        JavaFileObject expectedAdapter = forSourceLines("test/TestAsyncAdapter",
+                                                        "package test;",
+                                                        "",
+                                                        "import android.support.annotation.NonNull;",
+                                                        "import java.util.concurrent.CompletableFuture;",
+                                                        "import java.util.concurrent.Executor;",
+                                                        "",
+                                                        "/**",
+                                                        " * @javax.annotation.Generated("
+                                                        + "\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                        "public class TestAsyncAdapter<K> implements TestAsync<K> {",
+                                                        "private final Test<K> decorated;",
+                                                        "private final Executor executor;",
+                                                        "",
+                                                        "public TestAsyncAdapter(@NonNull final Test<K> decorated, "
+                                                        + "@NonNull final Executor executor) {",
+                                                        "this.decorated = decorated;",
+                                                        "this.executor = executor;",
+                                                        "}",
+                                                        "@Override",
+                                                        "public CompletableFuture<String> find(K key) {",
+                                                        "final CompletableFuture<String> result = "
+                                                        + "new CompletableFuture<>();",
+                                                        "this.executor.execute(() -> {",
+                                                        "try {",
+                                                        "result.complete(this.decorated.find(key));",
+                                                        "} catch (Throwable e) {",
+                                                        "result.completeExceptionally(e);",
+                                                        "}",
+                                                        "});",
+                                                        "return result;",
+                                                        "}",
+                                                        "@Override",
+                                                        "public CompletableFuture<Void> close() {",
+                                                        "final CompletableFuture<Void> result = "
+                                                        + "new CompletableFuture<>();",
+                                                        "this.executor.execute(() -> {",
+                                                        "try {",
+                                                        "this.decorated.close();",
+                                                        "result.complete(null);",
+                                                        "} catch (Throwable e) {",
+                                                        "result.completeExceptionally(e);",
+                                                        "}",
+                                                        "});",
+                                                        "return result;",
+                                                        "}",
+                                                        "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedInterface, expectedAdapter);
+    }
+
+    @Test
+    public void test_genericMethodsPrimitivesAndClashingNames_Compiles() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.AsyncFacade(\".Service\")",
+                                               "public interface Test {",
+                                               "<V extends Comparable<V>> java.util.List<V> sort(java.util.List<V> result);",
+                                               "int count(String executor, long e);",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesFileNamed(SOURCE_OUTPUT, "test", "ServiceAdapter.java");
+    }
+
+    @Test
+    public void test_publicClass_doesNotCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.AsyncFacade",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@AsyncFacade must only be applied to an interface. Test isn't");
+    }
+}
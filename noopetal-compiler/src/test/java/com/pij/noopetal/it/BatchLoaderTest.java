@@ -0,0 +1,206 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.BatchLoader;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+/**
+ * Integration test for the {@link BatchLoader} annotation.
+ */
+public class BatchLoaderTest {
+
+    private static void assertGeneration(JavaFileObject source, JavaFileObject expectedGeneratedSource) {
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedGeneratedSource);
+    }
+
+    @Test
+    public void test_pairedMethods_CompilesAndGeneratesBatchLoadingDecorator() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.BatchLoader",
+                                               "public interface Test {",
+                                               "String get(Long id);",
+                                               "java.util.Map<Long, String> getAll(java.util.Collection<Long> ids);",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/BatchLoadingTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.lang.reflect.UndeclaredThrowableException;",
+                                                 "import java.util.Collection;",
+                                                 "import java.util.LinkedHashSet;",
+                                                 "import java.util.Map;",
+                                                 "import java.util.Set;",
+                                                 "import java.util.concurrent.CountDownLatch;",
+                                                 "import java.util.concurrent.TimeUnit;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class BatchLoadingTest implements Test {",
+                                                 "private static final int MAX_BATCH_SIZE = 100;",
+                                                 "private static final long MAX_DELAY_NANOS = "
+                                                 + "TimeUnit.MILLISECONDS.toNanos(0L);",
+                                                 "private final Test decorated;",
+                                                 "private final Loader getLoader = new Loader() {",
+                                                 "@Override",
+                                                 "@SuppressWarnings(\"unchecked\")",
+                                                 "protected Map<?, ?> load(Set<Object> keys) throws Exception {",
+                                                 "return decorated.getAll((Collection<Long>)(Collection)keys);",
+                                                 "}",
+                                                 "};",
+                                                 "public BatchLoadingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public String get(Long id) {",
+                                                 "final Object result;",
+                                                 "try {",
+                                                 "result = this.getLoader.get(id);",
+                                                 "} catch (Throwable e) {",
+                                                 "if (e instanceof RuntimeException) throw (RuntimeException)e;",
+                                                 "if (e instanceof Error) throw (Error)e;",
+                                                 "throw new UndeclaredThrowableException(e);",
+                                                 "}",
+                                                 "return (String)result;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public Map<Long, String> getAll(Collection<Long> ids) {",
+                                                 "return decorated.getAll(ids);",
+                                                 "}",
+                                                 "private abstract static class Loader {",
+                                                 "private Batch current;",
+                                                 "private int inFlight;",
+                                                 "protected abstract Map<?, ?> load(Set<Object> keys) throws "
+                                                 + "Exception;",
+                                                 "Object get(Object key) throws Throwable {",
+                                                 "final Batch batch;",
+                                                 "final boolean leader;",
+                                                 "synchronized (this) {",
+                                                 "leader = current == null;",
+                                                 "if (leader) current = new Batch();",
+                                                 "batch = current;",
+                                                 "batch.keys.add(key);",
+                                                 "if (batch.keys.size() >= MAX_BATCH_SIZE) {",
+                                                 "current = null;",
+                                                 "notifyAll();",
+                                                 "}",
+                                                 "}",
+                                                 "if (leader) {",
+                                                 "dispatch(batch);",
+                                                 "} else {",
+                                                 "batch.await();",
+                                                 "}",
+                                                 "if (batch.error != null) throw batch.error;",
+                                                 "return batch.result == null ? null : batch.result.get(key);",
+                                                 "}",
+                                                 "private void dispatch(Batch batch) {",
+                                                 "boolean interrupted = false;",
+                                                 "synchronized (this) {",
+                                                 "final long deadline = System.nanoTime() + MAX_DELAY_NANOS;",
+                                                 "long remaining = MAX_DELAY_NANOS;",
+                                                 "while (current == batch && (remaining > 0 || inFlight > 0)) {",
+                                                 "try {",
+                                                 "if (remaining > 0) {",
+                                                 "TimeUnit.NANOSECONDS.timedWait(this, remaining);",
+                                                 "} else {",
+                                                 "wait();",
+                                                 "}",
+                                                 "} catch (InterruptedException e) {",
+                                                 "interrupted = true;",
+                                                 "}",
+                                                 "remaining = deadline - System.nanoTime();",
+                                                 "}",
+                                                 "if (current == batch) current = null;",
+                                                 "inFlight++;",
+                                                 "}",
+                                                 "try {",
+                                                 "batch.result = load(batch.keys);",
+                                                 "} catch (Throwable e) {",
+                                                 "batch.error = e;",
+                                                 "} finally {",
+                                                 "synchronized (this) {",
+                                                 "inFlight--;",
+                                                 "notifyAll();",
+                                                 "}",
+                                                 "batch.done.countDown();",
+                                                 "if (interrupted) Thread.currentThread().interrupt();",
+                                                 "}",
+                                                 "}",
+                                                 "}",
+                                                 "private static final class Batch {",
+                                                 "private final Set<Object> keys = new LinkedHashSet<>();",
+                                                 "private final CountDownLatch done = new CountDownLatch(1);",
+                                                 "private Map<?, ?> result;",
+                                                 "private Throwable error;",
+                                                 "void await() {",
+                                                 "boolean interrupted = false;",
+                                                 "while (true) {",
+                                                 "try {",
+                                                 "done.await();",
+                                                 "break;",
+                                                 "} catch (InterruptedException e) {",
+                                                 "interrupted = true;",
+                                                 "}",
+                                                 "}",
+                                                 "if (interrupted) Thread.currentThread().interrupt();",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_genericInterfaceWithListBulkMethodAndCustomSuffix_Compiles() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "import java.util.List;",
+                                               "import java.util.Map;",
+                                               "@com.pij.noopetal.BatchLoader(bulkSuffix = \"Many\", maxDelayMillis = 5,"
+                                               + " maxBatchSize = 10)",
+                                               "public interface Test<V> {",
+                                               "V load(String key) throws java.io.IOException;",
+                                               "Map<String, V> loadMany(List<String> keys) throws java.io.IOException;",
+                                               "int size();",
+                                               "}");
+        assertAbout(javaSource()).that(source).processedWith(new NoopetalProcessor()).compilesWithoutError();
+    }
+
+    @Test
+    public void test_noPairedMethod_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.BatchLoader",
+                                               "public interface Test {",
+                                               "String get(Long id);",
+                                               "java.util.Map<Long, String> getAll(java.util.Collection<String> ids);",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@BatchLoader found no method paired with a bulk method");
+    }
+
+    @Test
+    public void test_class_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.BatchLoader",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@BatchLoader must only be applied to an interface. Test isn't");
+    }
+}
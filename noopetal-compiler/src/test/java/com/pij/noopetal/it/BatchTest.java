@@ -0,0 +1,289 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.Batch;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Integration test for the {@link Batch} annotation.
+ */
+public class BatchTest {
+
+    @Test
+    public void test_voidMethods_CompilesAndGeneratesBatchingDecorator() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Batch(maxBatchSize = 100)",
+                                               "public interface Test {",
+                                               "void accept(String s, int n);",
+                                               "void close();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/BatchingTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.util.ArrayDeque;",
+                                                 "import java.util.Arrays;",
+                                                 "import java.util.concurrent.Executor;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class BatchingTest implements Test {",
+                                                 "private static final int MAX_BATCH_SIZE = 100;",
+                                                 "private static final int ARITY = 2;",
+                                                 "private final Test decorated;",
+                                                 "private final Executor executor;",
+                                                 "private final Object lock = new Object();",
+                                                 "private final ArrayDeque<Calls> pending = new ArrayDeque<>();",
+                                                 "private final Runnable drainTask = new Runnable() {",
+                                                 "@Override",
+                                                 "public void run() {",
+                                                 "drain();",
+                                                 "}",
+                                                 "};",
+                                                 "private Calls current = new Calls();",
+                                                 "private Calls spare;",
+                                                 "private boolean draining;",
+                                                 "public BatchingTest(@NonNull final Test decorated, "
+                                                 + "@NonNull final Executor executor) {",
+                                                 "this.decorated = decorated;",
+                                                 "this.executor = executor;",
+                                                 "}",
+                                                 "public void flush() {",
+                                                 "passOn();",
+                                                 "}",
+                                                 "private void passOn() {",
+                                                 "final boolean drain;",
+                                                 "synchronized (lock) {",
+                                                 "drain = submit();",
+                                                 "}",
+                                                 "if (drain) startDrain();",
+                                                 "}",
+                                                 "private void startDrain() {",
+                                                 "try {",
+                                                 "executor.execute(drainTask);",
+                                                 "} catch (RuntimeException e) {",
+                                                 "synchronized (lock) {",
+                                                 "draining = false;",
+                                                 "}",
+                                                 "throw e;",
+                                                 "}",
+                                                 "}",
+                                                 "private boolean append(int method) {",
+                                                 "current.methods[current.size++] = method;",
+                                                 "if (current.size == MAX_BATCH_SIZE) return submit();",
+                                                 "return false;",
+                                                 "}",
+                                                 "private boolean submit() {",
+                                                 "if (current.size != 0) {",
+                                                 "pending.add(current);",
+                                                 "current = spare != null ? spare : new Calls();",
+                                                 "spare = null;",
+                                                 "}",
+                                                 "if (draining || pending.isEmpty()) return false;",
+                                                 "draining = true;",
+                                                 "return true;",
+                                                 "}",
+                                                 "private void drain() {",
+                                                 "while (true) {",
+                                                 "final Calls calls;",
+                                                 "synchronized (lock) {",
+                                                 "calls = pending.poll();",
+                                                 "if (calls == null) {",
+                                                 "draining = false;",
+                                                 "return;",
+                                                 "}",
+                                                 "}",
+                                                 "boolean delivered = false;",
+                                                 "try {",
+                                                 "deliver(calls);",
+                                                 "calls.clear();",
+                                                 "delivered = true;",
+                                                 "} finally {",
+                                                 "synchronized (lock) {",
+                                                 "if (delivered) spare = calls;",
+                                                 "else draining = false;",
+                                                 "}",
+                                                 "}",
+                                                 "}",
+                                                 "}",
+                                                 "private void deliver(Calls calls) {",
+                                                 "for (int call = 0; call < calls.size; call++) {",
+                                                 "final int offset = call * ARITY;",
+                                                 "switch (calls.methods[call]) {",
+                                                 "case 0:",
+                                                 "deliverAccept(calls.arguments, offset);",
+                                                 "break;",
+                                                 "case 1:",
+                                                 "deliverClose(calls.arguments, offset);",
+                                                 "break;",
+                                                 "}",
+                                                 "}",
+                                                 "}",
+                                                 "private void deliverAccept(Object[] arguments, int offset) {",
+                                                 "final String s = (String)arguments[offset];",
+                                                 "final int n = (Integer)arguments[offset + 1];",
+                                                 "this.decorated.accept(s, n);",
+                                                 "}",
+                                                 "private void deliverClose(Object[] arguments, int offset) {",
+                                                 "this.decorated.close();",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void accept(String s, int n) {",
+                                                 "final boolean drain;",
+                                                 "synchronized (lock) {",
+                                                 "final int offset = current.size * ARITY;",
+                                                 "current.arguments[offset] = s;",
+                                                 "current.arguments[offset + 1] = n;",
+                                                 "drain = append(0);",
+                                                 "}",
+                                                 "if (drain) startDrain();",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void close() {",
+                                                 "final boolean drain;",
+                                                 "synchronized (lock) {",
+                                                 "drain = append(1);",
+                                                 "}",
+                                                 "if (drain) startDrain();",
+                                                 "}",
+                                                 "private static final class Calls {",
+                                                 "private final int[] methods = new int[MAX_BATCH_SIZE];",
+                                                 "private final Object[] arguments = "
+                                                 + "new Object[MAX_BATCH_SIZE * ARITY];",
+                                                 "private int size;",
+                                                 "private void clear() {",
+                                                 "Arrays.fill(arguments, 0, size * ARITY, null);",
+                                                 "size = 0;",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expected);
+    }
+
+    @Test
+    public void test_rejectedDelivery_IsPassedOnWithNextBatch() throws Exception {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Batch(maxBatchSize = 2)",
+                                               "public interface Test {",
+                                               "void accept(String s);",
+                                               "}");
+        final ClassLoader classes = GeneratedClasses.compile(source);
+        final Class<?> type = classes.loadClass("test.Test");
+        final List<Object> delivered = new ArrayList<>();
+        final Object decorated = Proxy.newProxyInstance(classes, new Class<?>[]{ type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                delivered.add(args[0]);
+                return null;
+            }
+        });
+        final Executor executor = new Executor() {
+            private boolean rejected;
+
+            @Override
+            public void execute(Runnable command) {
+                if (rejected) {
+                    command.run();
+                } else {
+                    rejected = true;
+                    throw new RejectedExecutionException();
+                }
+            }
+        };
+        final Object batching = classes.loadClass("test.BatchingTest")
+                                       .getConstructor(type, Executor.class)
+                                       .newInstance(decorated, executor);
+        final Method accept = type.getMethod("accept", String.class);
+        accept.invoke(batching, "a");
+        try {
+            accept.invoke(batching, "b");
+            fail("The rejection should be thrown");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        accept.invoke(batching, "c");
+        accept.invoke(batching, "d");
+        assertEquals(Arrays.asList("a", "b", "c", "d"), delivered);
+    }
+
+    @Test
+    public void test_maxDelayGenericMethodsAndOwnFlush_Compiles() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Batch(maxDelayMillis = 20)",
+                                               "public interface Test<K> {",
+                                               "<V extends Comparable<V>> void put(K key, V value);",
+                                               "void send(byte[] payload, String... tags);",
+                                               "void close(String executor, long current);",
+                                               "void flush();",
+                                               "}");
+        assertAbout(javaSource()).that(source).processedWith(new NoopetalProcessor()).compilesWithoutError();
+    }
+
+    @Test
+    public void test_nonVoidMethod_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Batch",
+                                               "public interface Test {",
+                                               "void accept(String s);",
+                                               "int count();",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Batch methods must return void. count returns int");
+    }
+
+    @Test
+    public void test_negativeMaxDelay_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Batch(maxDelayMillis = -1)",
+                                               "public interface Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Batch maxDelayMillis must not be negative, not -1");
+    }
+
+    @Test
+    public void test_publicClass_doesNotCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Batch",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Batch must only be applied to an interface. Test isn't");
+    }
+}
@@ -0,0 +1,154 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.Coalesce;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+/**
+ * Integration test for the {@link Coalesce} annotation.
+ */
+public class CoalesceTest {
+
+    private static void assertGeneration(JavaFileObject source, JavaFileObject expectedGeneratedSource) {
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedGeneratedSource);
+    }
+
+    @Test
+    public void test_voidAndNonVoidMethods_CompilesAndGeneratesCoalescingDecorator() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Coalesce",
+                                               "public interface Test {",
+                                               "void clear();",
+                                               "String find(long id) throws java.io.IOException;",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/CoalescingTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.io.IOException;",
+                                                 "import java.lang.reflect.UndeclaredThrowableException;",
+                                                 "import java.util.concurrent.ConcurrentHashMap;",
+                                                 "import java.util.concurrent.ConcurrentMap;",
+                                                 "import java.util.concurrent.CountDownLatch;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class CoalescingTest implements Test {",
+                                                 "private final Test decorated;",
+                                                 "private final ConcurrentMap<Object, Call> calls = new "
+                                                 + "ConcurrentHashMap<>();",
+                                                 "public CoalescingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void clear() {",
+                                                 "decorated.clear();",
+                                                 "}",
+                                                 "@Override",
+                                                 "public String find(long id) throws IOException {",
+                                                 "final Object key = new FindKey(id);",
+                                                 "final Call call = new Call();",
+                                                 "final Call current = this.calls.putIfAbsent(key, call);",
+                                                 "if (current != null) {",
+                                                 "current.await();",
+                                                 "if (current.error != null) {",
+                                                 "if (current.error instanceof RuntimeException) throw "
+                                                 + "(RuntimeException)current.error;",
+                                                 "if (current.error instanceof Error) throw (Error)current.error;",
+                                                 "if (current.error instanceof IOException) throw "
+                                                 + "(IOException)current.error;",
+                                                 "throw new UndeclaredThrowableException(current.error);",
+                                                 "}",
+                                                 "return (String)current.result;",
+                                                 "}",
+                                                 "try {",
+                                                 "final String result = this.decorated.find(id);",
+                                                 "call.result = result;",
+                                                 "return result;",
+                                                 "} catch (Throwable e) {",
+                                                 "call.error = e;",
+                                                 "throw e;",
+                                                 "} finally {",
+                                                 "this.calls.remove(key, call);",
+                                                 "call.done.countDown();",
+                                                 "}",
+                                                 "}",
+                                                 "private static final class Call {",
+                                                 "private final CountDownLatch done = new CountDownLatch(1);",
+                                                 "private Object result;",
+                                                 "private Throwable error;",
+                                                 "void await() {",
+                                                 "boolean interrupted = false;",
+                                                 "while (true) {",
+                                                 "try {",
+                                                 "done.await();",
+                                                 "break;",
+                                                 "} catch (InterruptedException e) {",
+                                                 "interrupted = true;",
+                                                 "}",
+                                                 "}",
+                                                 "if (interrupted) Thread.currentThread().interrupt();",
+                                                 "}",
+                                                 "}",
+                                                 "private static final class FindKey {",
+                                                 "private final long id;",
+                                                 "private final int hash;",
+                                                 "FindKey(long id) {",
+                                                 "int hash = 1;",
+                                                 "this.id = id;",
+                                                 "hash = 31 * hash + (int)(id ^ (id >>> 32));",
+                                                 "this.hash = hash;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public boolean equals(Object object) {",
+                                                 "if (this == object) return true;",
+                                                 "if (!(object instanceof FindKey)) return false;",
+                                                 "final FindKey other = (FindKey)object;",
+                                                 "return this.id == other.id;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public int hashCode() {",
+                                                 "return hash;",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_genericInterface_CompilesWithUncheckedCast() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Coalesce",
+                                               "public interface Test<T> {",
+                                               "T get(String key);",
+                                               "int count();",
+                                               "}");
+        assertAbout(javaSource()).that(source).processedWith(new NoopetalProcessor()).compilesWithoutError();
+    }
+
+    @Test
+    public void test_publicClass_doesNotCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Coalesce",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Coalesce must only be applied to an interface. Test isn't");
+    }
+}
@@ -0,0 +1,172 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.Composite;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+/**
+ * Integration test for the {@link Composite} annotation.
+ */
+public class CompositeTest {
+
+    private static void assertGeneration(JavaFileObject source, JavaFileObject expectedGeneratedSource) {
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedGeneratedSource);
+    }
+
+    @Test
+    public void test_voidAndNonVoidMethods_CompilesAndGeneratesComposite() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Composite",
+                                               "public interface Test {",
+                                               "void onChange(int value);",
+                                               "boolean isEnabled();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/CompositeTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.util.Arrays;",
+                                                 "import java.util.concurrent.atomic.AtomicReference;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class CompositeTest implements Test {",
+                                                 "private final AtomicReference<Test[]> components = "
+                                                 + "new AtomicReference<>(new Test[0]);",
+                                                 "",
+                                                 "public void addComponent(@NonNull final Test component) {",
+                                                 "while (true) {",
+                                                 "final Test[] current = this.components.get();",
+                                                 "final Test[] next = Arrays.copyOf(current, current.length + 1);",
+                                                 "next[current.length] = component;",
+                                                 "if (this.components.compareAndSet(current, next)) return;",
+                                                 "}",
+                                                 "}",
+                                                 "public boolean removeComponent(@NonNull final Test component) {",
+                                                 "while (true) {",
+                                                 "final Test[] current = this.components.get();",
+                                                 "int index = 0;",
+                                                 "while (index < current.length && "
+                                                 + "!component.equals(current[index])) index++;",
+                                                 "if (index == current.length) return false;",
+                                                 "final Test[] next = Arrays.copyOf(current, current.length - 1);",
+                                                 "System.arraycopy(current, index + 1, next, index, "
+                                                 + "next.length - index);",
+                                                 "if (this.components.compareAndSet(current, next)) return true;",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void onChange(int value) {",
+                                                 "for (Test component : this.components.get()) {",
+                                                 "component.onChange(value);",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public boolean isEnabled() {",
+                                                 "boolean result = false;",
+                                                 "for (Test component : this.components.get()) {",
+                                                 "result = component.isEnabled();",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_firstPolicy_CompilesAndReturnsFirstResult() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Composite("
+                                               + "policy = com.pij.noopetal.Composite.Policy.FIRST)",
+                                               "public interface Test {",
+                                               "String find(long id);",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/CompositeTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.util.Arrays;",
+                                                 "import java.util.concurrent.atomic.AtomicReference;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class CompositeTest implements Test {",
+                                                 "private final AtomicReference<Test[]> components = "
+                                                 + "new AtomicReference<>(new Test[0]);",
+                                                 "",
+                                                 "public void addComponent(@NonNull final Test component) {",
+                                                 "while (true) {",
+                                                 "final Test[] current = this.components.get();",
+                                                 "final Test[] next = Arrays.copyOf(current, current.length + 1);",
+                                                 "next[current.length] = component;",
+                                                 "if (this.components.compareAndSet(current, next)) return;",
+                                                 "}",
+                                                 "}",
+                                                 "public boolean removeComponent(@NonNull final Test component) {",
+                                                 "while (true) {",
+                                                 "final Test[] current = this.components.get();",
+                                                 "int index = 0;",
+                                                 "while (index < current.length && "
+                                                 + "!component.equals(current[index])) index++;",
+                                                 "if (index == current.length) return false;",
+                                                 "final Test[] next = Arrays.copyOf(current, current.length - 1);",
+                                                 "System.arraycopy(current, index + 1, next, index, "
+                                                 + "next.length - index);",
+                                                 "if (this.components.compareAndSet(current, next)) return true;",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public String find(long id) {",
+                                                 "final Test[] current = this.components.get();",
+                                                 "if (current.length == 0) return null;",
+                                                 "final String result = current[0].find(id);",
+                                                 "for (int i = 1; i < current.length; i++) {",
+                                                 "current[i].find(id);",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_firstNonNullPolicyOnGenericInterface_Compiles() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Composite("
+                                               + "policy = com.pij.noopetal.Composite.Policy.FIRST_NON_NULL)",
+                                               "public interface Test<K> {",
+                                               "String find(K key, String result) throws java.io.IOException;",
+                                               "<V extends Comparable<V>> java.util.List<V> sort(java.util.List<V> current);",
+                                               "void close(K component);",
+                                               "short count();",
+                                               "}");
+        assertAbout(javaSource()).that(source).processedWith(new NoopetalProcessor()).compilesWithoutError();
+    }
+
+    @Test
+    public void test_publicClass_doesNotCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Composite",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Composite must only be applied to an interface. Test isn't");
+    }
+}
@@ -474,6 +474,102 @@ public class DecorTest {
         assertGeneration(source, expected);
     }
 
+    @Test
+    public void test_mutableVolatile_CompilesAndGeneratesVolatileField() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Decor(mutable = true, publication = "
+                                               + "com.pij.noopetal.Decor.Publication.VOLATILE)",
+                                               "public interface Test {",
+                                               "void thisMethod();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/DecoratingTest",
+                                                 "package test;",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class DecoratingTest implements Test {",
+                                                 "private volatile Test decorated;",
+                                                 "public DecoratingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "",
+                                                 "public void setDecorated(@NonNull final Test newValue) {",
+                                                 "this.decorated = newValue;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void thisMethod() {",
+                                                 "decorated.thisMethod();",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_mutableAtomicWithCompareAndSet_CompilesAndGeneratesAtomicReference() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Decor(mutable = true, publication = "
+                                               + "com.pij.noopetal.Decor.Publication.ATOMIC, compareAndSet = true)",
+                                               "public interface Test {",
+                                               "String thisMethod(int value);",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/DecoratingTest",
+                                                 "package test;",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.util.concurrent.atomic.AtomicReference;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class DecoratingTest implements Test {",
+                                                 "private final AtomicReference<Test> decorated;",
+                                                 "public DecoratingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = new AtomicReference<>(decorated);",
+                                                 "}",
+                                                 "",
+                                                 "public void setDecorated(@NonNull final Test newValue) {",
+                                                 "this.decorated.lazySet(newValue);",
+                                                 "}",
+                                                 "",
+                                                 "public boolean compareAndSetDecorated(@NonNull final Test expected, "
+                                                 + "@NonNull final Test newValue) {",
+                                                 "return this.decorated.compareAndSet(expected, newValue);",
+                                                 "}",
+                                                 "@Override",
+                                                 "public String thisMethod(int value) {",
+                                                 "return decorated.get().thisMethod(value);",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_publicationWithoutMutable_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Decor(publication = "
+                                               + "com.pij.noopetal.Decor.Publication.VOLATILE)",
+                                               "public interface Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Decor publication VOLATILE requires mutable = true");
+    }
+
+    @Test
+    public void test_compareAndSetWithoutAtomic_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Decor(mutable = true, compareAndSet = true)",
+                                               "public interface Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Decor compareAndSet requires mutable = true and publication = "
+                                                      + "ATOMIC");
+    }
+
     @Test
     public void test_inheritsFromInterfaceAndMethodVoidWithNoArguments_CompilesAndGeneratesCallsDecorated() {
         JavaFileObject sourceParent = forSourceLines("test.TestParent",
@@ -600,4 +696,174 @@ public class DecorTest {
                                   .generatesSources(expected);
     }
 
+    @Test
+    public void test_inheritsSameInterfaceTwice_CompilesAndGeneratesInheritedMethodOnce() {
+        JavaFileObject sourceBase = forSourceLines("test.TestBase",
+                                                   "package test;",
+                                                   "public interface TestBase {",
+                                                   "void thisMethod();",
+                                                   "}");
+        JavaFileObject sourceLeft = forSourceLines("test.TestLeft",
+                                                   "package test;",
+                                                   "public interface TestLeft extends TestBase {",
+                                                   "}");
+        JavaFileObject sourceRight = forSourceLines("test.TestRight",
+                                                    "package test;",
+                                                    "public interface TestRight extends TestBase {",
+                                                    "}");
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Decor",
+                                               "public interface Test extends TestLeft, TestRight {",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/DecoratingTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class DecoratingTest implements Test {",
+                                                 "",
+                                                 "private final Test decorated;",
+                                                 "",
+                                                 "public DecoratingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void thisMethod() {",
+                                                 "decorated.thisMethod();",
+                                                 "}",
+                                                 "}");
+        assertAbout(javaSources()).that(asList(sourceBase, sourceLeft, sourceRight, source))
+                                  .processedWith(new NoopetalProcessor())
+                                  .compilesWithoutError()
+                                  .and()
+                                  .generatesSources(expected);
+    }
+
+    @Test
+    public void test_redeclaresGenericParentMethod_CompilesAndGeneratesMethodOnce() {
+        JavaFileObject sourceParent = forSourceLines("test.TestParent",
+                                                     "package test;",
+                                                     "public interface TestParent<T> {",
+                                                     "void accept(T value);",
+                                                     "}");
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Decor",
+                                               "public interface Test extends TestParent<String> {",
+                                               "void accept(String value);",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/DecoratingTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class DecoratingTest implements Test {",
+                                                 "",
+                                                 "private final Test decorated;",
+                                                 "",
+                                                 "public DecoratingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void accept(String value) {",
+                                                 "decorated.accept(value);",
+                                                 "}",
+                                                 "}");
+        assertAbout(javaSources()).that(asList(sourceParent, source))
+                                  .processedWith(new NoopetalProcessor())
+                                  .compilesWithoutError()
+                                  .and()
+                                  .generatesSources(expected);
+    }
+
+    @Test
+    public void test_sameMethodInUnrelatedParents_CompilesAndGeneratesMostSpecificReturnType() {
+        JavaFileObject sourceLeft = forSourceLines("test.TestLeft",
+                                                   "package test;",
+                                                   "public interface TestLeft {",
+                                                   "CharSequence thisMethod();",
+                                                   "static void notInherited() {}",
+                                                   "}");
+        JavaFileObject sourceRight = forSourceLines("test.TestRight",
+                                                    "package test;",
+                                                    "public interface TestRight {",
+                                                    "String thisMethod();",
+                                                    "}");
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Decor",
+                                               "public interface Test extends TestLeft, TestRight {",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/DecoratingTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class DecoratingTest implements Test {",
+                                                 "",
+                                                 "private final Test decorated;",
+                                                 "",
+                                                 "public DecoratingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public String thisMethod() {",
+                                                 "return decorated.thisMethod();",
+                                                 "}",
+                                                 "}");
+        assertAbout(javaSources()).that(asList(sourceLeft, sourceRight, source))
+                                  .processedWith(new NoopetalProcessor())
+                                  .compilesWithoutError()
+                                  .and()
+                                  .generatesSources(expected);
+    }
+
+    @Test
+    public void test_sameMethodInUnrelatedParentsWithDifferentExceptions_CompilesAndGeneratesCommonExceptions() {
+        JavaFileObject sourceLeft = forSourceLines("test.TestLeft",
+                                                   "package test;",
+                                                   "public interface TestLeft {",
+                                                   "void thisMethod() throws java.io.IOException, IllegalStateException;",
+                                                   "}");
+        JavaFileObject sourceRight = forSourceLines("test.TestRight",
+                                                    "package test;",
+                                                    "public interface TestRight {",
+                                                    "void thisMethod() throws java.sql.SQLException, "
+                                                    + "java.io.FileNotFoundException;",
+                                                    "}");
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Decor",
+                                               "public interface Test extends TestLeft, TestRight {",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/DecoratingTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.io.FileNotFoundException;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class DecoratingTest implements Test {",
+                                                 "",
+                                                 "private final Test decorated;",
+                                                 "",
+                                                 "public DecoratingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void thisMethod() throws IllegalStateException, "
+                                                 + "FileNotFoundException {",
+                                                 "decorated.thisMethod();",
+                                                 "}",
+                                                 "}");
+        assertAbout(javaSources()).that(asList(sourceLeft, sourceRight, source))
+                                  .processedWith(new NoopetalProcessor())
+                                  .compilesWithoutError()
+                                  .and()
+                                  .generatesSources(expected);
+    }
 }
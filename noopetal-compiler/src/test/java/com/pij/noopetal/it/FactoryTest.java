@@ -6,12 +6,21 @@ import com.pij.noopetal.NoopetalProcessor;
 
 import org.junit.Test;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
 import javax.tools.JavaFileObject;
 
 import static com.google.common.truth.Truth.assertAbout;
 import static com.google.testing.compile.JavaFileObjects.forSourceLines;
 import static com.google.testing.compile.JavaFileObjects.forSourceString;
 import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static javax.tools.StandardLocation.SOURCE_OUTPUT;
+import static org.junit.Assert.assertEquals;
 
 /**
  * Integration test for the {@link Noop} annotation
@@ -224,4 +233,173 @@ public class FactoryTest {
         assertGeneration(source, expected);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_boundedPool_GeneratesPoolingFactory() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Factory(pool = com.pij.noopetal.Factory.Pool.BOUNDED, "
+                                               + "poolSize = 8)",
+                                               "public interface Test {",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test.PoolingTestFactory",
+                                                 "package test;",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.util.Queue;",
+                                                 "import java.util.concurrent.ArrayBlockingQueue;",
+                                                 "import java.util.concurrent.atomic.AtomicLongArray;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class PoolingTestFactory implements TestFactory {",
+                                                 "private static final int POOL_SIZE = 8;",
+                                                 "private static final int STRIPES = countStripes();",
+                                                 "private static final int STRIDE = 16;",
+                                                 "private final TestFactory factory;",
+                                                 "private final AtomicLongArray counters = new AtomicLongArray(STRIPES * "
+                                                 + "STRIDE);",
+                                                 "private final Queue<Test> pool = new ArrayBlockingQueue<>(POOL_SIZE);",
+                                                 "public PoolingTestFactory(@NonNull final TestFactory factory) {",
+                                                 "this.factory = factory;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public Test createTest() {",
+                                                 "final int offset = stripe() * STRIDE;",
+                                                 "final Test pooled = pool().poll();",
+                                                 "if (pooled != null) {",
+                                                 "counters.incrementAndGet(offset);",
+                                                 "return pooled;",
+                                                 "}",
+                                                 "counters.incrementAndGet(offset + 1);",
+                                                 "return factory.createTest();",
+                                                 "}",
+                                                 "public void release(@NonNull final Test instance) {",
+                                                 "reset(instance);",
+                                                 "pool().offer(instance);",
+                                                 "}",
+                                                 "protected void reset(@NonNull final Test instance) {",
+                                                 "}",
+                                                 "public long getHitCount() {",
+                                                 "long result = 0;",
+                                                 "for (int i = 0; i < STRIPES; i++) {",
+                                                 "result += counters.get(i * STRIDE + 0);",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "public long getMissCount() {",
+                                                 "long result = 0;",
+                                                 "for (int i = 0; i < STRIPES; i++) {",
+                                                 "result += counters.get(i * STRIDE + 1);",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "private Queue<Test> pool() {",
+                                                 "return pool;",
+                                                 "}",
+                                                 "private static int stripe() {",
+                                                 "return (int)(Thread.currentThread().getId() & (STRIPES - 1));",
+                                                 "}",
+                                                 "private static int countStripes() {",
+                                                 "final int processors = Math.min(64, Runtime.getRuntime()"
+                                                 + ".availableProcessors());",
+                                                 "final int stripes = Integer.highestOneBit(processors * 2 - 1);",
+                                                 "return stripes;",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_threadLocalPoolOfGenericInterface_GeneratesPoolingFactory() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Factory(pool = com.pij.noopetal.Factory.Pool"
+                                               + ".THREAD_LOCAL)",
+                                               "public interface Test<T> {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesFileNamed(SOURCE_OUTPUT, "test", "PoolingTestFactory.java");
+    }
+
+    @Test
+    public void test_stripedPool_SharesPoolSizeBetweenStripes() throws Exception {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Factory(pool = com.pij.noopetal.Factory.Pool.STRIPED, "
+                                               + "poolSize = 3)",
+                                               "public interface Test {",
+                                               "}");
+        final ClassLoader classes = GeneratedClasses.compile(source);
+        final Class<?> factoryType = classes.loadClass("test.TestFactory");
+        final Object factory = Proxy.newProxyInstance(classes, new Class<?>[]{ factoryType }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+        final Class<?> poolingType = classes.loadClass("test.PoolingTestFactory");
+        final Object pooling = poolingType.getConstructor(factoryType).newInstance(factory);
+        final Field pools = poolingType.getDeclaredField("pools");
+        pools.setAccessible(true);
+        int capacity = 0;
+        for (Object pool : (List<?>)pools.get(pooling)) {
+            capacity += ((BlockingQueue<?>)pool).remainingCapacity();
+        }
+        assertEquals(3, capacity);
+    }
+
+    @Test
+    public void test_nonPositivePoolSize_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Factory(pool = com.pij.noopetal.Factory.Pool.STRIPED, "
+                                               + "poolSize = 0)",
+                                               "public interface Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Factory poolSize must be positive, not 0");
+    }
+
+    @Test
+    public void test_lazy_GeneratesLazyFactory() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Factory(lazy = true)",
+                                               "public interface Test<T> {",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test.LazyTestFactory",
+                                                 "package test;",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public final class LazyTestFactory<T> implements TestFactory<T> {",
+                                                 "private TestFactory<T> factory;",
+                                                 "private volatile Test<T> instance;",
+                                                 "public LazyTestFactory(@NonNull final TestFactory<T> factory) {",
+                                                 "this.factory = factory;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public Test<T> createTest() {",
+                                                 "Test<T> result = this.instance;",
+                                                 "if (result == null) {",
+                                                 "synchronized (this) {",
+                                                 "result = this.instance;",
+                                                 "if (result == null) {",
+                                                 "result = this.factory.createTest();",
+                                                 "if (result != null) {",
+                                                 "this.instance = result;",
+                                                 "this.factory = null;",
+                                                 "}",
+                                                 "}",
+                                                 "}",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.pij.noopetal.it;
+
+import android.support.annotation.NonNull;
+
+import com.pij.noopetal.Batch;
+import com.pij.noopetal.NoopetalProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles sources with the processor, so the tests can run the generated classes.
+ */
+final class GeneratedClasses {
+
+    private GeneratedClasses() {
+    }
+
+    /**
+     * @return a class loader of the compiled sources, including the generated ones.
+     */
+    @NonNull
+    static ClassLoader compile(JavaFileObject... sources) throws IOException {
+        final File output = Files.createTempDirectory("noopetal").toFile();
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+        files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(output));
+        files.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singleton(output));
+        files.setLocation(StandardLocation.CLASS_PATH, Arrays.asList(getLocation(Batch.class),
+                                                                     getLocation(NonNull.class)));
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, files, null, null, null, Arrays.asList(sources));
+        task.setProcessors(Collections.singleton(new NoopetalProcessor()));
+        if (!task.call()) throw new AssertionError("The sources do not compile");
+        files.close();
+        return new URLClassLoader(new URL[]{ output.toURI().toURL() }, GeneratedClasses.class.getClassLoader());
+    }
+
+    private static File getLocation(Class<?> type) {
+        try {
+            return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
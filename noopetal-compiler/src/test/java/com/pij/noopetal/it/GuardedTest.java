@@ -0,0 +1,168 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.Guarded;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+/**
+ * Integration test for the {@link Guarded} annotation.
+ */
+public class GuardedTest {
+
+    private static void assertGeneration(JavaFileObject source, JavaFileObject expectedGeneratedSource) {
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedGeneratedSource);
+    }
+
+    @Test
+    public void test_readPrefixes_CompilesAndGeneratesReadWriteLockedDecorator() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Guarded(readPrefixes = { \"get\", \"list\" })",
+                                               "public interface Test {",
+                                               "String get(String name) throws java.io.IOException;",
+                                               "java.util.List<String> listNames();",
+                                               "void put(String name, String value);",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/GuardedTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.io.IOException;",
+                                                 "import java.util.List;",
+                                                 "import java.util.concurrent.locks.ReentrantReadWriteLock;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class GuardedTest implements Test {",
+                                                 "private final Test decorated;",
+                                                 "private final ReentrantReadWriteLock lock = new "
+                                                 + "ReentrantReadWriteLock();",
+                                                 "public GuardedTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public String get(String name) throws IOException {",
+                                                 "this.lock.readLock().lock();",
+                                                 "try {",
+                                                 "return this.decorated.get(name);",
+                                                 "} finally {",
+                                                 "this.lock.readLock().unlock();",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public List<String> listNames() {",
+                                                 "this.lock.readLock().lock();",
+                                                 "try {",
+                                                 "return this.decorated.listNames();",
+                                                 "} finally {",
+                                                 "this.lock.readLock().unlock();",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void put(String name, String value) {",
+                                                 "this.lock.writeLock().lock();",
+                                                 "try {",
+                                                 "this.decorated.put(name, value);",
+                                                 "} finally {",
+                                                 "this.lock.writeLock().unlock();",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_optimisticLock_CompilesAndGeneratesOptimisticReads() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "import com.pij.noopetal.Guarded;",
+                                               "@Guarded(lock = Guarded.Lock.OPTIMISTIC)",
+                                               "public interface Test {",
+                                               "int size();",
+                                               "void clear();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/GuardedTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.util.concurrent.locks.StampedLock;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class GuardedTest implements Test {",
+                                                 "private final Test decorated;",
+                                                 "private final StampedLock lock = new StampedLock();",
+                                                 "public GuardedTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public int size() {",
+                                                 "final long optimistic = this.lock.tryOptimisticRead();",
+                                                 "if (optimistic != 0L) {",
+                                                 "try {",
+                                                 "final int result = this.decorated.size();",
+                                                 "if (this.lock.validate(optimistic)) return result;",
+                                                 "} catch (Throwable e) {",
+                                                 "if (this.lock.validate(optimistic)) throw e;",
+                                                 "}",
+                                                 "}",
+                                                 "final long stamp = this.lock.readLock();",
+                                                 "try {",
+                                                 "return this.decorated.size();",
+                                                 "} finally {",
+                                                 "this.lock.unlockRead(stamp);",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void clear() {",
+                                                 "final long stamp = this.lock.writeLock();",
+                                                 "try {",
+                                                 "this.decorated.clear();",
+                                                 "} finally {",
+                                                 "this.lock.unlockWrite(stamp);",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_emptyReadPrefix_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Guarded(readPrefixes = { \"get\", \"\" })",
+                                               "public interface Test {",
+                                               "String get(String name);",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Guarded readPrefixes must not be empty strings");
+    }
+
+    @Test
+    public void test_class_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Guarded",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Guarded must only be applied to an interface. Test isn't");
+    }
+}
@@ -0,0 +1,199 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.Instrumented;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+/**
+ * Integration test for the {@link Instrumented} annotation.
+ */
+public class InstrumentedTest {
+
+    @Test
+    public void test_singleMethod_CompilesAndGeneratesMeasuringDecorator() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Instrumented",
+                                               "public interface Test {",
+                                               "String find(long id);",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/InstrumentedTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.util.ArrayList;",
+                                                 "import java.util.List;",
+                                                 "import java.util.concurrent.atomic.AtomicLongArray;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class InstrumentedTest implements Test {",
+                                                 "private static final String[] METHOD_NAMES = { \"find(long)\" };",
+                                                 "private static final int BUCKETS = 40;",
+                                                 "private static final int CALLS = 0;",
+                                                 "private static final int ERRORS = 1;",
+                                                 "private static final int TOTAL_NANOS = 2;",
+                                                 "private static final int FIRST_BUCKET = 3;",
+                                                 "private static final int SLOTS = FIRST_BUCKET + BUCKETS;",
+                                                 "private static final int STRIPES = countStripes();",
+                                                 "private static final int STRIDE = METHOD_NAMES.length * SLOTS + 16;",
+                                                 "private final Test decorated;",
+                                                 "private final AtomicLongArray counters = "
+                                                 + "new AtomicLongArray(STRIPES * STRIDE);",
+                                                 "",
+                                                 "public InstrumentedTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "public List<MethodSnapshot> snapshot() {",
+                                                 "final List<MethodSnapshot> result = "
+                                                 + "new ArrayList<>(METHOD_NAMES.length);",
+                                                 "for (int method = 0; method < METHOD_NAMES.length; method++) {",
+                                                 "final long[] values = new long[SLOTS];",
+                                                 "for (int stripe = 0; stripe < STRIPES; stripe++) {",
+                                                 "final int offset = stripe * STRIDE + method * SLOTS;",
+                                                 "for (int slot = 0; slot < SLOTS; slot++) {",
+                                                 "values[slot] += counters.get(offset + slot);",
+                                                 "}",
+                                                 "}",
+                                                 "result.add(new MethodSnapshot(METHOD_NAMES[method], values));",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "private void recordCall(int method, long nanos) {",
+                                                 "final int offset = offset(method);",
+                                                 "counters.incrementAndGet(offset + CALLS);",
+                                                 "counters.addAndGet(offset + TOTAL_NANOS, nanos);",
+                                                 "counters.incrementAndGet(offset + FIRST_BUCKET + bucket(nanos));",
+                                                 "}",
+                                                 "private void recordError(int method) {",
+                                                 "counters.incrementAndGet(offset(method) + ERRORS);",
+                                                 "}",
+                                                 "private static int offset(int method) {",
+                                                 "final int stripe = "
+                                                 + "(int)(Thread.currentThread().getId() & (STRIPES - 1));",
+                                                 "return stripe * STRIDE + method * SLOTS;",
+                                                 "}",
+                                                 "private static int bucket(long nanos) {",
+                                                 "return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));",
+                                                 "}",
+                                                 "private static int countStripes() {",
+                                                 "final int processors = "
+                                                 + "Math.min(64, Runtime.getRuntime().availableProcessors());",
+                                                 "return Integer.highestOneBit(processors * 2 - 1);",
+                                                 "}",
+                                                 "@Override",
+                                                 "public String find(long id) {",
+                                                 "final long start = System.nanoTime();",
+                                                 "try {",
+                                                 "return decorated.find(id);",
+                                                 "} catch (Throwable e) {",
+                                                 "recordError(0);",
+                                                 "throw e;",
+                                                 "} finally {",
+                                                 "recordCall(0, System.nanoTime() - start);",
+                                                 "}",
+                                                 "}",
+                                                 "public static final class MethodSnapshot {",
+                                                 "private final String name;",
+                                                 "private final long[] values;",
+                                                 "private MethodSnapshot(String name, long[] values) {",
+                                                 "this.name = name;",
+                                                 "this.values = values;",
+                                                 "}",
+                                                 "public String getName() {",
+                                                 "return name;",
+                                                 "}",
+                                                 "public long getCallCount() {",
+                                                 "return values[CALLS];",
+                                                 "}",
+                                                 "public long getErrorCount() {",
+                                                 "return values[ERRORS];",
+                                                 "}",
+                                                 "public long getTotalNanos() {",
+                                                 "return values[TOTAL_NANOS];",
+                                                 "}",
+                                                 "public long getBucketCount(int bucket) {",
+                                                 "return values[FIRST_BUCKET + bucket];",
+                                                 "}",
+                                                 "public int getBuckets() {",
+                                                 "return BUCKETS;",
+                                                 "}",
+                                                 "public long getPercentileNanos(double fraction) {",
+                                                 "final double threshold = fraction * values[CALLS];",
+                                                 "long count = 0;",
+                                                 "for (int bucket = 0; bucket < BUCKETS; bucket++) {",
+                                                 "count += values[FIRST_BUCKET + bucket];",
+                                                 "if (count > 0 && count >= threshold) {",
+                                                 "return bucket < BUCKETS - 1 ? 1L << bucket : Long.MAX_VALUE;",
+                                                 "}",
+                                                 "}",
+                                                 "return 0;",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expected);
+    }
+
+    @Test
+    public void test_overloadsExceptionsAndClashingNames_Compiles() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Instrumented",
+                                               "public interface Test<K> {",
+                                               "String find(long id, String name) throws java.io.IOException;",
+                                               "String find(K key);",
+                                               "<V> java.util.List<V> recordCall(V e, String start);",
+                                               "int offset(int method);",
+                                               "}");
+        assertAbout(javaSource()).that(source).processedWith(new NoopetalProcessor()).compilesWithoutError();
+    }
+
+    @Test
+    public void test_emptyInterface_Compiles() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Instrumented",
+                                               "public interface Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source).processedWith(new NoopetalProcessor()).compilesWithoutError();
+    }
+
+    @Test
+    public void test_methodNamedSnapshot_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Instrumented",
+                                               "interface Test {",
+                                               "    Object snapshot();",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining(
+                                         "@Instrumented generates a snapshot() method, so the interface cannot declare one");
+    }
+
+    @Test
+    public void test_publicClass_doesNotCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Instrumented",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Instrumented must only be applied to an interface. Test isn't");
+    }
+}
@@ -0,0 +1,140 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.Lazy;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+/**
+ * Integration test for the {@link Lazy} annotation.
+ */
+public class LazyTest {
+
+    private static void assertGeneration(JavaFileObject source, JavaFileObject expectedGeneratedSource) {
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedGeneratedSource);
+    }
+
+    @Test
+    public void test_voidAndNonVoidMethods_CompilesAndGeneratesLazyDecorator() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Lazy",
+                                               "public interface Test {",
+                                               "void start();",
+                                               "String find(long id);",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/LazyTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class LazyTest implements Test {",
+                                                 "private volatile Test decorated;",
+                                                 "private Supplier supplier;",
+                                                 "public LazyTest(@NonNull final Supplier supplier) {",
+                                                 "this.supplier = supplier;",
+                                                 "}",
+                                                 "private Test decorated() {",
+                                                 "final Test result = this.decorated;",
+                                                 "return result != null ? result : create();",
+                                                 "}",
+                                                 "private synchronized Test create() {",
+                                                 "Test result = this.decorated;",
+                                                 "if (result == null) {",
+                                                 "result = this.supplier.get();",
+                                                 "if (result == null) throw new NullPointerException(\"The supplier "
+                                                 + "returned null\");",
+                                                 "this.decorated = result;",
+                                                 "this.supplier = null;",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void start() {",
+                                                 "decorated().start();",
+                                                 "}",
+                                                 "@Override",
+                                                 "public String find(long id) {",
+                                                 "return decorated().find(id);",
+                                                 "}",
+                                                 "public interface Supplier {",
+                                                 "@NonNull",
+                                                 "Test get();",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_genericInterface_CompilesAndGeneratesGenericSupplier() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Lazy",
+                                               "public interface Test<T> {",
+                                               "T decorated();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/LazyTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class LazyTest<T> implements Test<T> {",
+                                                 "private volatile Test<T> decorated;",
+                                                 "private Supplier<T> supplier;",
+                                                 "public LazyTest(@NonNull final Supplier<T> supplier) {",
+                                                 "this.supplier = supplier;",
+                                                 "}",
+                                                 "private Test<T> decorated_() {",
+                                                 "final Test<T> result = this.decorated;",
+                                                 "return result != null ? result : create();",
+                                                 "}",
+                                                 "private synchronized Test<T> create() {",
+                                                 "Test<T> result = this.decorated;",
+                                                 "if (result == null) {",
+                                                 "result = this.supplier.get();",
+                                                 "if (result == null) throw new NullPointerException(\"The supplier "
+                                                 + "returned null\");",
+                                                 "this.decorated = result;",
+                                                 "this.supplier = null;",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public T decorated() {",
+                                                 "return decorated_().decorated();",
+                                                 "}",
+                                                 "public interface Supplier<T> {",
+                                                 "@NonNull",
+                                                 "Test<T> get();",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_publicClass_doesNotCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Lazy",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Lazy must only be applied to an interface. Test isn't");
+    }
+}
@@ -0,0 +1,308 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.Memoize;
+import com.pij.noopetal.NoopetalProcessor;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Integration test for the {@link Memoize} annotation.
+ */
+public class MemoizeTest {
+
+    private static void assertGeneration(JavaFileObject source, JavaFileObject expectedGeneratedSource) {
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedGeneratedSource);
+    }
+
+    @Test
+    public void test_nonVoidAndVoidMethods_CompilesAndGeneratesCachingDecorator() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Memoize(maximumSize = 10)",
+                                               "public interface Test {",
+                                               "String find(long id, String name);",
+                                               "int count();",
+                                               "void clear();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/MemoizingTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.util.LinkedHashMap;",
+                                                 "import java.util.Map;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class MemoizingTest implements Test {",
+                                                 "private static final int MAXIMUM_SIZE = 10;",
+                                                 "private static final Object NULL = new Object();",
+                                                 "private static final Object COUNT_KEY = new Object();",
+                                                 "private final Test decorated;",
+                                                 "private final Map<Object, Object> cache = "
+                                                 + "new LinkedHashMap<Object, Object>(16, 0.75f, true) {",
+                                                 "@Override",
+                                                 "protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {",
+                                                 "return size() > MAXIMUM_SIZE;",
+                                                 "}",
+                                                 "};",
+                                                 "private long hitCount;",
+                                                 "private long missCount;",
+                                                 "",
+                                                 "public MemoizingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "public long getHitCount() {",
+                                                 "synchronized (cache) {",
+                                                 "return hitCount;",
+                                                 "}",
+                                                 "}",
+                                                 "public long getMissCount() {",
+                                                 "synchronized (cache) {",
+                                                 "return missCount;",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public String find(long id, String name) {",
+                                                 "final Object key = new FindKey(id, name);",
+                                                 "synchronized (cache) {",
+                                                 "final Object cached = cache.get(key);",
+                                                 "if (cached != null) {",
+                                                 "hitCount++;",
+                                                 "return cached == NULL ? null : (String)cached;",
+                                                 "}",
+                                                 "missCount++;",
+                                                 "}",
+                                                 "final String result = decorated.find(id, name);",
+                                                 "synchronized (cache) {",
+                                                 "cache.put(key, result == null ? NULL : result);",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public int count() {",
+                                                 "final Object key = COUNT_KEY;",
+                                                 "synchronized (cache) {",
+                                                 "final Object cached = cache.get(key);",
+                                                 "if (cached != null) {",
+                                                 "hitCount++;",
+                                                 "return (Integer)cached;",
+                                                 "}",
+                                                 "missCount++;",
+                                                 "}",
+                                                 "final int result = decorated.count();",
+                                                 "synchronized (cache) {",
+                                                 "cache.put(key, result);",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void clear() {",
+                                                 "decorated.clear();",
+                                                 "}",
+                                                 "private static final class FindKey {",
+                                                 "private final long id;",
+                                                 "private final Object name;",
+                                                 "private final int hash;",
+                                                 "FindKey(long id, Object name) {",
+                                                 "int hash = 1;",
+                                                 "this.id = id;",
+                                                 "hash = 31 * hash + (int)(id ^ (id >>> 32));",
+                                                 "this.name = name;",
+                                                 "hash = 31 * hash + (name == null ? 0 : name.hashCode());",
+                                                 "this.hash = hash;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public boolean equals(Object object) {",
+                                                 "if (this == object) return true;",
+                                                 "if (!(object instanceof FindKey)) return false;",
+                                                 "final FindKey other = (FindKey)object;",
+                                                 "return this.id == other.id",
+                                                 "&& (this.name == null ? other.name == null : "
+                                                 + "this.name.equals(other.name));",
+                                                 "}",
+                                                 "@Override",
+                                                 "public int hashCode() {",
+                                                 "return hash;",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_expireAfterWrite_CompilesAndGeneratesExpiringEntries() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Memoize(expireAfterWriteMillis = 500, "
+                                               + "eviction = com.pij.noopetal.Memoize.Eviction.FIFO)",
+                                               "public interface Test {",
+                                               "boolean isValid();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/MemoizingTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.util.LinkedHashMap;",
+                                                 "import java.util.Map;",
+                                                 "import java.util.concurrent.TimeUnit;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class MemoizingTest implements Test {",
+                                                 "private static final int MAXIMUM_SIZE = 1000;",
+                                                 "private static final long EXPIRE_AFTER_WRITE_NANOS = "
+                                                 + "TimeUnit.MILLISECONDS.toNanos(500L);",
+                                                 "private static final Object IS_VALID_KEY = new Object();",
+                                                 "private final Test decorated;",
+                                                 "private final Map<Object, Entry> cache = "
+                                                 + "new LinkedHashMap<Object, Entry>(16, 0.75f, false) {",
+                                                 "@Override",
+                                                 "protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {",
+                                                 "return size() > MAXIMUM_SIZE;",
+                                                 "}",
+                                                 "};",
+                                                 "private long hitCount;",
+                                                 "private long missCount;",
+                                                 "",
+                                                 "public MemoizingTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "public long getHitCount() {",
+                                                 "synchronized (cache) {",
+                                                 "return hitCount;",
+                                                 "}",
+                                                 "}",
+                                                 "public long getMissCount() {",
+                                                 "synchronized (cache) {",
+                                                 "return missCount;",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public boolean isValid() {",
+                                                 "final Object key = IS_VALID_KEY;",
+                                                 "final long now = System.nanoTime();",
+                                                 "synchronized (cache) {",
+                                                 "final Entry cached = cache.get(key);",
+                                                 "if (cached != null && cached.expiresAt - now > 0) {",
+                                                 "hitCount++;",
+                                                 "return (Boolean)cached.value;",
+                                                 "}",
+                                                 "missCount++;",
+                                                 "}",
+                                                 "final boolean result = decorated.isValid();",
+                                                 "synchronized (cache) {",
+                                                 "cache.put(key, new Entry(result, System.nanoTime() + "
+                                                 + "EXPIRE_AFTER_WRITE_NANOS));",
+                                                 "}",
+                                                 "return result;",
+                                                 "}",
+                                                 "private static final class Entry {",
+                                                 "private final Object value;",
+                                                 "private final long expiresAt;",
+                                                 "Entry(Object value, long expiresAt) {",
+                                                 "this.value = value;",
+                                                 "this.expiresAt = expiresAt;",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_genericMethodsAndArrays_Compiles() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Memoize",
+                                               "public interface Test<K> {",
+                                               "<V> java.util.List<V> find(K key, double[] weights, String... tags);",
+                                               "float ratio(float a, double b, boolean c, char d);",
+                                               "}");
+        assertAbout(javaSource()).that(source).processedWith(new NoopetalProcessor()).compilesWithoutError();
+    }
+
+    @Test
+    public void test_parametersNamedAsMembers_DoNotHideThem() throws Exception {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Memoize",
+                                               "public interface Test {",
+                                               "String find(java.util.Map<String, String> cache, int hitCount);",
+                                               "}");
+        final ClassLoader classes = GeneratedClasses.compile(source);
+        final Class<?> type = classes.loadClass("test.Test");
+        final Object decorated = Proxy.newProxyInstance(classes, new Class<?>[]{ type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "found";
+            }
+        });
+        final Class<?> memoizingType = classes.loadClass("test.MemoizingTest");
+        final Object memoizing = memoizingType.getConstructor(type).newInstance(decorated);
+        final Map<String, String> cache = new HashMap<>();
+        final Method find = type.getMethod("find", Map.class, int.class);
+        assertEquals("found", find.invoke(memoizing, cache, 0));
+        assertEquals("found", find.invoke(memoizing, cache, 0));
+        assertTrue(cache.isEmpty());
+        assertEquals(1L, memoizingType.getMethod("getHitCount").invoke(memoizing));
+    }
+
+    @Test
+    public void test_nonPositiveMaximumSize_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Memoize(maximumSize = 0)",
+                                               "public interface Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Memoize maximumSize must be positive, not 0");
+    }
+
+    @Test
+    public void test_methodNamedAsCounterGetter_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Memoize",
+                                               "public interface Test {",
+                                               "long getHitCount();",
+                                               "String getMissCount(String overload);",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Memoize generates a getHitCount() method, so the interface "
+                                                      + "cannot declare one");
+    }
+
+    @Test
+    public void test_publicClass_doesNotCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Memoize",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Memoize must only be applied to an interface. Test isn't");
+    }
+}
@@ -6,6 +6,15 @@ import com.pij.noopetal.NoopetalProcessor;
 
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
 import javax.tools.JavaFileObject;
 
 import static com.google.common.truth.Truth.assertAbout;
@@ -14,6 +23,7 @@ import static com.google.testing.compile.JavaFileObjects.forSourceString;
 import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
 import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
 import static java.util.Arrays.asList;
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
 import static org.apache.commons.lang3.ArrayUtils.addAll;
 
 /**
@@ -28,7 +38,7 @@ public class NoopTest {
 
     private static final String[] STANDARD_EXPECTED_HEADER = {
             "package test;", "", "/**", " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
-            "public class NoopTest implements Test {"
+            "public class NoopTest implements Test {", "public static final NoopTest INSTANCE = new NoopTest();"
     };
 
     private static void assertGeneration(JavaFileObject source, JavaFileObject expectedGeneratedSource) {
@@ -60,10 +70,118 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
                                                  "}");
         assertGeneration(source, expected);
     }
 
+    @Test
+    public void test_notExtensible_GeneratesFinalClassWithPrivateConstructor() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Noop(extensible = false)",
+                                               "public interface Test {",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test.NoopTest",
+                                                 "package test;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public final class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
+                                                 "private NoopTest() {",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_emptyDefaults_ReturnSharedEmptyValues() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "import java.util.List;",
+                                               "import java.util.Map;",
+                                               "@com.pij.noopetal.Noop(defaults = com.pij.noopetal.Noop.Defaults.EMPTY)",
+                                               "public interface Test {",
+                                               "String name();",
+                                               "List<String> names();",
+                                               "Map<String, Integer> counts();",
+                                               "int[] values();",
+                                               "Test next();",
+                                               "Object value();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test.NoopTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import java.util.Collections;",
+                                                 "import java.util.List;",
+                                                 "import java.util.Map;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
+                                                 "private static final int[] EMPTY_INT_ARRAY = new int[0];",
+                                                 "@Override",
+                                                 "public String name() {",
+                                                 "return \"\";",
+                                                 "}",
+                                                 "@Override",
+                                                 "public List<String> names() {",
+                                                 "return Collections.emptyList();",
+                                                 "}",
+                                                 "@Override",
+                                                 "public Map<String, Integer> counts() {",
+                                                 "return Collections.emptyMap();",
+                                                 "}",
+                                                 "@Override",
+                                                 "public int[] values() {",
+                                                 "return EMPTY_INT_ARRAY;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public Test next() {",
+                                                 "return NoopTest.INSTANCE;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public Object value() {",
+                                                 "return null;",
+                                                 "}",
+                                                 "}");
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_emptyDefaults_ReturnAccessorOfGenericNoop() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Noop(defaults = com.pij.noopetal.Noop.Defaults.EMPTY)",
+                                               "public interface Test {",
+                                               "Other<String> other();",
+                                               "}");
+        JavaFileObject other = forSourceLines("test.Other",
+                                              "package test;",
+                                              "@com.pij.noopetal.Noop",
+                                              "public interface Other<T> {",
+                                              "}");
+        JavaFileObject expected = forSourceLines("test.NoopTest",
+                                                 "package test;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
+                                                 "@Override",
+                                                 "public Other<String> other() {",
+                                                 "return NoopOther.instance();",
+                                                 "}",
+                                                 "}");
+        assertAbout(javaSources()).that(asList(source, other))
+                                  .processedWith(new NoopetalProcessor())
+                                  .compilesWithoutError()
+                                  .and()
+                                  .generatesSources(expected);
+    }
+
     @Test
     public void test_defaultInterface_CompilesAndGeneratesDefaultClass() {
         JavaFileObject source = forSourceLines("test.Test", "package test;", "@com.pij.noopetal.Noop",
@@ -75,6 +193,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
                                                  "}");
         assertGeneration(source, expected);
     }
@@ -94,6 +213,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class Container_NoopTest implements Container.Test {",
+                                                 "public static final Container_NoopTest INSTANCE = new Container_NoopTest();",
                                                  "}");
         assertGeneration(source, expected);
     }
@@ -128,6 +248,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
                                                  "}");
         assertGeneration(source, expected);
 
@@ -251,6 +372,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
                                                  "@Override",
                                                  "public void oneArgMethod(List<String> anArg) {",
                                                  "}",
@@ -273,6 +395,12 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class NoopTest<T> implements Test<T> {",
+                                                 "@SuppressWarnings(\"rawtypes\")",
+                                                 "private static final NoopTest INSTANCE = new NoopTest();",
+                                                 "@SuppressWarnings(\"unchecked\")",
+                                                 "public static <T> NoopTest<T> instance() {",
+                                                 "return (NoopTest<T>)INSTANCE;",
+                                                 "}",
                                                  "@Override",
                                                  "public void oneArgMethod(String anArg) {",
                                                  "}",
@@ -295,6 +423,12 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class NoopTest<T extends Enum<T>> implements Test<T> {",
+                                                 "@SuppressWarnings(\"rawtypes\")",
+                                                 "private static final NoopTest INSTANCE = new NoopTest();",
+                                                 "@SuppressWarnings(\"unchecked\")",
+                                                 "public static <T extends Enum<T>> NoopTest<T> instance() {",
+                                                 "return (NoopTest<T>)INSTANCE;",
+                                                 "}",
                                                  "@Override",
                                                  "public void oneArgMethod(String anArg) {",
                                                  "}",
@@ -317,6 +451,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
                                                  "@Override",
                                                  "public <T extends Enum<T>> T oneArgMethod(T anArg) {",
                                                  "return null;",
@@ -339,6 +474,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class AnotherClass implements Test {",
+                                                 "public static final AnotherClass INSTANCE = new AnotherClass();",
                                                  "}");
         assertGeneration(source, expected);
     }
@@ -355,6 +491,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class AnotherClass implements Test {",
+                                                 "public static final AnotherClass INSTANCE = new AnotherClass();",
                                                  "}");
         assertGeneration(source, expected);
     }
@@ -371,6 +508,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class AnotherClass implements Test {",
+                                                 "public static final AnotherClass INSTANCE = new AnotherClass();",
                                                  "}");
         assertGeneration(source, expected);
     }
@@ -388,6 +526,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
                                                  "}");
         assertGeneration(source, expected);
     }
@@ -411,6 +550,7 @@ public class NoopTest {
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\")",
                                                  " */",
                                                  "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
                                                  "",
                                                  "@Override",
                                                  "public void thisMethod() {",
@@ -445,6 +585,7 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
                                                  "",
                                                  "@Override",
                                                  "public void thisMethod() {",
@@ -478,6 +619,218 @@ public class NoopTest {
                                                  "/**",
                                                  " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
                                                  "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
+                                                 "",
+                                                 "@Override",
+                                                 "public String thisMethod() {",
+                                                 "return null;",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void thatMethod() {",
+                                                 "}",
+                                                 "}");
+        assertAbout(javaSources()).that(asList(sourceParent, source))
+                                  .processedWith(new NoopetalProcessor())
+                                  .compilesWithoutError()
+                                  .and()
+                                  .generatesSources(expected);
+    }
+
+
+    @Test
+    public void test_allAnnotations_CompilesAndGeneratesNoopDecoratorAndFactory() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Noop",
+                                               "@com.pij.noopetal.Decor",
+                                               "@com.pij.noopetal.Factory",
+                                               "public interface Test {",
+                                               "int thisMethod(String anArg);",
+                                               "}");
+        JavaFileObject expectedNoop = forSourceLines("test/NoopTest",
+                                                     "package test;",
+                                                     "/**",
+                                                     " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                     "public class NoopTest implements Test {",
+                                                     "public static final NoopTest INSTANCE = new NoopTest();",
+                                                     "@Override",
+                                                     "public int thisMethod(String anArg) {",
+                                                     "return 0;",
+                                                     "}",
+                                                     "}");
+        JavaFileObject expectedDecor = forSourceLines("test/DecoratingTest",
+                                                      "package test;",
+                                                      "import android.support.annotation.NonNull;",
+                                                      "/**",
+                                                      " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                      "public class DecoratingTest implements Test {",
+                                                      "private final Test decorated;",
+                                                      "public DecoratingTest(@NonNull final Test decorated) {",
+                                                      "this.decorated = decorated;",
+                                                      "}",
+                                                      "@Override",
+                                                      "public int thisMethod(String anArg) {",
+                                                      "return decorated.thisMethod(anArg);",
+                                                      "}",
+                                                      "}");
+        JavaFileObject expectedFactory = forSourceLines("test/TestFactory",
+                                                        "package test;",
+                                                        "/**",
+                                                        " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                        "public interface TestFactory {",
+                                                        "Test createTest();",
+                                                        "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedNoop, expectedDecor, expectedFactory);
+    }
+
+    @Test
+    public void test_parallelism_CompilesAndGeneratesSameClassesAsSequential() {
+        JavaFileObject sourceOne = forSourceLines("test.TestOne",
+                                                  "package test;",
+                                                  "@com.pij.noopetal.Noop",
+                                                  "public interface TestOne {",
+                                                  "long thisMethod();",
+                                                  "}");
+        JavaFileObject sourceTwo = forSourceLines("test.TestTwo",
+                                                  "package test;",
+                                                  "@com.pij.noopetal.Noop",
+                                                  "public interface TestTwo extends TestOne {",
+                                                  "boolean thatMethod(String anArg);",
+                                                  "}");
+        JavaFileObject expectedOne = forSourceLines("test/NoopTestOne",
+                                                    "package test;",
+                                                    "/**",
+                                                    " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                    "public class NoopTestOne implements TestOne {",
+                                                    "public static final NoopTestOne INSTANCE = new NoopTestOne();",
+                                                    "@Override",
+                                                    "public long thisMethod() {",
+                                                    "return 0L;",
+                                                    "}",
+                                                    "}");
+        JavaFileObject expectedTwo = forSourceLines("test/NoopTestTwo",
+                                                    "package test;",
+                                                    "/**",
+                                                    " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                    "public class NoopTestTwo implements TestTwo {",
+                                                    "public static final NoopTestTwo INSTANCE = new NoopTestTwo();",
+                                                    "@Override",
+                                                    "public long thisMethod() {",
+                                                    "return 0L;",
+                                                    "}",
+                                                    "@Override",
+                                                    "public boolean thatMethod(String anArg) {",
+                                                    "return false;",
+                                                    "}",
+                                                    "}");
+        assertAbout(javaSources()).that(asList(sourceOne, sourceTwo))
+                                  .withCompilerOptions("-Anoopetal.parallelism=4")
+                                  .processedWith(new NoopetalProcessor())
+                                  .compilesWithoutError()
+                                  .and()
+                                  .generatesSources(expectedOne, expectedTwo);
+    }
+
+    @Test
+    public void test_statsAsNote_CompilesAndReportsRoundSummary() {
+        JavaFileObject source = forSourceLines("test.Test", addAll(STANDARD_SOURCE_HEADER, "void aMethod();", "}"));
+
+        assertAbout(javaSource()).that(source)
+                                 .withCompilerOptions("-Anoopetal.stats=note")
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .withNoteContaining("Noopetal round 1: 1 elements");
+    }
+
+    @Test
+    public void test_statsAsReport_CompilesAndGeneratesReportFile() {
+        JavaFileObject source = forSourceLines("test.Test", addAll(STANDARD_SOURCE_HEADER, "void aMethod();", "}"));
+
+        assertAbout(javaSource()).that(source)
+                                 .withCompilerOptions("-Anoopetal.stats=report")
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesFileNamed(CLASS_OUTPUT, "", "META-INF/noopetal/stats-round1.properties");
+    }
+
+    @Test
+    public void test_parentReferencesTypeGeneratedLater_CompilesAndGeneratesInLaterRound() {
+        JavaFileObject sourceParent = forSourceLines("test.TestParent",
+                                                     "package test;",
+                                                     "public interface TestParent {",
+                                                     "generated.Generated thisMethod();",
+                                                     "}");
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Noop",
+                                               "public interface Test extends TestParent {",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/NoopTest",
+                                                 "package test;",
+                                                 "import generated.Generated;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\")",
+                                                 " */",
+                                                 "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
+                                                 "",
+                                                 "@Override",
+                                                 "public Generated thisMethod() {",
+                                                 "return null;",
+                                                 "}",
+                                                 "}");
+        assertAbout(javaSources()).that(asList(sourceParent, source))
+                                  .processedWith(new NoopetalProcessor(), new GeneratingProcessor())
+                                  .compilesWithoutError()
+                                  .and()
+                                  .generatesSources(expected);
+    }
+
+    @Test
+    public void test_parentReferencesMissingType_FailsWithDeferralError() {
+        JavaFileObject sourceParent = forSourceLines("test.TestParent",
+                                                     "package test;",
+                                                     "public interface TestParent {",
+                                                     "Missing thisMethod();",
+                                                     "}");
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Noop",
+                                               "public interface Test extends TestParent {",
+                                               "}");
+        assertAbout(javaSources()).that(asList(sourceParent, source))
+                                  .processedWith(new NoopetalProcessor())
+                                  .failsToCompile()
+                                  .withErrorContaining("NoopetalProcessor was unable to process this interface");
+    }
+
+    @Test
+    public void test_redeclaresParentMethodWithCovariantReturn_CompilesAndGeneratesMostSpecificMethodOnce() {
+        JavaFileObject sourceParent = forSourceLines("test.TestParent",
+                                                     "package test;",
+                                                     "public interface TestParent {",
+                                                     "Object thisMethod();",
+                                                     "void thatMethod();",
+                                                     "}");
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Noop",
+                                               "public interface Test extends TestParent {",
+                                               "String thisMethod();",
+                                               "void thatMethod();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/NoopTest",
+                                                 "package test;",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\")",
+                                                 " */",
+                                                 "public class NoopTest implements Test {",
+                                                 "public static final NoopTest INSTANCE = new NoopTest();",
                                                  "",
                                                  "@Override",
                                                  "public String thisMethod() {",
@@ -494,4 +847,34 @@ public class NoopTest {
                                   .generatesSources(expected);
     }
 
-}
\ No newline at end of file
+    /**
+     * Generates the class <code>generated.Generated</code> in the first round, as other processors would.
+     */
+    private static final class GeneratingProcessor extends AbstractProcessor {
+
+        private boolean generated;
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            if (!generated) {
+                generated = true;
+                try (Writer writer = processingEnv.getFiler().createSourceFile("generated.Generated").openWriter()) {
+                    writer.write("package generated; public class Generated {}");
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.pij.noopetal.it;
+
+import com.pij.noopetal.NoopetalProcessor;
+import com.pij.noopetal.Striped;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaFileObjects.forSourceLines;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+
+/**
+ * Integration test for the {@link Striped} annotation.
+ */
+public class StripedTest {
+
+    private static void assertGeneration(JavaFileObject source, JavaFileObject expectedGeneratedSource) {
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .compilesWithoutError()
+                                 .and()
+                                 .generatesSources(expectedGeneratedSource);
+    }
+
+    @Test
+    public void test_keyedAndGlobalMethods_CompilesAndGeneratesStripedDecorator() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Striped(stripes = 4)",
+                                               "public interface Test {",
+                                               "void deposit(String account, long amount);",
+                                               "long balance(long account) throws java.io.IOException;",
+                                               "int total();",
+                                               "}");
+        JavaFileObject expected = forSourceLines("test/StripedTest",
+                                                 "package test;",
+                                                 "",
+                                                 "import android.support.annotation.NonNull;",
+                                                 "import java.io.IOException;",
+                                                 "import java.util.concurrent.locks.ReentrantLock;",
+                                                 "",
+                                                 "/**",
+                                                 " * @javax.annotation.Generated(\"com.pij.noopetal.NoopetalProcessor\") */",
+                                                 "public class StripedTest implements Test {",
+                                                 "private static final int STRIPES = 4;",
+                                                 "private final Test decorated;",
+                                                 "private final ReentrantLock[] locks = createLocks();",
+                                                 "public StripedTest(@NonNull final Test decorated) {",
+                                                 "this.decorated = decorated;",
+                                                 "}",
+                                                 "private static ReentrantLock[] createLocks() {",
+                                                 "final ReentrantLock[] result = new ReentrantLock[STRIPES];",
+                                                 "for (int i = 0; i < STRIPES; i++) result[i] = new ReentrantLock();",
+                                                 "return result;",
+                                                 "}",
+                                                 "private static int stripe(Object key) {",
+                                                 "if (key == null) return 0;",
+                                                 "final int hash = key.hashCode();",
+                                                 "return (hash ^ (hash >>> 16)) & (STRIPES - 1);",
+                                                 "}",
+                                                 "private void lockAll() {",
+                                                 "for (ReentrantLock lock : this.locks) lock.lock();",
+                                                 "}",
+                                                 "private void unlockAll() {",
+                                                 "for (int i = STRIPES - 1; i >= 0; i--) this.locks[i].unlock();",
+                                                 "}",
+                                                 "@Override",
+                                                 "public void deposit(String account, long amount) {",
+                                                 "final ReentrantLock lock = this.locks[stripe(account)];",
+                                                 "lock.lock();",
+                                                 "try {",
+                                                 "this.decorated.deposit(account, amount);",
+                                                 "} finally {",
+                                                 "lock.unlock();",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public long balance(long account) throws IOException {",
+                                                 "final ReentrantLock lock = this.locks[stripe(account)];",
+                                                 "lock.lock();",
+                                                 "try {",
+                                                 "return this.decorated.balance(account);",
+                                                 "} finally {",
+                                                 "lock.unlock();",
+                                                 "}",
+                                                 "}",
+                                                 "@Override",
+                                                 "public int total() {",
+                                                 "lockAll();",
+                                                 "try {",
+                                                 "return this.decorated.total();",
+                                                 "} finally {",
+                                                 "unlockAll();",
+                                                 "}",
+                                                 "}",
+                                                 "}");
+
+        assertGeneration(source, expected);
+    }
+
+    @Test
+    public void test_genericMethodsNamedAsMembers_Compiles() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Striped",
+                                               "public interface Test<K> {",
+                                               "<V> V stripe(K locks, V lock);",
+                                               "void lockAll(K key);",
+                                               "}");
+        assertAbout(javaSource()).that(source).processedWith(new NoopetalProcessor()).compilesWithoutError();
+    }
+
+    @Test
+    public void test_stripesNotPowerOfTwo_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Striped(stripes = 12)",
+                                               "public interface Test {",
+                                               "void deposit(String account, long amount);",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Striped stripes must be a positive power of two, not 12");
+    }
+
+    @Test
+    public void test_class_FailsToCompile() {
+        JavaFileObject source = forSourceLines("test.Test",
+                                               "package test;",
+                                               "@com.pij.noopetal.Striped",
+                                               "public class Test {",
+                                               "}");
+        assertAbout(javaSource()).that(source)
+                                 .processedWith(new NoopetalProcessor())
+                                 .failsToCompile()
+                                 .withErrorContaining("@Striped must only be applied to an interface. Test isn't");
+    }
+}